@@ -0,0 +1,35 @@
+package docpreview.pdfbox.tools;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of the extension of a content type, done for each uploaded content.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MimeTypesBenchmark {
+
+    @Param({ "application/pdf", "Image/JPEG",
+        "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "application/x-unknown" })
+    private String mimeType;
+
+    @Benchmark
+    public String lookupExt() {
+        return MimeTypes.lookupExt(mimeType);
+    }
+}
@@ -0,0 +1,97 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Rendering of a whole document of the {@link SyntheticCorpus} into JPEG
+ * files, as done for an uploaded doc, and into JPEG byte arrays, at the DPIs
+ * of the image sizes.
+ *
+ * The workers of the parallel rendering are not used, and the render pipeline
+ * has one encode and one write thread, so that a score is the cost of the
+ * rendering of the document by a single thread of each stage. The rendering in
+ * bands trades the CPU of a content stream parsed for each band for the memory
+ * of the rasters, reported by {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PDFToImageBenchmark {
+
+    @Param({ "TEXT", "VECTOR", "IMAGE" })
+    private SyntheticCorpus corpus;
+
+    @Param({ "72", "150", "300" })
+    private int dpi;
+
+    /**
+     * the memory of a rendered raster beyond which a page is rendered in bands,
+     * 0 to render the whole pages
+     */
+    @Param({ "0", "4194304" })
+    private long bandBytes;
+
+    private byte[] content;
+
+    private PDDocument document;
+
+    private File outputDir;
+
+    private RenderPipeline renderPipeline;
+
+    private PDFToImageUtil pdfToImageUtil;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = corpus.load();
+        document = PDDocument.load(content);
+        outputDir = Files.createTempDirectory("benchmark-").toFile();
+        // without the index of the written images, as each invocation rewrites them
+        renderPipeline = new RenderPipeline(1, 1, 16, new SimpleMeterRegistry());
+        pdfToImageUtil = new PDFToImageUtil(1, 0, bandBytes, new ImageHashIndex(0),
+            new PDFMemoryBudget(64 << 20, 256 << 20, outputDir.getPath()), renderPipeline);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pdfToImageUtil.preDestroy();
+        renderPipeline.preDestroy();
+        document.close();
+        FileUtils.deleteDirectory(outputDir);
+    }
+
+    @Benchmark
+    public int converPDFToImage() throws IOException {
+        return pdfToImageUtil.converPDFToImage(content, new File(outputDir, "img.").getPath(), dpi, 1.0f);
+    }
+
+    @Benchmark
+    public List<byte[]> converPDFToImageByteArray() throws IOException {
+        return pdfToImageUtil.converPDFToImageByteArray(document, dpi, 1.0f, 1, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,99 @@
+package docpreview.pdfbox.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-page cost of the rendering of a page into its image sizes, with a new
+ * raster and a new ImageIO writer for each image (baseline), and with the
+ * rasters and the writers of a {@link RenderContext}.
+ *
+ * Run with {@code ./mvnw -Pjmh test-compile exec:exec}: the {@code gc}
+ * profiler reports the allocation per page in {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderContextBenchmark {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    @Param({ "72", "150" })
+    private int dpi;
+
+    private PDDocument document;
+
+    private PDFRenderer renderer;
+
+    private RenderContext context;
+
+    private int page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        try (InputStream in = RenderContextBenchmark.class.getResourceAsStream(PDF_RESOURCE)) {
+            document = PDDocument.load(IOUtils.toByteArray(in));
+        }
+        renderer = new PDFRenderer(document);
+        context = new RenderContext();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        document.close();
+    }
+
+    @Benchmark
+    public boolean baseline() throws IOException {
+        final int pageIndex = nextPage();
+        BufferedImage image = renderer.renderImageWithDPI(pageIndex, dpi, ImageType.RGB);
+        boolean written = ImageFormat.JPEG.write(image, NullOutputStream.NULL_OUTPUT_STREAM, dpi, 1.0f);
+        image = PDFToImageUtil.downscale(image, 0.5);
+        written &= ImageFormat.JPEG.write(image, NullOutputStream.NULL_OUTPUT_STREAM, dpi / 2, 1.0f);
+        image = PDFToImageUtil.downscale(image, 0.5);
+        return written & ImageFormat.JPEG.write(image, NullOutputStream.NULL_OUTPUT_STREAM, dpi / 4, 1.0f);
+    }
+
+    @Benchmark
+    public boolean renderContext() throws IOException {
+        final int pageIndex = nextPage();
+        BufferedImage image = context.renderImage(renderer, document.getPage(pageIndex), pageIndex, dpi,
+            ImageType.RGB);
+        boolean written = context.write(image, ImageFormat.JPEG, NullOutputStream.NULL_OUTPUT_STREAM, dpi, 1.0f);
+        image = PDFToImageUtil.downscale(context, image, 0.5);
+        written &= context.write(image, ImageFormat.JPEG, NullOutputStream.NULL_OUTPUT_STREAM, dpi / 2, 1.0f);
+        image = PDFToImageUtil.downscale(context, image, 0.5);
+        return written & context.write(image, ImageFormat.JPEG, NullOutputStream.NULL_OUTPUT_STREAM, dpi / 4, 1.0f);
+    }
+
+    private int nextPage() {
+        final int pageIndex = page;
+        page = (page + 1) % document.getNumberOfPages();
+        return pageIndex;
+    }
+}
@@ -0,0 +1,62 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * SHA-1 of a 5 MB content, in memory and in a file, as computed for the
+ * content store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SHAUtilBenchmark {
+
+    private static final int SIZE = 5 << 20;
+
+    private byte[] content;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        file = File.createTempFile("benchmark-", ".pdf");
+        Files.write(file.toPath(), content);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String hashBytes() {
+        return SHAUtil.hash(content);
+    }
+
+    @Benchmark
+    public String hashFile() throws IOException {
+        return SHAUtil.hash(file);
+    }
+}
@@ -0,0 +1,177 @@
+package docpreview.pdfbox.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+/**
+ * The synthetic PDF corpus of the benchmarks, one document per page type,
+ * checked into {@code src/test/resources/benchmark/corpus}.
+ *
+ * Regenerate it with {@code ./mvnw -Pjmh test-compile exec:java
+ * -Dexec.mainClass=docpreview.pdfbox.tools.SyntheticCorpus}: the documents are deterministic, so that the
+ * results of the benchmarks are comparable from a run to the next one.
+ */
+public enum SyntheticCorpus {
+
+    /**
+     * pages of text in a standard font.
+     */
+    TEXT(8),
+    /**
+     * pages of filled and stroked paths.
+     */
+    VECTOR(8),
+    /**
+     * pages of a full-page raster image, like a scan.
+     */
+    IMAGE(4);
+
+    public static final String RESOURCE_DIR = "/benchmark/corpus/";
+
+    private static final int LINES = 50;
+
+    private static final int SHAPES = 400;
+
+    private static final int IMAGE_WIDTH = 1240;
+
+    private static final int IMAGE_HEIGHT = 1754;
+
+    private final int numberOfPages;
+
+    SyntheticCorpus(int numberOfPages) {
+        this.numberOfPages = numberOfPages;
+    }
+
+    /**
+     * @return the name of the document in the corpus.
+     */
+    public String getFileName() {
+        return name().toLowerCase(Locale.ROOT) + ".pdf";
+    }
+
+    /**
+     * @return the number of pages of the document.
+     */
+    public int getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    /**
+     * @return the content of the document of the corpus.
+     * @throws IOException if the document is not in the classpath.
+     */
+    public byte[] load() throws IOException {
+        try (InputStream in = SyntheticCorpus.class.getResourceAsStream(RESOURCE_DIR + getFileName())) {
+            if (in == null) {
+                throw new IOException("No " + RESOURCE_DIR + getFileName() + " in the classpath");
+            }
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * write the document of this page type.
+     *
+     * @param file the PDF file.
+     * @throws IOException if the document can not be written.
+     */
+    public void generate(File file) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < numberOfPages; i++) {
+                final PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    switch (this) {
+                    case TEXT:
+                        drawText(content, i);
+                        break;
+                    case VECTOR:
+                        drawShapes(content, i);
+                        break;
+                    default:
+                        drawImage(document, content, i);
+                        break;
+                    }
+                }
+            }
+            document.save(file);
+        }
+    }
+
+    private static void drawText(PDPageContentStream content, int pageIndex) throws IOException {
+        content.beginText();
+        content.setFont(PDType1Font.HELVETICA, 10);
+        content.setLeading(14);
+        content.newLineAtOffset(50, 780);
+        for (int line = 0; line < LINES; line++) {
+            content.showText(String.format(Locale.ROOT,
+                    "Page %d, line %02d: the quick brown fox jumps over the lazy dog 0123456789", pageIndex + 1,
+                    line + 1));
+            content.newLine();
+        }
+        content.endText();
+    }
+
+    private static void drawShapes(PDPageContentStream content, int pageIndex) throws IOException {
+        for (int i = 0; i < SHAPES; i++) {
+            // a deterministic pseudo-random layout
+            final int n = i * 7919 + pageIndex * 104729;
+            final float x = n % 515 + 20;
+            final float y = n / 515 % 762 + 20;
+            final float size = n % 61 + 10;
+            content.setNonStrokingColor((n & 0xFF) / 255f, (n >> 8 & 0xFF) / 255f, (n >> 16 & 0xFF) / 255f);
+            if (i % 2 == 0) {
+                content.addRect(x, y, size, size / 2);
+                content.fill();
+            } else {
+                content.moveTo(x, y);
+                content.curveTo(x + size, y + size, x + 2 * size, y - size, x + 3 * size, y);
+                content.stroke();
+            }
+        }
+    }
+
+    private static void drawImage(PDDocument document, PDPageContentStream content, int pageIndex)
+            throws IOException {
+        final BufferedImage image = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < IMAGE_HEIGHT; y++) {
+            for (int x = 0; x < IMAGE_WIDTH; x++) {
+                // blocks of 16 pixels, so that the corpus stays small
+                final int r = (x / 16 * 16 + pageIndex * 32) & 0xFF;
+                final int g = (y / 16 * 16) & 0xFF;
+                final int b = ((x / 16 + y / 16) * 8) & 0xFF;
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        final PDImageXObject xObject = LosslessFactory.createFromImage(document, image);
+        content.drawImage(xObject, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+    }
+
+    /**
+     * write the corpus into {@code src/test/resources/benchmark/corpus}.
+     *
+     * @param args unused, exec:java passes the arguments of the benchmarks.
+     * @throws IOException if a document can not be written.
+     */
+    public static void main(String[] args) throws IOException {
+        final File dir = new File("src/test/resources" + RESOURCE_DIR);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can not create " + dir);
+        }
+        for (SyntheticCorpus corpus : values()) {
+            corpus.generate(new File(dir, corpus.getFileName()));
+        }
+    }
+}
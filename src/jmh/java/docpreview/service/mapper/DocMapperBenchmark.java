@@ -0,0 +1,63 @@
+package docpreview.service.mapper;
+
+import docpreview.domain.Doc;
+import docpreview.service.dto.DocDTO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round-trip of a doc with a 5 MB content between the entity and the DTO.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocMapperBenchmark {
+
+    private static final int SIZE = 5 << 20;
+
+    private final DocMapper docMapper = new DocMapperImpl();
+
+    private Doc doc;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final byte[] content = new byte[SIZE];
+        new Random(42).nextBytes(content);
+        doc = new Doc()
+            .title("benchmark")
+            .language("en")
+            .description("a doc with a large content")
+            .content(content)
+            .contentContentType("application/pdf");
+        doc.setId(1L);
+        doc.setCreatedAt(Instant.EPOCH);
+        doc.setUpdatedAt(Instant.EPOCH);
+    }
+
+    @Benchmark
+    public DocDTO toDto() {
+        return docMapper.toDto(doc);
+    }
+
+    @Benchmark
+    public Doc roundTrip() {
+        return docMapper.toEntity(docMapper.toDto(doc));
+    }
+}
@@ -0,0 +1,33 @@
+package docpreview.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Configuration of the workers rendering the page images of the docs.
+ */
+@Configuration
+public class RenderConfiguration {
+
+    public static final String RENDER_TASK_EXECUTOR = "renderTaskExecutor";
+
+    private final Logger log = LoggerFactory.getLogger(RenderConfiguration.class);
+
+    @Bean(name = RENDER_TASK_EXECUTOR)
+    public ThreadPoolTaskExecutor renderTaskExecutor(@Value("${pdftoimage.render.pool-size}") int poolSize,
+        @Value("${pdftoimage.render.queue-capacity}") int queueCapacity) {
+        log.debug("Creating Render Task Executor with {} workers", poolSize);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("docpreview-render-");
+        // interrupted jobs are resumed at the next startup
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        return executor;
+    }
+}
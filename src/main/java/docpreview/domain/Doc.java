@@ -57,11 +57,10 @@ public class Doc implements Serializable {
     private String description;
 
     /**
-     * Content of the document
+     * Content of the document, only for the docs saved before the content store
      */
-    
     @Lob
-    @Column(name = "content", nullable = false)
+    @Column(name = "content")
     private byte[] content;
 
     @Column(name = "content_content_type", nullable = false)
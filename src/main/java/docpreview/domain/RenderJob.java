@@ -0,0 +1,253 @@
+package docpreview.domain;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+
+import docpreview.domain.enumeration.RenderJobStatus;
+
+/**
+ * Entity RenderJob : background rendering of the page images of a {@link Doc}.
+ */
+@Entity
+@Table(name = "render_job")
+public class RenderJob implements Serializable {
+
+    public static final String ENTITY_NAME = "renderJob";
+
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "sequenceGenerator")
+    @SequenceGenerator(name = "sequenceGenerator")
+    private Long id;
+
+    /**
+     * Identifier of the rendered doc
+     */
+    @NotNull
+    @Column(name = "doc_id", nullable = false)
+    private Long docId;
+
+    /**
+     * SHA-1 of the content to render
+     */
+    @Size(min = 40, max = 40)
+    @Column(name = "content_sha_1", length = 40)
+    private String contentSha1;
+
+    /**
+     * Status of the job
+     */
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private RenderJobStatus status;
+
+    /**
+     * Number of times a worker has started the job
+     */
+    @NotNull
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    /**
+     * Number of rendered pages
+     */
+    @Column(name = "number_of_pages")
+    private Integer numberOfPages;
+
+    /**
+     * Error message of a failed job
+     */
+    @Size(max = 2000)
+    @Column(name = "message", length = 2000)
+    private String message;
+
+    /**
+     * Creation date
+     */
+    @NotNull
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    /**
+     * Start date of the last attempt
+     */
+    @Column(name = "started_at")
+    private Instant startedAt;
+
+    /**
+     * End date of the job
+     */
+    @Column(name = "finished_at")
+    private Instant finishedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getDocId() {
+        return docId;
+    }
+
+    public RenderJob docId(Long docId) {
+        this.docId = docId;
+        return this;
+    }
+
+    public void setDocId(Long docId) {
+        this.docId = docId;
+    }
+
+    public String getContentSha1() {
+        return contentSha1;
+    }
+
+    public RenderJob contentSha1(String contentSha1) {
+        this.contentSha1 = contentSha1;
+        return this;
+    }
+
+    public void setContentSha1(String contentSha1) {
+        this.contentSha1 = contentSha1;
+    }
+
+    public RenderJobStatus getStatus() {
+        return status;
+    }
+
+    public RenderJob status(RenderJobStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public void setStatus(RenderJobStatus status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public RenderJob attempts(Integer attempts) {
+        this.attempts = attempts;
+        return this;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Integer getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    public RenderJob numberOfPages(Integer numberOfPages) {
+        this.numberOfPages = numberOfPages;
+        return this;
+    }
+
+    public void setNumberOfPages(Integer numberOfPages) {
+        this.numberOfPages = numberOfPages;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public RenderJob message(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public RenderJob createdAt(Instant createdAt) {
+        this.createdAt = createdAt;
+        return this;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public RenderJob startedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+        return this;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public RenderJob finishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+        return this;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RenderJob)) {
+            return false;
+        }
+        return id != null && id.equals(((RenderJob) o).id);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderJob{" +
+            "id=" + getId() +
+            ", docId=" + getDocId() +
+            ", contentSha1='" + getContentSha1() + "'" +
+            ", status='" + getStatus() + "'" +
+            ", attempts=" + getAttempts() +
+            ", numberOfPages=" + getNumberOfPages() +
+            ", message='" + getMessage() + "'" +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", startedAt='" + getStartedAt() + "'" +
+            ", finishedAt='" + getFinishedAt() + "'" +
+            "}";
+    }
+}
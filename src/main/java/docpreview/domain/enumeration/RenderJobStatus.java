@@ -0,0 +1,8 @@
+package docpreview.domain.enumeration;
+
+/**
+ * The RenderJobStatus enumeration.
+ */
+public enum RenderJobStatus {
+    QUEUED, RENDERING, DONE, FAILED
+}
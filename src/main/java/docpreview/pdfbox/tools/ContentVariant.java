@@ -0,0 +1,67 @@
+package docpreview.pdfbox.tools;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The variants of the content of a PDF doc, stored beside the original content.
+ * A variant has the same pages as the original, with its objects ordered for a
+ * progressive display of the first page.
+ */
+public enum ContentVariant {
+
+	/**
+	 * the uploaded content.
+	 */
+	ORIGINAL(""),
+	/**
+	 * the content rewritten by an external linearizer (web-optimized PDF).
+	 */
+	LINEARIZED(".linearized"),
+	/**
+	 * the content rewritten by PDFBox with the objects of the first page first.
+	 */
+	FIRST_PAGE(".first-page");
+
+	private final String suffix;
+
+	ContentVariant(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @return the name of the variant in the requests.
+	 */
+	public String getName() {
+		return name().toLowerCase(Locale.ROOT).replace('_', '-');
+	}
+
+	/**
+	 * @param contentFileName the name of the file of the original content.
+	 * @return the name of the file of this variant.
+	 */
+	public String getFileName(String contentFileName) {
+		return contentFileName + suffix;
+	}
+
+	/**
+	 * @param sha1 the SHA-1 of the original content.
+	 * @return the ETag of this variant, the SHA-1 for the original content.
+	 */
+	public String getETag(String sha1) {
+		return this == ORIGINAL ? sha1 : sha1 + "-" + getName();
+	}
+
+	/**
+	 * @param name the name of the variant.
+	 * @return the variant, or empty if the name is unknown.
+	 */
+	public static Optional<ContentVariant> fromName(String name) {
+		for (ContentVariant variant : values()) {
+			if (variant.getName().equalsIgnoreCase(name)) {
+				return Optional.of(variant);
+			}
+		}
+		return Optional.empty();
+	}
+}
@@ -0,0 +1,92 @@
+package docpreview.pdfbox.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.pdfbox.tools.imageio.ImageIOUtil;
+
+/**
+ * The formats of the image of a page. Each format is encoded by the ImageIO
+ * writer registered for its extension, so a format is only available when such
+ * a writer is in the classpath (WebP needs an ImageIO plugin).
+ */
+public enum ImageFormat {
+
+	JPEG("jpg", "image/jpeg", true), PNG("png", "image/png", false), WEBP("webp", "image/webp", true);
+
+	private final String extension;
+
+	private final String mediaType;
+
+	private final boolean lossy;
+
+	ImageFormat(String extension, String mediaType, boolean lossy) {
+		this.extension = extension;
+		this.mediaType = mediaType;
+		this.lossy = lossy;
+	}
+
+	/**
+	 * @return the extension of the image files.
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	/**
+	 * @return the media type of the image files.
+	 */
+	public String getMediaType() {
+		return mediaType;
+	}
+
+	/**
+	 * @return true if there is an ImageIO writer for this format.
+	 */
+	public boolean isAvailable() {
+		return ImageIO.getImageWritersBySuffix(extension).hasNext();
+	}
+
+	/**
+	 * write an image in this format.
+	 *
+	 * @param image   the image.
+	 * @param out     the stream of the image file.
+	 * @param dpi     the image resolution.
+	 * @param quality the image quality of the lossy formats. (use 1.0f for
+	 *                default)
+	 * @return false if there is no writer for this format.
+	 * @throws IOException If there is an error writing the image.
+	 */
+	public boolean write(BufferedImage image, OutputStream out, int dpi, float quality) throws IOException {
+		return ImageIOUtil.writeImage(image, extension, out, dpi, getCompressionQuality(quality));
+	}
+
+	/**
+	 * @param quality the image quality of the lossy formats.
+	 * @return the compression quality of the writer.
+	 */
+	float getCompressionQuality(float quality) {
+		// the quality of the lossless formats is their compression level: 0 is the
+		// smallest file
+		return lossy ? quality : 0f;
+	}
+
+	/**
+	 * @return the formats having an ImageIO writer.
+	 */
+	public static List<ImageFormat> availableFormats() {
+		List<ImageFormat> formats = new ArrayList<>();
+		for (ImageFormat format : values()) {
+			if (format.isAvailable()) {
+				formats.add(format);
+			}
+		}
+		return formats;
+	}
+}
@@ -0,0 +1,148 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bounded in-memory index of the SHA-1 of the image files, by path.
+ *
+ * The index is filled when the images are written, so the ETag of a rendered
+ * image is known without reading its {@link SHAUtil#SHA_EXTENSION} file. The
+ * least recently used entries are evicted first; the images missing from the
+ * index (evicted, or rendered before a restart) fall back to their SHA-1 files.
+ */
+@Service
+public class ImageHashIndex {
+
+	private final int maxSize;
+
+	/**
+	 * SHA-1 by image path, in access order
+	 */
+	private final Map<String, String> hashes;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param maxSize the maximum number of images in the index (0 to disable it).
+	 */
+	public ImageHashIndex(@Value("${pdftoimage.img.hash-index-size}") int maxSize) {
+		this.maxSize = Math.max(0, maxSize);
+		this.hashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > ImageHashIndex.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @param path the path of an image file.
+	 * @return the SHA-1 of the image, or null if it is not in the index.
+	 */
+	public synchronized String get(String path) {
+		final String sha1 = hashes.get(path);
+		if (sha1 == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return sha1;
+	}
+
+	/**
+	 * @param path the path of an image file.
+	 * @param sha1 the SHA-1 of the image.
+	 */
+	public synchronized void put(String path, String sha1) {
+		if (maxSize > 0) {
+			hashes.put(path, sha1);
+		}
+	}
+
+	/**
+	 * @param path the path of an image file.
+	 */
+	public synchronized void remove(String path) {
+		hashes.remove(path);
+	}
+
+	/**
+	 * Move the entry of an image file renamed.
+	 *
+	 * @param from the old path of the image.
+	 * @param to   the new path of the image.
+	 */
+	public synchronized void rename(String from, String to) {
+		final String sha1 = hashes.remove(from);
+		if (sha1 == null) {
+			hashes.remove(to);
+		} else {
+			hashes.put(to, sha1);
+		}
+	}
+
+	/**
+	 * Remove the entries of the images of a directory.
+	 *
+	 * @param dir the path of the directory.
+	 */
+	public synchronized void removeDir(String dir) {
+		final String prefix = dir.endsWith(File.separator) ? dir : dir + File.separator;
+		for (Iterator<String> it = hashes.keySet().iterator(); it.hasNext();) {
+			if (it.next().startsWith(prefix)) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Move the entries of the images of a directory to another directory.
+	 *
+	 * @param fromDir the path of the directory of the images.
+	 * @param toDir   the new path of the directory.
+	 */
+	public synchronized void renameDir(String fromDir, String toDir) {
+		final String from = fromDir.endsWith(File.separator) ? fromDir : fromDir + File.separator;
+		final String to = toDir.endsWith(File.separator) ? toDir : toDir + File.separator;
+		final Map<String, String> renamed = new LinkedHashMap<>();
+		for (Iterator<Map.Entry<String, String>> it = hashes.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<String, String> entry = it.next();
+			if (entry.getKey().startsWith(from)) {
+				renamed.put(to + entry.getKey().substring(from.length()), entry.getValue());
+				it.remove();
+			}
+		}
+		hashes.putAll(renamed);
+	}
+
+	/**
+	 * @return the number of images in the index.
+	 */
+	public synchronized int size() {
+		return hashes.size();
+	}
+
+	/**
+	 * @return the number of lookups found in the index.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups missing from the index.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
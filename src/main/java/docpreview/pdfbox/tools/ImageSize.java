@@ -0,0 +1,108 @@
+package docpreview.pdfbox.tools;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The sizes of the image of a page. The page is rendered once at the resolution
+ * of the {@link #FULL} size, and the smaller sizes are downscaled from that
+ * raster.
+ */
+public enum ImageSize {
+
+	THUMB(".thumb"), PREVIEW(".preview"), FULL("");
+
+	private final String suffix;
+
+	ImageSize(String suffix) {
+		this.suffix = suffix;
+	}
+
+	/**
+	 * @return the name of the size in the requests.
+	 */
+	public String getName() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * return the name of the image file of a page for this size.
+	 *
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param page         the page number.
+	 * @param imageFormat  the extension of the image format.
+	 * @return the name of the image file.
+	 */
+	public String getFileName(String outputPrefix, long page, String imageFormat) {
+		return outputPrefix + page + suffix + "." + imageFormat;
+	}
+
+	/**
+	 * @param name the name of the size.
+	 * @return the size, or empty if the name is unknown.
+	 */
+	public static Optional<ImageSize> fromName(String name) {
+		for (ImageSize size : values()) {
+			if (size.getName().equalsIgnoreCase(name)) {
+				return Optional.of(size);
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * return the smallest size having at least the requested resolution.
+	 *
+	 * @param dpis the resolution of each size.
+	 * @param dpi  the requested resolution.
+	 * @return the size.
+	 */
+	public static ImageSize fromDpi(Map<ImageSize, Integer> dpis, int dpi) {
+		ImageSize best = FULL;
+		for (Map.Entry<ImageSize, Integer> entry : dpis.entrySet()) {
+			if (entry.getValue() >= dpi && entry.getValue() < dpis.get(best)) {
+				best = entry.getKey();
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param dpi the image resolution.
+	 * @return the resolutions of the full size only.
+	 */
+	public static Map<ImageSize, Integer> fullOnly(int dpi) {
+		Map<ImageSize, Integer> dpis = new EnumMap<>(ImageSize.class);
+		dpis.put(FULL, dpi);
+		return dpis;
+	}
+
+	/**
+	 * @param thumbDpi   the resolution of the thumbnails.
+	 * @param previewDpi the resolution of the previews.
+	 * @param fullDpi    the resolution of the full size.
+	 * @return the resolutions of all the sizes, capped by the full size.
+	 */
+	public static Map<ImageSize, Integer> pyramid(int thumbDpi, int previewDpi, int fullDpi) {
+		Map<ImageSize, Integer> dpis = fullOnly(fullDpi);
+		dpis.put(PREVIEW, Math.min(previewDpi, fullDpi));
+		dpis.put(THUMB, Math.min(thumbDpi, fullDpi));
+		return dpis;
+	}
+
+	/**
+	 * @param dpis the resolution of each size.
+	 * @return the sizes other than the full size, from the largest resolution to
+	 *         the smallest.
+	 */
+	public static List<ImageSize> derivedSizes(Map<ImageSize, Integer> dpis) {
+		List<ImageSize> sizes = new ArrayList<>(dpis.keySet());
+		sizes.remove(FULL);
+		sizes.sort((a, b) -> Integer.compare(dpis.get(b), dpis.get(a)));
+		return sizes;
+	}
+}
@@ -0,0 +1,331 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Least recently used cache of the loaded PDDocument of the docs, for the
+ * renderings of a single page. A document is cached by doc with the SHA-1 of
+ * its content: a document of another content replaces it.
+ *
+ * The cache is bounded by the estimated memory of the documents, the size of
+ * their content, on top of the memory budget of the documents being loaded. A
+ * PDDocument is not thread-safe, so each cached document is used under its own
+ * lock; an evicted document is closed once it is not used anymore.
+ */
+@Service
+public class PDFDocumentCache {
+
+	/**
+	 * A task on a cached PDDocument.
+	 */
+	@FunctionalInterface
+	public interface DocumentTask<T> {
+
+		T apply(PDDocument document) throws IOException;
+	}
+
+	/**
+	 * A supplier of the content of a document, only called to load it.
+	 */
+	@FunctionalInterface
+	public interface ContentSupplier {
+
+		byte[] get() throws IOException;
+	}
+
+	/**
+	 * A loader of a document, which sets its estimated memory.
+	 */
+	@FunctionalInterface
+	private interface Loader {
+
+		PDDocument load(Entry entry, MemoryUsageSetting memoryUsageSetting) throws IOException;
+	}
+
+	/**
+	 * the estimated memory of the smallest documents
+	 */
+	private static final long MIN_ENTRY_SIZE = 64 * 1024;
+
+	private final Logger log = LoggerFactory.getLogger(PDFDocumentCache.class);
+
+	private final long capacity;
+
+	private final PDFMemoryBudget memoryBudget;
+
+	/**
+	 * documents by doc id, in access order
+	 */
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity     the estimated memory of the cached documents in bytes (0
+	 *                     disables the cache).
+	 * @param memoryBudget the memory budget of the documents being loaded.
+	 */
+	public PDFDocumentCache(@Value("${pdftoimage.render.document-cache-size}") long capacity,
+			PDFMemoryBudget memoryBudget) {
+		this.capacity = capacity;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * run a task on the document of a doc read from a file, loading it if it is
+	 * not cached.
+	 *
+	 * @param docId       the id of the doc.
+	 * @param contentSha1 the SHA-1 of the content of the doc (null to not cache
+	 *                    it).
+	 * @param file        the content of the doc.
+	 * @param task        the task, run under the lock of the document.
+	 * @return the result of the task.
+	 * @throws IOException if the document can not be loaded, or by the task.
+	 */
+	public <T> T withDocument(Long docId, String contentSha1, File file, DocumentTask<T> task) throws IOException {
+		return withDocument(docId, contentSha1, (entry, setting) -> {
+			entry.size = file.length();
+			return PDDocument.load(file, "", setting);
+		}, task);
+	}
+
+	/**
+	 * run a task on the document of a doc read from its content, loading it if it
+	 * is not cached.
+	 *
+	 * @param docId       the id of the doc.
+	 * @param contentSha1 the SHA-1 of the content of the doc (null to not cache
+	 *                    it).
+	 * @param content     the content of the doc.
+	 * @param task        the task, run under the lock of the document.
+	 * @return the result of the task.
+	 * @throws IOException if the document can not be loaded, or by the task.
+	 */
+	public <T> T withDocument(Long docId, String contentSha1, ContentSupplier content, DocumentTask<T> task)
+			throws IOException {
+		return withDocument(docId, contentSha1, (entry, setting) -> {
+			final byte[] bytes = content.get();
+			entry.size = bytes.length;
+			return PDDocument.load(bytes, "", null, null, setting);
+		}, task);
+	}
+
+	/**
+	 * evict the document of a doc.
+	 *
+	 * @param docId the id of the doc.
+	 */
+	public void evict(Long docId) {
+		synchronized (entries) {
+			final Entry entry = entries.remove(docId);
+			if (entry != null) {
+				evicted(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return the estimated memory of the cached documents in bytes.
+	 */
+	public long getSize() {
+		synchronized (entries) {
+			return size;
+		}
+	}
+
+	/**
+	 * @return the number of tasks run on a cached document.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of documents loaded.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	private <T> T withDocument(Long docId, String contentSha1, Loader loader, DocumentTask<T> task)
+			throws IOException {
+		if (capacity <= 0 || contentSha1 == null) {
+			misses.increment();
+			try (PDFMemoryBudget.Lease lease = memoryBudget.acquire();
+					PDDocument document = loader.load(new Entry(contentSha1), lease.getMemoryUsageSetting())) {
+				prepare(document);
+				return task.apply(document);
+			}
+		}
+		while (true) {
+			final Entry entry = getEntry(docId, contentSha1);
+			entry.lock.lock();
+			try {
+				if (entry.evicted) {
+					// evicted while waiting for its lock
+					continue;
+				}
+				if (entry.document == null) {
+					misses.increment();
+					load(docId, entry, loader);
+				} else {
+					hits.increment();
+				}
+				return task.apply(entry.document);
+			} finally {
+				entry.lock.unlock();
+				if (entry.evicted) {
+					close(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the entry of a doc, a new one if the doc has no entry or the entry
+	 *         of another content.
+	 */
+	private Entry getEntry(Long docId, String contentSha1) {
+		synchronized (entries) {
+			final Entry entry = entries.get(docId);
+			if (entry != null && entry.sha1.equals(contentSha1)) {
+				return entry;
+			}
+			if (entry != null) {
+				entries.remove(docId);
+				evicted(entry);
+			}
+			final Entry created = new Entry(contentSha1);
+			entries.put(docId, created);
+			return created;
+		}
+	}
+
+	/**
+	 * load the document of an entry, under the lock of the entry, and evict the
+	 * least recently used documents beyond the capacity.
+	 */
+	private void load(Long docId, Entry entry, Loader loader) throws IOException {
+		try (PDFMemoryBudget.Lease lease = memoryBudget.acquire()) {
+			entry.document = loader.load(entry, lease.getMemoryUsageSetting());
+			prepare(entry.document);
+		} catch (IOException | RuntimeException e) {
+			synchronized (entries) {
+				if (entries.get(docId) == entry) {
+					entries.remove(docId);
+				}
+				entry.evicted = true;
+			}
+			throw e;
+		}
+		entry.size = Math.max(MIN_ENTRY_SIZE, entry.size);
+		synchronized (entries) {
+			if (entry.evicted) {
+				return;
+			}
+			size += entry.size;
+			entry.counted = true;
+			// the loaded document is the most recently used, evicted last
+			final Iterator<Entry> eldest = entries.values().iterator();
+			while (size > capacity && eldest.hasNext()) {
+				final Entry evicted = eldest.next();
+				eldest.remove();
+				evicted(evicted);
+			}
+		}
+		log.debug("Loaded the document of Doc : {} ({} bytes cached)", docId, getSize());
+	}
+
+	/**
+	 * mark an entry removed from the cache, and close its document if it is not
+	 * used. Called under the lock of the cache.
+	 */
+	private void evicted(Entry entry) {
+		entry.evicted = true;
+		if (entry.counted) {
+			size -= entry.size;
+			entry.counted = false;
+		}
+		close(entry);
+	}
+
+	/**
+	 * close the document of an evicted entry if no task uses it, otherwise the
+	 * task closes it.
+	 */
+	private void close(Entry entry) {
+		if (entry.lock.isHeldByCurrentThread() || !entry.lock.tryLock()) {
+			return;
+		}
+		try {
+			if (entry.document != null) {
+				entry.document.close();
+				entry.document = null;
+			}
+		} catch (IOException e) {
+			log.warn("Can not close an evicted document", e);
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+	/**
+	 * prepare a loaded document for the renderings: the appearances of the form
+	 * fields are built once.
+	 */
+	private static void prepare(PDDocument document) throws IOException {
+		final PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm();
+		if (acroForm != null && acroForm.getNeedAppearances()) {
+			acroForm.refreshAppearances();
+			acroForm.setNeedAppearances(false);
+		}
+	}
+
+	private static final class Entry {
+
+		private final String sha1;
+
+		private final ReentrantLock lock = new ReentrantLock();
+
+		/**
+		 * the loaded document, guarded by the lock
+		 */
+		private PDDocument document;
+
+		/**
+		 * the estimated memory of the document, guarded by the lock of the cache
+		 * once loaded
+		 */
+		private long size;
+
+		/**
+		 * true once the size is counted in the cache, guarded by the lock of the
+		 * cache
+		 */
+		private boolean counted;
+
+		private volatile boolean evicted;
+
+		private Entry(String sha1) {
+			this.sha1 = sha1;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package docpreview.pdfbox.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Memory budget of the PDDocument loaded for the renderings.
+ *
+ * Each loaded document keeps at most {@code memoryPerDocument} bytes of its
+ * streams in memory, the rest spills to scratch files in the
+ * {@code scratch} directory of the filesystem root. The total memory of the
+ * documents loaded at the same time is bounded by {@code memoryTotal}: a load
+ * waits until the budget of a document is available.
+ */
+@Service
+public class PDFMemoryBudget {
+
+	public static final String SCRATCH_DIR = "scratch";
+
+	private static final int PERMIT_SIZE = 1024;
+
+	private final Logger log = LoggerFactory.getLogger(PDFMemoryBudget.class);
+
+	private final long memoryPerDocument;
+
+	private final int permitsPerDocument;
+
+	private final int totalPermits;
+
+	private final Semaphore permits;
+
+	private final File scratchDir;
+
+	private final AtomicInteger waiting = new AtomicInteger();
+
+	/**
+	 * @param memoryPerDocument the memory of the streams of a document, in bytes,
+	 *                          before they spill to scratch files.
+	 * @param memoryTotal       the memory of all the documents loaded at the same
+	 *                          time, in bytes.
+	 * @param rootDir           the filesystem root, parent of the scratch
+	 *                          directory.
+	 */
+	public PDFMemoryBudget(@Value("${pdftoimage.render.memory-per-document}") long memoryPerDocument,
+			@Value("${pdftoimage.render.memory-total}") long memoryTotal,
+			@Value("${filesystem.rootdir}") String rootDir) {
+		this.memoryPerDocument = Math.max(0, Math.min(memoryPerDocument, memoryTotal));
+		// a document takes at least one permit, so that the loads are bounded even
+		// without memory
+		this.permitsPerDocument = (int) Math.max(1, this.memoryPerDocument / PERMIT_SIZE);
+		this.totalPermits = (int) Math.max(permitsPerDocument, Math.min(Integer.MAX_VALUE, memoryTotal / PERMIT_SIZE));
+		this.permits = new Semaphore(totalPermits, true);
+		this.scratchDir = new File(rootDir, SCRATCH_DIR);
+	}
+
+	@PostConstruct
+	public void postConstruct() {
+		if (!scratchDir.exists() && !scratchDir.mkdirs()) {
+			log.warn("Can not create the scratch directory {}", scratchDir);
+		}
+	}
+
+	/**
+	 * Wait for the memory budget of a document.
+	 *
+	 * @return the lease of the budget, to close when the document is closed.
+	 * @throws IOException if the wait is interrupted.
+	 */
+	public Lease acquire() throws IOException {
+		waiting.incrementAndGet();
+		try {
+			permits.acquire(permitsPerDocument);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the memory of the document", e);
+		} finally {
+			waiting.decrementAndGet();
+		}
+		return new Lease();
+	}
+
+	/**
+	 * @return the memory of the documents loaded, in bytes.
+	 */
+	public long getInFlight() {
+		return (long) (totalPermits - permits.availablePermits()) * PERMIT_SIZE;
+	}
+
+	/**
+	 * @return the number of loads waiting for their budget.
+	 */
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	/**
+	 * The budget of a loaded document.
+	 */
+	public final class Lease implements Closeable {
+
+		private boolean released;
+
+		private Lease() {
+		}
+
+		/**
+		 * @return the memory usage of the document, in memory up to its budget and
+		 *         in scratch files beyond.
+		 */
+		public MemoryUsageSetting getMemoryUsageSetting() {
+			final MemoryUsageSetting setting = memoryPerDocument > 0 ? MemoryUsageSetting.setupMixed(memoryPerDocument)
+					: MemoryUsageSetting.setupTempFileOnly();
+			return setting.setTempDir(scratchDir);
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!released) {
+				released = true;
+				permits.release(permitsPerDocument);
+			}
+		}
+	}
+}
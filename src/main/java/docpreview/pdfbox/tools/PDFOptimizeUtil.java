@@ -0,0 +1,143 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Rewrite a PDF document into the {@link ContentVariant} displayed
+ * progressively by the viewers.
+ */
+@Service
+public class PDFOptimizeUtil {
+
+	private static final String IN = "{in}";
+
+	private static final String OUT = "{out}";
+
+	private final Logger log = LoggerFactory.getLogger(PDFOptimizeUtil.class);
+
+	/**
+	 * the linearizer command, empty when there is no linearizer
+	 */
+	private final List<String> linearizeCommand = new ArrayList<>();
+
+	private final long linearizeTimeout;
+
+	private final PDFMemoryBudget memoryBudget;
+
+	/**
+	 * @param linearizeCommand the command writing the linearized PDF {out} of the
+	 *                         PDF {in}, for example
+	 *                         {@code qpdf --linearize {in} {out}} (empty to
+	 *                         disable the linearization).
+	 * @param linearizeTimeout the timeout of the command in seconds.
+	 * @param memoryBudget     the memory budget of the loaded documents.
+	 */
+	public PDFOptimizeUtil(@Value("${pdftoimage.content.linearize-command}") String linearizeCommand,
+			@Value("${pdftoimage.content.linearize-timeout}") long linearizeTimeout, PDFMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		for (String arg : linearizeCommand.trim().split("\\s+")) {
+			if (!arg.isEmpty()) {
+				this.linearizeCommand.add(arg);
+			}
+		}
+		this.linearizeTimeout = linearizeTimeout;
+	}
+
+	/**
+	 * @return true if a linearizer command is configured.
+	 */
+	public boolean isLinearizeAvailable() {
+		return !linearizeCommand.isEmpty();
+	}
+
+	/**
+	 * write the linearized PDF of a PDF with the linearizer command.
+	 *
+	 * @param in  the PDF file.
+	 * @param out the linearized PDF file.
+	 * @throws IOException if the command fails.
+	 */
+	public void linearize(File in, File out) throws IOException {
+		if (!isLinearizeAvailable()) {
+			throw new IOException("No linearizer command");
+		}
+		final List<String> command = new ArrayList<>();
+		for (String arg : linearizeCommand) {
+			command.add(arg.replace(IN, in.getAbsolutePath()).replace(OUT, out.getAbsolutePath()));
+		}
+		final File output = new File(out.getPath() + ".log");
+		try {
+			final Process process = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(output)
+					.start();
+			if (!process.waitFor(linearizeTimeout, TimeUnit.SECONDS)) {
+				process.destroyForcibly();
+				throw new IOException("The linearizer command has timed out after " + linearizeTimeout + "s");
+			}
+			// qpdf exits with 3 for the warnings
+			if (process.exitValue() != 0 && process.exitValue() != 3) {
+				throw new IOException("The linearizer command has failed with " + process.exitValue() + ": "
+						+ FileUtils.readFileToString(output, StandardCharsets.UTF_8));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The linearizer command has been interrupted", e);
+		} finally {
+			output.delete();
+		}
+		if (!out.exists()) {
+			throw new IOException("The linearizer command has not written " + out);
+		}
+	}
+
+	/**
+	 * write a PDF with the objects of its first page first.
+	 *
+	 * PDFBox writes the objects breadth-first from the catalog, in the order of
+	 * the entries of the dictionaries: with the page tree as first entry of the
+	 * catalog, the first page and its resources are written before the outlines,
+	 * the forms or the attachments, and before the next pages.
+	 *
+	 * @param in  the PDF file.
+	 * @param out the rewritten PDF file.
+	 * @throws IOException if the PDF can not be read or written.
+	 */
+	public void writeFirstPageFirst(File in, File out) throws IOException {
+		final long startTime = System.nanoTime();
+		try (PDFMemoryBudget.Lease lease = memoryBudget.acquire();
+				PDDocument document = PDDocument.load(in, lease.getMemoryUsageSetting())) {
+			if (document.isEncrypted()) {
+				throw new IOException("The encrypted PDF can not be rewritten");
+			}
+			final COSDictionary catalog = document.getDocumentCatalog().getCOSObject();
+			final Map<COSName, COSBase> entries = new LinkedHashMap<>();
+			for (Map.Entry<COSName, COSBase> entry : catalog.entrySet()) {
+				entries.put(entry.getKey(), entry.getValue());
+			}
+			catalog.clear();
+			catalog.setItem(COSName.PAGES, entries.remove(COSName.PAGES));
+			for (Map.Entry<COSName, COSBase> entry : entries.entrySet()) {
+				catalog.setItem(entry.getKey(), entry.getValue());
+			}
+			document.save(out);
+		}
+		log.debug("Rewritten {} with the first page first in {} ms", in,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+	}
+}
@@ -16,21 +16,47 @@
  */
 package docpreview.pdfbox.tools;
 
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.PreDestroy;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.interactive.form.PDAcroForm;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
-import org.apache.pdfbox.tools.imageio.ImageIOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 /**
@@ -44,6 +70,79 @@ public final class PDFToImageUtil {
 
 	private final Logger log = LoggerFactory.getLogger(PDFToImageUtil.class);
 
+	/**
+	 * number of workers of the parallel rendering
+	 */
+	private final int parallelism;
+
+	private final ExecutorService pagePool;
+
+	/**
+	 * SHA-1 of the written images
+	 */
+	private final ImageHashIndex imageHashIndex;
+
+	/**
+	 * memory budget of the loaded documents
+	 */
+	private final PDFMemoryBudget memoryBudget;
+
+	/**
+	 * encode and write stages of the rendered pages
+	 */
+	private final RenderPipeline renderPipeline;
+
+	/**
+	 * the two render contexts of each worker of the parallel rendering, kept from
+	 * a document to the next one. The other threads use contexts per document.
+	 */
+	private final ThreadLocal<RenderContext[]> workerContexts;
+
+	/**
+	 * the pixels of a page image beyond which its resolution is lowered
+	 */
+	private final long maxPagePixels;
+
+	/**
+	 * the memory of a rendered raster beyond which a page is rendered in bands
+	 */
+	private final long bandBytes;
+
+	/**
+	 * @param parallelism    the number of workers of the parallel rendering (0 for
+	 *                       the number of available processors).
+	 * @param maxPagePixels  the pixels of a page image beyond which its resolution
+	 *                       is lowered (0 for no limit).
+	 * @param bandBytes      the memory of a rendered raster beyond which a page is
+	 *                       rendered in bands (0 to render the whole pages).
+	 * @param imageHashIndex the index of the SHA-1 of the written images.
+	 * @param memoryBudget   the memory budget of the loaded documents.
+	 * @param renderPipeline the encode and write stages of the rendered pages.
+	 */
+	public PDFToImageUtil(@Value("${pdftoimage.render.parallelism}") int parallelism,
+			@Value("${pdftoimage.render.max-page-pixels}") long maxPagePixels,
+			@Value("${pdftoimage.render.band-bytes}") long bandBytes, ImageHashIndex imageHashIndex,
+			PDFMemoryBudget memoryBudget, RenderPipeline renderPipeline) {
+		this.imageHashIndex = imageHashIndex;
+		this.memoryBudget = memoryBudget;
+		this.renderPipeline = renderPipeline;
+		this.maxPagePixels = maxPagePixels;
+		this.bandBytes = bandBytes;
+		this.workerContexts = ThreadLocal.withInitial(this::newRenderContexts);
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		this.pagePool = Executors.newFixedThreadPool(this.parallelism,
+				new CustomizableThreadFactory("docpreview-page-"));
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		pagePool.shutdownNow();
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
 	/**
 	 * convert the pages of the document into JPEG images files.
 	 *
@@ -76,10 +175,75 @@ public final class PDFToImageUtil {
 	 */
 	public int converPDFToImage(byte[] pdfByte, String outputPrefix, int dpi, float quality, int startPage, int endPage)
 			throws IllegalArgumentException, IOException {
-		String password = "";
-		PDDocument document = null;
-		document = PDDocument.load(pdfByte, password);
-		return converPDFToImage(document, outputPrefix, dpi, quality, startPage, endPage);
+		return converPDFToImage(pdfByte, outputPrefix, ImageSize.fullOnly(dpi), ImageFormat.JPEG, quality, startPage,
+				endPage);
+	}
+
+	/**
+	 * convert some pages of the document into images files of several sizes.
+	 *
+	 * @param pdfByte      the byte array of the document.
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 * @param startPage    the start page number.
+	 * @param endPage      the end page number.
+	 *
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImage(byte[] pdfByte, String outputPrefix, Map<ImageSize, Integer> dpis,
+			ImageFormat format, float quality, int startPage, int endPage)
+			throws IllegalArgumentException, IOException {
+		return withDocument(bytesLoader(pdfByte),
+				document -> converPDFToImage(document, outputPrefix, dpis, format, quality, startPage, endPage));
+	}
+
+	/**
+	 * convert some pages of the document file into images files of several sizes.
+	 * The document is read from the file and its streams beyond the memory budget
+	 * of a document are kept in scratch files, so the heap used does not depend on
+	 * the size of the document.
+	 *
+	 * @param pdfFile      the file of the document.
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 * @param startPage    the start page number.
+	 * @param endPage      the end page number.
+	 *
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImage(File pdfFile, String outputPrefix, Map<ImageSize, Integer> dpis,
+			ImageFormat format, float quality, int startPage, int endPage)
+			throws IllegalArgumentException, IOException {
+		return withDocument(fileLoader(pdfFile),
+				document -> converPDFToImage(document, outputPrefix, dpis, format, quality, startPage, endPage));
+	}
+
+	/**
+	 * count the pages of a document file.
+	 *
+	 * @param pdfFile the file of the document.
+	 * @return the number of pages.
+	 * @throws IOException If there is an error parsing the document.
+	 */
+	public int getNumberOfPages(File pdfFile) throws IOException {
+		return withDocument(fileLoader(pdfFile), PDDocument::getNumberOfPages);
+	}
+
+	/**
+	 * count the pages of a document.
+	 *
+	 * @param pdfByte the byte array of the document.
+	 * @return the number of pages.
+	 * @throws IOException If there is an error parsing the document.
+	 */
+	public int getNumberOfPages(byte[] pdfByte) throws IOException {
+		return withDocument(bytesLoader(pdfByte), PDDocument::getNumberOfPages);
 	}
 
 	/**
@@ -111,12 +275,40 @@ public final class PDFToImageUtil {
 	 * @throws IllegalArgumentException If there is an argument is illegal.
 	 * @throws IOException              If there is an error parsing the document.
 	 */
-	// @Override
 	public int converPDFToImage(PDDocument document, String outputPrefix, int dpi, float quality, int startPage,
 			int endPage) throws IllegalArgumentException, IOException {
+		return converPDFToImage(document, outputPrefix, ImageSize.fullOnly(dpi), ImageFormat.JPEG, quality,
+				startPage, endPage);
+	}
 
-		final String imageFormat = "jpg";
-		final String color = "rgb";
+	/**
+	 * convert some pages of the document into images files of several sizes.
+	 * Each page is rendered once at the resolution of the {@link ImageSize#FULL}
+	 * size, and the smaller sizes are downscaled from the rendered raster.
+	 *
+	 * @param document     the PDDocument of the document.
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 * @param startPage    the start page number.
+	 * @param endPage      the end page number.
+	 *
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	// @Override
+	public int converPDFToImage(PDDocument document, String outputPrefix, Map<ImageSize, Integer> dpis,
+			ImageFormat format, float quality, int startPage, int endPage)
+			throws IllegalArgumentException, IOException {
+		return converPDFToImage(document, outputPrefix, dpis, format, quality, startPage, endPage, PageReuse.NONE);
+	}
+
+	private int converPDFToImage(PDDocument document, String outputPrefix, Map<ImageSize, Integer> dpis,
+			ImageFormat format, float quality, int startPage, int endPage, PageReuse reuse)
+			throws IllegalArgumentException, IOException {
+
+		final ImageType imageType = ImageType.RGB;
 		final float cropBoxLowerLeftX = 0;
 		final float cropBoxLowerLeftY = 0;
 		final float cropBoxUpperRightX = 0;
@@ -131,22 +323,6 @@ public final class PDFToImageUtil {
 			acroForm.refreshAppearances();
 		}
 
-		ImageType imageType = null;
-		if ("bilevel".equalsIgnoreCase(color)) {
-			imageType = ImageType.BINARY;
-		} else if ("gray".equalsIgnoreCase(color)) {
-			imageType = ImageType.GRAY;
-		} else if ("rgb".equalsIgnoreCase(color)) {
-			imageType = ImageType.RGB;
-		} else if ("rgba".equalsIgnoreCase(color)) {
-			imageType = ImageType.ARGB;
-		}
-
-		if (imageType == null) {
-			log.error("Error: Invalid color.");
-			throw new IllegalArgumentException("Invalid color.");
-		}
-
 		// if a CropBox has been specified, update the CropBox:
 		// changeCropBoxes(PDDocument document,float a, float b, float c,float d)
 		if (cropBoxLowerLeftX != 0 || cropBoxLowerLeftY != 0 || cropBoxUpperRightX != 0 || cropBoxUpperRightY != 0) {
@@ -156,17 +332,23 @@ public final class PDFToImageUtil {
 		long startTime = System.nanoTime();
 
 		// render the pages
-		boolean success = true;
+		boolean success;
 		endPage = Math.min(endPage, document.getNumberOfPages());
 		PDFRenderer renderer = new PDFRenderer(document);
 		renderer.setSubsamplingAllowed(subsampling);
-		for (int i = startPage - 1; i < endPage; i++) {
-			log.debug("renderImageWithDPI image={}", i);
-			BufferedImage image = renderer.renderImageWithDPI(i, dpi, imageType);
-			String fileName = outputPrefix + (i + 1) + "." + imageFormat;
-			success &= ImageIOUtil.writeImage(image, fileName, dpi, quality);
-			
-			// TODO add SHA-1 file fileName + ".sha1"
+		RenderContext[] contexts = newRenderContexts();
+		RenderPipeline.Batch batch = renderPipeline.newBatch();
+		try {
+			success = renderPages(contexts, renderer, document, new AtomicInteger(startPage), endPage, imageType,
+					outputPrefix, format, dpis, quality, batch, reuse);
+			success &= batch.await();
+		} finally {
+			// no image file is written once the conversion has failed
+			batch.cancel();
+			batch.awaitTermination();
+			for (RenderContext context : contexts) {
+				context.close();
+			}
 		}
 
 		// performance stats
@@ -174,12 +356,12 @@ public final class PDFToImageUtil {
 		long duration = endTime - startTime;
 		count = 1 + endPage - startPage;
 		if (showTime) {
-			log.info("Rendered %d page%s in %dms\n", count, count == 1 ? "" : "s", duration / 1000000);
+			logStats(count, duration, 1);
 		}
 
 		if (!success) {
-			log.error("Error: no writer found for image format '" + imageFormat + "'");
-			throw new IOException("No writer found for image format '" + imageFormat + "'");
+			log.error("Error: no writer found for image format '" + format.getExtension() + "'");
+			throw new IOException("No writer found for image format '" + format.getExtension() + "'");
 		}
 
 		return count;
@@ -218,17 +400,21 @@ public final class PDFToImageUtil {
 		PDFRenderer renderer = new PDFRenderer(pddocument);
 		renderer.setSubsamplingAllowed(subsampling);
 		List<byte[]> lba = new ArrayList<byte[]>();
-		for (int i = startPage - 1; i < endPage; i++) {
-			BufferedImage image = renderer.renderImageWithDPI(i, dpi, imageType);
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			try {
-				success &= ImageIOUtil.writeImage(image, imageFormat, baos, dpi, quality);
-				lba.add(baos.toByteArray());
-			} catch (IllegalArgumentException | IOException e) {
-				log.error("Error while ImageIOUtil.writeImage", e);
-				throw e;
-			} finally {
-				baos.close();
+		try (RenderContext context = new RenderContext(bandBytes)) {
+			for (int i = startPage - 1; i < endPage; i++) {
+				PDPage page = pddocument.getPage(i);
+				int pageDpi = capDpi(page, dpi, maxPagePixels);
+				BufferedImage image = context.renderImage(renderer, page, i, pageDpi, imageType);
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				try {
+					success &= context.write(image, ImageFormat.JPEG, baos, pageDpi, quality);
+					lba.add(baos.toByteArray());
+				} catch (IllegalArgumentException | IOException e) {
+					log.error("Error while writing the image", e);
+					throw e;
+				} finally {
+					baos.close();
+				}
 			}
 		}
 
@@ -237,7 +423,7 @@ public final class PDFToImageUtil {
 		long duration = endTime - startTime;
 		int count = 1 + endPage - startPage;
 		if (showTime) {
-			log.info("Rendered %d page%s in %dms\n", count, count == 1 ? "" : "s", duration / 1000000);
+			logStats(count, duration, 1);
 		}
 
 		if (!success) {
@@ -248,6 +434,543 @@ public final class PDFToImageUtil {
 		return lba;
 	}
 
+	/**
+	 * convert the pages of the document into JPEG images files, using the
+	 * workers of the parallel rendering.
+	 *
+	 * @param pdfByte      the byte array of the document.
+	 * @param outputPrefix the prefix name of the JPEG image files.
+	 * @param dpi          the image resolution.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 *
+	 * @return the number of pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(byte[] pdfByte, String outputPrefix, int dpi, float quality)
+			throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(pdfByte, outputPrefix, ImageSize.fullOnly(dpi), ImageFormat.JPEG, quality,
+				1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * convert the pages of the document into images files of several sizes, using
+	 * the workers of the parallel rendering.
+	 *
+	 * @param pdfByte      the byte array of the document.
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 *
+	 * @return the number of pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(byte[] pdfByte, String outputPrefix, Map<ImageSize, Integer> dpis,
+			ImageFormat format, float quality) throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(pdfByte, outputPrefix, dpis, format, quality, 1, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * convert some pages of the document into JPEG images files, using the
+	 * workers of the parallel rendering. Since a PDDocument is not thread-safe,
+	 * each worker loads its own PDDocument from the byte array and renders the
+	 * next page not taken by the other workers. The image files are identical
+	 * to those of {@link #converPDFToImage(byte[], String, Map, ImageFormat, float, int, int)}.
+	 *
+	 * @param pdfByte      the byte array of the document.
+	 * @param outputPrefix the prefix name of the JPEG image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 * @param startPage    the start page number.
+	 * @param endPage      the end page number.
+	 *
+	 * @return the number of rendered pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(final byte[] pdfByte, final String outputPrefix,
+			final Map<ImageSize, Integer> dpis, final ImageFormat format, final float quality, final int startPage,
+			final int endPage) throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(bytesLoader(pdfByte), outputPrefix, dpis, format, quality, startPage,
+				endPage, null);
+	}
+
+	/**
+	 * convert the pages of the document file into images files of several sizes,
+	 * using the workers of the parallel rendering. Each worker reads the document
+	 * from the file within the memory budget of a document.
+	 *
+	 * @param pdfFile      the file of the document.
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param dpis         the image resolution of each size.
+	 * @param format       the image format.
+	 * @param quality      the image quality. (use 1.0f for default)
+	 *
+	 * @return the number of rendered pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(final File pdfFile, final String outputPrefix,
+			final Map<ImageSize, Integer> dpis, final ImageFormat format, final float quality)
+			throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(pdfFile, outputPrefix, dpis, format, quality, null);
+	}
+
+	/**
+	 * convert the pages of the document file into images files of several sizes,
+	 * using the workers of the parallel rendering, reusing the images of the
+	 * pages of a previous version of the document whose fingerprint is the same.
+	 *
+	 * @param pdfFile        the file of the document.
+	 * @param outputPrefix   the prefix name of the image files.
+	 * @param dpis           the image resolution of each size.
+	 * @param format         the image format.
+	 * @param quality        the image quality. (use 1.0f for default)
+	 * @param previousPrefix the prefix name of the image files of the previous
+	 *                       version (null to render all the pages).
+	 *
+	 * @return the number of pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(final File pdfFile, final String outputPrefix,
+			final Map<ImageSize, Integer> dpis, final ImageFormat format, final float quality,
+			final String previousPrefix) throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(fileLoader(pdfFile), outputPrefix, dpis, format, quality, 1,
+				Integer.MAX_VALUE, previousPrefix);
+	}
+
+	/**
+	 * convert the pages of the document into images files of several sizes, using
+	 * the workers of the parallel rendering, reusing the images of the pages of a
+	 * previous version of the document whose fingerprint is the same.
+	 *
+	 * @param pdfByte        the byte array of the document.
+	 * @param outputPrefix   the prefix name of the image files.
+	 * @param dpis           the image resolution of each size.
+	 * @param format         the image format.
+	 * @param quality        the image quality. (use 1.0f for default)
+	 * @param previousPrefix the prefix name of the image files of the previous
+	 *                       version (null to render all the pages).
+	 *
+	 * @return the number of pages
+	 * @throws IllegalArgumentException If there is an argument is illegal.
+	 * @throws IOException              If there is an error parsing the document.
+	 */
+	public int converPDFToImageParallel(final byte[] pdfByte, final String outputPrefix,
+			final Map<ImageSize, Integer> dpis, final ImageFormat format, final float quality,
+			final String previousPrefix) throws IllegalArgumentException, IOException {
+		return converPDFToImageParallel(bytesLoader(pdfByte), outputPrefix, dpis, format, quality, 1,
+				Integer.MAX_VALUE, previousPrefix);
+	}
+
+	/**
+	 * A loader of a new PDDocument of the same document.
+	 */
+	@FunctionalInterface
+	private interface DocumentLoader {
+
+		PDDocument load(MemoryUsageSetting memoryUsageSetting) throws IOException;
+	}
+
+	/**
+	 * A task on a loaded PDDocument.
+	 */
+	@FunctionalInterface
+	private interface DocumentTask<T> {
+
+		T apply(PDDocument document) throws IOException;
+	}
+
+	private static DocumentLoader bytesLoader(final byte[] pdfByte) {
+		final String password = "";
+		return memoryUsageSetting -> PDDocument.load(pdfByte, password, null, null, memoryUsageSetting);
+	}
+
+	private static DocumentLoader fileLoader(final File pdfFile) {
+		final String password = "";
+		return memoryUsageSetting -> PDDocument.load(pdfFile, password, memoryUsageSetting);
+	}
+
+	/**
+	 * load a document within the memory budget of a document, waiting for the
+	 * budget if the loaded documents use the whole memory budget.
+	 */
+	private <T> T withDocument(final DocumentLoader loader, final DocumentTask<T> task) throws IOException {
+		try (PDFMemoryBudget.Lease lease = memoryBudget.acquire();
+				PDDocument document = loader.load(lease.getMemoryUsageSetting())) {
+			return task.apply(document);
+		}
+	}
+
+	private int converPDFToImageParallel(final DocumentLoader loader, final String outputPrefix,
+			final Map<ImageSize, Integer> dpis, final ImageFormat format, final float quality, final int startPage,
+			final int endPage, final String previousPrefix) throws IllegalArgumentException, IOException {
+
+		final ImageType imageType = ImageType.RGB;
+		final PageReuse reuse = previousPrefix == null ? PageReuse.NONE
+				: new PageReuse(previousPrefix, PageFingerprint.readFingerprints(previousPrefix), imageHashIndex);
+
+		final int lastPage = Math.min(endPage, withDocument(loader, PDDocument::getNumberOfPages));
+		final int count = 1 + lastPage - startPage;
+		final int workers = Math.min(parallelism, count);
+		if (workers <= 1) {
+			return withDocument(loader, document -> converPDFToImage(document, outputPrefix, dpis, format, quality,
+					startPage, endPage, reuse));
+		}
+
+		long startTime = System.nanoTime();
+
+		final AtomicInteger nextPage = new AtomicInteger(startPage);
+		final RenderPipeline.Batch batch = renderPipeline.newBatch();
+		List<Future<Boolean>> futures = new ArrayList<>(workers);
+		for (int w = 0; w < workers; w++) {
+			futures.add(pagePool.submit(() -> nextPage.get() > lastPage ? Boolean.TRUE
+					: withDocument(loader, document -> renderPages(workerContexts.get(), newRenderer(document),
+							document, nextPage, lastPage, imageType, outputPrefix, format, dpis, quality, batch,
+							reuse))));
+		}
+
+		boolean success = true;
+		try {
+			for (Future<Boolean> future : futures) {
+				success &= future.get();
+			}
+			success &= batch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering the pages", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Error while rendering the pages", e.getCause());
+		} finally {
+			// stop the other workers at the next page when one of them has failed,
+			// and wait for them and their images: the caller may delete the output
+			// directory once the conversion has failed
+			nextPage.set(lastPage + 1);
+			batch.cancel();
+			awaitWorkers(futures);
+			batch.awaitTermination();
+		}
+
+		logStats(count, System.nanoTime() - startTime, workers);
+		if (reuse.getReused() > 0) {
+			log.info("Reused the images of {} unchanged page{}", reuse.getReused(),
+					reuse.getReused() == 1 ? "" : "s");
+		}
+
+		if (!success) {
+			log.error("Error: no writer found for image format '" + format.getExtension() + "'");
+			throw new IOException("No writer found for image format '" + format.getExtension() + "'");
+		}
+
+		return count;
+	}
+
+	/**
+	 * create a renderer of the document with the same settings for the sequential
+	 * and the parallel renderings.
+	 */
+	private PDFRenderer newRenderer(PDDocument document) throws IOException {
+		PDAcroForm acroForm = document.getDocumentCatalog().getAcroForm();
+		if (acroForm != null && acroForm.getNeedAppearances()) {
+			acroForm.refreshAppearances();
+		}
+		PDFRenderer renderer = new PDFRenderer(document);
+		renderer.setSubsamplingAllowed(false);
+		return renderer;
+	}
+
+	/**
+	 * Wait for the render workers to finish, ignoring their results.
+	 */
+	private void awaitWorkers(List<Future<Boolean>> futures) {
+		boolean interrupted = false;
+		for (Future<Boolean> future : futures) {
+			// the queued workers are dropped when the pool is stopped
+			boolean done = false;
+			while (!done && !pagePool.isShutdown()) {
+				try {
+					future.get(100, TimeUnit.MILLISECONDS);
+					done = true;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException | CancellationException e) {
+					done = true;
+				} catch (TimeoutException e) {
+					// still rendering its page
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * render one page into its image files, one for each size. The rasters and
+	 * the writers of the context are reused from a page to the next one. The
+	 * fingerprint of the page is written next to its images, and the images of
+	 * the previous version of the page are reused if it is unchanged.
+	 *
+	 * @return the encoding of the images, false if there is no writer for the
+	 *         image format. The rasters of the context are reused once it is done.
+	 */
+	private Future<Boolean> renderPage(RenderContext context, PDFRenderer renderer, PDDocument document,
+			int pageIndex, ImageType imageType, String outputPrefix, ImageFormat format, Map<ImageSize, Integer> dpis,
+			float quality, RenderPipeline.Batch batch, PageFingerprint fingerprints, PageReuse reuse)
+			throws IOException {
+		final PDPage page = document.getPage(pageIndex);
+		final String fingerprint = fingerprints.compute(page);
+		Files.write(Paths.get(PageFingerprint.getFileName(outputPrefix, pageIndex + 1)),
+				fingerprint.getBytes(StandardCharsets.UTF_8));
+		if (reuse.linkImages(fingerprint, outputPrefix, pageIndex + 1, format, dpis)) {
+			log.debug("The images of the page {} are reused", pageIndex + 1);
+			return CompletableFuture.completedFuture(true);
+		}
+
+		log.debug("renderImageWithDPI image={}", pageIndex);
+		final long startTime = System.nanoTime();
+		final int dpi = capDpi(page, dpis.get(ImageSize.FULL), maxPagePixels);
+		if (dpi < dpis.get(ImageSize.FULL)) {
+			log.debug("The page {} is rendered at {} DPI instead of {}", pageIndex + 1, dpi, dpis.get(ImageSize.FULL));
+		}
+		BufferedImage image = context.renderImage(renderer, page, pageIndex, dpi, imageType);
+		final List<RenderPipeline.PageImage> images = new ArrayList<>();
+		images.add(new RenderPipeline.PageImage(image,
+				ImageSize.FULL.getFileName(outputPrefix, pageIndex + 1, format.getExtension()), dpi));
+
+		// each smaller size is downscaled from the previous one, into another raster
+		// of the context
+		int sourceDpi = dpi;
+		for (ImageSize size : ImageSize.derivedSizes(dpis)) {
+			int sizeDpi = Math.min(dpis.get(size), sourceDpi);
+			if (sizeDpi < sourceDpi) {
+				image = downscale(context, image, (double) sizeDpi / sourceDpi);
+				sourceDpi = sizeDpi;
+			}
+			images.add(new RenderPipeline.PageImage(image,
+					size.getFileName(outputPrefix, pageIndex + 1, format.getExtension()), sizeDpi));
+		}
+		renderPipeline.getRenderTimer().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+		return batch.submit(images, format, quality, this::writeImageFile);
+	}
+
+	/**
+	 * render pages one after the other, alternating two render contexts: a page is
+	 * rendered into a context while the images of the previous page, in the other
+	 * context, are encoded.
+	 *
+	 * @return false if there is no writer for the image format.
+	 */
+	private boolean renderPages(RenderContext[] contexts, PDFRenderer renderer, PDDocument document,
+			AtomicInteger nextPage, int lastPage, ImageType imageType, String outputPrefix, ImageFormat format,
+			Map<ImageSize, Integer> dpis, float quality, RenderPipeline.Batch batch, PageReuse reuse)
+			throws IOException {
+		boolean success = true;
+		final Deque<Future<Boolean>> encodings = new ArrayDeque<>(contexts.length);
+		final PageFingerprint fingerprints = new PageFingerprint(getRenderSettings(dpis, quality));
+		int k = 0;
+		for (int page = nextPage.getAndIncrement(); page <= lastPage; page = nextPage.getAndIncrement()) {
+			if (encodings.size() == contexts.length) {
+				// the images of this context are encoded
+				success &= RenderPipeline.get(encodings.removeFirst());
+			}
+			encodings.addLast(renderPage(contexts[k], renderer, document, page - 1, imageType, outputPrefix, format,
+					dpis, quality, batch, fingerprints, reuse));
+			k = (k + 1) % contexts.length;
+		}
+		// the contexts of a worker are reused by its next document
+		while (!encodings.isEmpty()) {
+			success &= RenderPipeline.get(encodings.removeFirst());
+		}
+		return success;
+	}
+
+	/**
+	 * @return the render contexts of a thread, one rendered while the other one is
+	 *         encoded.
+	 */
+	private RenderContext[] newRenderContexts() {
+		return new RenderContext[] { new RenderContext(bandBytes), new RenderContext(bandBytes) };
+	}
+
+	/**
+	 * @return the settings changing the images of a page, part of its
+	 *         fingerprint.
+	 */
+	private String getRenderSettings(Map<ImageSize, Integer> dpis, float quality) {
+		return new TreeMap<>(dpis) + ";quality=" + quality + ";max-page-pixels=" + maxPagePixels;
+	}
+
+	/**
+	 * The images of the previous version of a document, reused for its unchanged
+	 * pages.
+	 */
+	private static final class PageReuse {
+
+		private static final PageReuse NONE = new PageReuse(null, Collections.emptyMap(), null);
+
+		private final String previousPrefix;
+
+		/**
+		 * the page numbers of the previous version by fingerprint
+		 */
+		private final Map<String, Integer> previousPages;
+
+		private final ImageHashIndex imageHashIndex;
+
+		private final AtomicInteger reused = new AtomicInteger();
+
+		private PageReuse(String previousPrefix, Map<String, Integer> previousPages, ImageHashIndex imageHashIndex) {
+			this.previousPrefix = previousPrefix;
+			this.previousPages = previousPages;
+			this.imageHashIndex = imageHashIndex;
+		}
+
+		/**
+		 * link the images of all the sizes of the previous version of a page, with
+		 * their SHA-1 files. The files are copied if they can not be linked.
+		 *
+		 * @return false if the page is not in the previous version or one of its
+		 *         images is missing, the page is then rendered.
+		 */
+		private boolean linkImages(String fingerprint, String outputPrefix, int pageNumber, ImageFormat format,
+				Map<ImageSize, Integer> dpis) {
+			final Integer previousPage = previousPages.get(fingerprint);
+			if (previousPage == null) {
+				return false;
+			}
+			final List<Path> linked = new ArrayList<>();
+			final Map<String, String> sha1s = new TreeMap<>();
+			try {
+				for (ImageSize size : dpis.keySet()) {
+					final String source = size.getFileName(previousPrefix, previousPage, format.getExtension());
+					final String target = size.getFileName(outputPrefix, pageNumber, format.getExtension());
+					// the SHA-1 file first, so that a linked image always has its own
+					final Path targetSha = Paths.get(target + SHAUtil.SHA_EXTENSION);
+					linked.add(link(Paths.get(source + SHAUtil.SHA_EXTENSION), targetSha));
+					linked.add(link(Paths.get(source), Paths.get(target)));
+					sha1s.put(target, new String(Files.readAllBytes(targetSha), StandardCharsets.UTF_8));
+				}
+			} catch (IOException | UnsupportedOperationException e) {
+				for (Path path : linked) {
+					path.toFile().delete();
+				}
+				return false;
+			}
+			sha1s.forEach(imageHashIndex::put);
+			reused.incrementAndGet();
+			return true;
+		}
+
+		private int getReused() {
+			return reused.get();
+		}
+
+		private static Path link(Path source, Path target) throws IOException {
+			try {
+				Files.createLink(target, source);
+			} catch (UnsupportedOperationException | IOException e) {
+				if (!Files.exists(source)) {
+					throw e;
+				}
+				// another file system
+				Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			return target;
+		}
+	}
+
+	/**
+	 * write an image file and its SHA-1 file, and add the SHA-1 to the index.
+	 */
+	private void writeImageFile(String fileName, byte[] bytes, String sha1) throws IOException {
+		Files.write(Paths.get(fileName), bytes);
+		Files.write(Paths.get(fileName + SHAUtil.SHA_EXTENSION), sha1.getBytes(StandardCharsets.UTF_8));
+		imageHashIndex.put(fileName, sha1);
+	}
+
+	/**
+	 * lower the resolution of a page whose image would exceed a number of pixels,
+	 * like the large posters or drawings.
+	 *
+	 * @param page          the page.
+	 * @param dpi           the image resolution.
+	 * @param maxPagePixels the pixels of the page image (0 for no limit).
+	 * @return the resolution of the page image.
+	 */
+	static int capDpi(PDPage page, int dpi, long maxPagePixels) {
+		final PDRectangle mediaBox = page.getMediaBox();
+		final double area = (double) mediaBox.getWidth() * mediaBox.getHeight();
+		final double scale = dpi / 72d;
+		if (maxPagePixels <= 0 || area <= 0 || area * scale * scale <= maxPagePixels) {
+			return dpi;
+		}
+		final int capped = (int) Math.max(1, Math.floor(72 * Math.sqrt(maxPagePixels / area)));
+		return Math.min(dpi, capped);
+	}
+
+	/**
+	 * downscale an image, halving its size in several steps for the large ratios
+	 * so that the bilinear interpolation does not drop pixels.
+	 *
+	 * @param image the image.
+	 * @param ratio the ratio of the new size (lower than 1).
+	 * @return the downscaled image.
+	 */
+	static BufferedImage downscale(BufferedImage image, double ratio) {
+		return downscale(null, image, ratio);
+	}
+
+	/**
+	 * downscale an image into the rasters of a render context.
+	 *
+	 * @param context the render context, or null to allocate new rasters.
+	 * @param image   the image.
+	 * @param ratio   the ratio of the new size (lower than 1).
+	 * @return the downscaled image.
+	 */
+	static BufferedImage downscale(RenderContext context, BufferedImage image, double ratio) {
+		final int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+		final int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+		final int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : image.getType();
+		BufferedImage scaled = image;
+		do {
+			int w = Math.max(width, scaled.getWidth() / 2);
+			int h = Math.max(height, scaled.getHeight() / 2);
+			if (w == scaled.getWidth() && h == scaled.getHeight()) {
+				break;
+			}
+			BufferedImage step = context == null ? new BufferedImage(w, h, type) : context.getImage(w, h, type);
+			Graphics2D g = step.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				g.drawImage(scaled, 0, 0, w, h, null);
+			} finally {
+				g.dispose();
+			}
+			scaled = step;
+		} while (scaled.getWidth() > width || scaled.getHeight() > height);
+		return scaled;
+	}
+
+	private void logStats(int count, long durationNanos, int workers) {
+		long durationMs = durationNanos / 1000000;
+		double pagesPerSecond = durationNanos > 0 ? count * 1e9 / durationNanos : 0;
+		log.info("Rendered {} page{} in {}ms ({} pages/s, {} worker{})", count, count == 1 ? "" : "s", durationMs,
+				String.format("%.2f", pagesPerSecond), workers, workers == 1 ? "" : "s");
+	}
+
 	private static void changeCropBox(PDDocument document, float a, float b, float c, float d) {
 		for (PDPage page : document.getPages()) {
 			PDRectangle rectangle = new PDRectangle();
@@ -0,0 +1,247 @@
+package docpreview.pdfbox.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSBoolean;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSFloat;
+import org.apache.pdfbox.cos.COSInteger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+
+/**
+ * Fingerprint of what a page draws: its content streams, its resources, its
+ * annotations and its boxes, together with the settings of its rendering. Two
+ * pages of the same fingerprint have the same images, so the images of the
+ * unchanged pages of a new version of a document are reused.
+ *
+ * The objects are digested by value, not by their object number, so that the
+ * fingerprint of an unchanged page does not depend on where its objects are in
+ * the file. The entries which do not change the rendering, like the links to
+ * the parents or the structure tree, are left out. An instance digests each
+ * stream once and is used for a single document by a single thread.
+ */
+public class PageFingerprint {
+
+	/**
+	 * the extension of the fingerprint file of a page, next to its images
+	 */
+	public static final String FINGERPRINT_EXTENSION = ".fp";
+
+	/**
+	 * the entries which do not change the rendering of a page
+	 */
+	private static final Set<COSName> IGNORED = new HashSet<>(Arrays.asList(COSName.PARENT, COSName.P,
+			COSName.DEST, COSName.A, COSName.STRUCT_PARENT, COSName.STRUCT_PARENTS, COSName.METADATA,
+			COSName.LAST_MODIFIED, COSName.PIECE_INFO, COSName.getPDFName("Thumb")));
+
+	private final byte[] settings;
+
+	/**
+	 * the digests of the streams already digested
+	 */
+	private final Map<COSStream, byte[]> streams = new IdentityHashMap<>();
+
+	/**
+	 * the objects being digested, to stop at the cycles
+	 */
+	private final Set<COSBase> inProgress = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/**
+	 * @param settings the settings of the rendering, a page rendered with other
+	 *                 settings has another fingerprint.
+	 */
+	public PageFingerprint(String settings) {
+		this.settings = settings.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param outputPrefix the prefix name of the image files.
+	 * @param page         the page number.
+	 * @return the name of the fingerprint file of the page.
+	 */
+	public static String getFileName(String outputPrefix, long page) {
+		return outputPrefix + page + FINGERPRINT_EXTENSION;
+	}
+
+	/**
+	 * @param page the page.
+	 * @return the fingerprint of the page.
+	 * @throws IOException if a stream of the page can not be read.
+	 */
+	public String compute(PDPage page) throws IOException {
+		final MessageDigest md = SHAUtil.newDigest();
+		md.update(settings);
+		// the inherited entries
+		digest(page.getMediaBox().getCOSArray(), md);
+		digest(page.getCropBox().getCOSArray(), md);
+		digest(COSInteger.get(page.getRotation()), md);
+		final PDResources resources = page.getResources();
+		digest(resources == null ? null : resources.getCOSObject(), md);
+		digest(page.getCOSObject(), md);
+		return SHAUtil.hash(md);
+	}
+
+	/**
+	 * read the fingerprints of the pages rendered with an output prefix.
+	 *
+	 * @param outputPrefix the prefix name of the image files.
+	 * @return the page number of each fingerprint, empty if there is none.
+	 */
+	public static Map<String, Integer> readFingerprints(String outputPrefix) {
+		final File prefix = new File(outputPrefix);
+		final File[] files = prefix.getParentFile() == null ? null : prefix.getParentFile().listFiles();
+		if (files == null) {
+			return Collections.emptyMap();
+		}
+		final Pattern pattern = Pattern
+				.compile(Pattern.quote(prefix.getName()) + "(\\d+)" + Pattern.quote(FINGERPRINT_EXTENSION));
+		final Map<String, Integer> fingerprints = new HashMap<>();
+		for (File file : files) {
+			final Matcher matcher = pattern.matcher(file.getName());
+			if (!matcher.matches()) {
+				continue;
+			}
+			try {
+				final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+				if (!lines.isEmpty()) {
+					fingerprints.putIfAbsent(lines.get(0).trim(), Integer.valueOf(matcher.group(1)));
+				}
+			} catch (IOException | NumberFormatException e) {
+				// the page is rendered again
+			}
+		}
+		return fingerprints;
+	}
+
+	private void digest(COSBase base, MessageDigest md) throws IOException {
+		final COSBase value = base instanceof COSObject ? ((COSObject) base).getObject() : base;
+		if (value == null) {
+			md.update((byte) 'Z');
+		} else if (value instanceof COSStream) {
+			md.update((byte) 'T');
+			md.update(digestStream((COSStream) value));
+		} else if (value instanceof COSDictionary) {
+			if (!inProgress.add(value)) {
+				md.update((byte) 'R');
+				return;
+			}
+			try {
+				digestEntries((COSDictionary) value, md);
+			} finally {
+				inProgress.remove(value);
+			}
+		} else if (value instanceof COSArray) {
+			if (!inProgress.add(value)) {
+				md.update((byte) 'R');
+				return;
+			}
+			try {
+				final COSArray array = (COSArray) value;
+				md.update((byte) 'A');
+				update(md, array.size());
+				for (int i = 0; i < array.size(); i++) {
+					digest(array.get(i), md);
+				}
+			} finally {
+				inProgress.remove(value);
+			}
+		} else if (value instanceof COSName) {
+			md.update((byte) 'N');
+			update(md, ((COSName) value).getName());
+		} else if (value instanceof COSString) {
+			final byte[] bytes = ((COSString) value).getBytes();
+			md.update((byte) 'S');
+			update(md, bytes.length);
+			md.update(bytes);
+		} else if (value instanceof COSInteger) {
+			md.update((byte) 'I');
+			update(md, ((COSInteger) value).longValue());
+		} else if (value instanceof COSFloat) {
+			md.update((byte) 'F');
+			update(md, Float.floatToIntBits(((COSFloat) value).floatValue()));
+		} else if (value instanceof COSBoolean) {
+			md.update((byte) (((COSBoolean) value).getValue() ? 't' : 'f'));
+		} else {
+			md.update((byte) 'Z');
+		}
+	}
+
+	/**
+	 * digest the entries of a dictionary in the order of their keys.
+	 */
+	private void digestEntries(COSDictionary dictionary, MessageDigest md) throws IOException {
+		final List<COSName> keys = dictionary.keySet().stream().filter(key -> !IGNORED.contains(key)).sorted()
+				.collect(Collectors.toList());
+		md.update((byte) 'D');
+		update(md, keys.size());
+		for (COSName key : keys) {
+			update(md, key.getName());
+			digest(dictionary.getItem(key), md);
+		}
+	}
+
+	/**
+	 * digest the dictionary and the encoded bytes of a stream, once for a
+	 * document: the fonts and the images are shared by the pages.
+	 */
+	private byte[] digestStream(COSStream stream) throws IOException {
+		final byte[] digested = streams.get(stream);
+		if (digested != null) {
+			return digested;
+		}
+		if (!inProgress.add(stream)) {
+			return new byte[] { 'R' };
+		}
+		final MessageDigest md = SHAUtil.newDigest();
+		try {
+			digestEntries(stream, md);
+			try (InputStream in = stream.createRawInputStream()) {
+				final byte[] buf = new byte[8192];
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					md.update(buf, 0, n);
+				}
+			}
+		} finally {
+			inProgress.remove(stream);
+		}
+		final byte[] digest = md.digest();
+		streams.put(stream, digest);
+		return digest;
+	}
+
+	private static void update(MessageDigest md, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		update(md, bytes.length);
+		md.update(bytes);
+	}
+
+	private static void update(MessageDigest md, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			md.update((byte) (value >>> shift));
+		}
+	}
+}
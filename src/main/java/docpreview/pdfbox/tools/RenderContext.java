@@ -0,0 +1,358 @@
+package docpreview.pdfbox.tools;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.blend.BlendMode;
+import org.apache.pdfbox.pdmodel.graphics.state.PDExtendedGraphicsState;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.rendering.RenderDestination;
+
+/**
+ * The state of a render worker reused from a page to the next one: the ImageIO
+ * writer of each image format with its write parameters and metadata, and the
+ * rasters of the rendered and downscaled images, by dimensions.
+ *
+ * A context is not thread-safe: it is confined to a worker, and an image it
+ * returns is overwritten by the next rendering of the same dimensions, so it
+ * must be written before.
+ *
+ * A page whose raster exceeds the band budget of the context is rendered in
+ * horizontal bands: each band is rendered into a raster of the budget, then
+ * copied into a page image of 3 bytes per pixel. The bands bound the raster of
+ * 4 bytes per pixel of the rendering, not the page image, which is still held
+ * whole for its encoding: the page image is bounded by the capped resolution of
+ * the page, and is not kept by the context after its rendering.
+ */
+public final class RenderContext implements Closeable {
+
+	private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+	private static final String STANDARD_METADATA_FORMAT = "javax_imageio_1.0";
+
+	/**
+	 * the rasters kept, the pages of a document have a few distinct dimensions
+	 */
+	private static final int MAX_IMAGES = 8;
+
+	/**
+	 * the bytes of a pixel of the rendered rasters (TYPE_INT_RGB)
+	 */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	/**
+	 * the memory of a rendered raster beyond which the page is rendered in bands,
+	 * 0 to render the whole page at once
+	 */
+	private final long bandBytes;
+
+	private final Map<ImageFormat, ImageWriter> writers = new EnumMap<>(ImageFormat.class);
+
+	private final Map<ImageFormat, ImageWriteParam> params = new EnumMap<>(ImageFormat.class);
+
+	/**
+	 * default metadata with the resolution, by format, image type, resolution and
+	 * quality
+	 */
+	private final Map<String, IIOMetadata> metadata = new HashMap<>();
+
+	/**
+	 * rasters by dimensions and image type
+	 */
+	private final Map<String, BufferedImage> images = new HashMap<>();
+
+	/**
+	 * a context rendering the whole pages at once.
+	 */
+	public RenderContext() {
+		this(0);
+	}
+
+	/**
+	 * @param bandBytes the memory of a rendered raster beyond which the page is
+	 *                  rendered in bands (0 to render the whole page at once).
+	 */
+	public RenderContext(long bandBytes) {
+		this.bandBytes = Math.max(0, bandBytes);
+	}
+
+	/**
+	 * render a page into the raster of its dimensions. The raster is the same as
+	 * the image of {@link PDFRenderer#renderImageWithDPI(int, float, ImageType)},
+	 * except that the page with a blend mode is rendered by PDFRenderer into a
+	 * new image, as it needs a transparent raster, and that the page rendered in
+	 * bands has the 3 bytes per pixel of TYPE_3BYTE_BGR.
+	 *
+	 * @param renderer  the renderer of the document.
+	 * @param page      the page.
+	 * @param pageIndex the index of the page.
+	 * @param dpi       the image resolution.
+	 * @param imageType the image type.
+	 * @return the image of the page.
+	 * @throws IOException if the page can not be rendered.
+	 */
+	public BufferedImage renderImage(PDFRenderer renderer, PDPage page, int pageIndex, float dpi,
+			ImageType imageType) throws IOException {
+		if (imageType == ImageType.ARGB || hasBlendMode(page)) {
+			return renderer.renderImageWithDPI(pageIndex, dpi, imageType);
+		}
+		final float scale = dpi / 72f;
+		final PDRectangle cropBox = page.getCropBox();
+		final int widthPx = (int) Math.max(Math.floor(cropBox.getWidth() * scale), 1);
+		final int heightPx = (int) Math.max(Math.floor(cropBox.getHeight() * scale), 1);
+		if ((long) widthPx * (long) heightPx > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Maximum size of image exceeded (w * h * scale) = "
+					+ widthPx + " * " + heightPx + " * " + scale + " > " + Integer.MAX_VALUE);
+		}
+		final int rotation = page.getRotation();
+		final boolean swap = rotation == 90 || rotation == 270;
+		final int width = swap ? heightPx : widthPx;
+		final int height = swap ? widthPx : heightPx;
+		final int bandHeight = getBandHeight(width, height);
+		if (bandHeight < height && imageType == ImageType.RGB) {
+			return renderBands(renderer, pageIndex, scale, width, height, bandHeight);
+		}
+		final BufferedImage image = getImage(width, height, imageType.toBufferedImageType());
+		renderBand(renderer, pageIndex, scale, image, 0);
+		return image;
+	}
+
+	/**
+	 * @param width  the width of the page image.
+	 * @param height the height of the page image.
+	 * @return the height of the bands of the page, its height when it is rendered
+	 *         at once.
+	 */
+	int getBandHeight(int width, int height) {
+		if (bandBytes == 0 || (long) width * height * BYTES_PER_PIXEL <= bandBytes) {
+			return height;
+		}
+		return (int) Math.max(1, Math.min(height, bandBytes / ((long) width * BYTES_PER_PIXEL)));
+	}
+
+	/**
+	 * render a page band by band, each band is copied into the page image. The
+	 * page image is a new image, the large pages are not kept between renderings.
+	 */
+	private BufferedImage renderBands(PDFRenderer renderer, int pageIndex, float scale, int width, int height,
+			int bandHeight) throws IOException {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		final BufferedImage band = getImage(width, bandHeight, BufferedImage.TYPE_INT_RGB);
+		final Graphics2D g = image.createGraphics();
+		try {
+			for (int top = 0; top < height; top += bandHeight) {
+				renderBand(renderer, pageIndex, scale, band, top);
+				// the last band is clipped by the page image
+				g.drawImage(band, 0, top, null);
+			}
+		} finally {
+			g.dispose();
+		}
+		return image;
+	}
+
+	/**
+	 * render the part of a page starting at a row of the page image into a
+	 * raster, cleared to white.
+	 */
+	private static void renderBand(PDFRenderer renderer, int pageIndex, float scale, BufferedImage raster, int top)
+			throws IOException {
+		final Graphics2D g = raster.createGraphics();
+		try {
+			g.setBackground(Color.WHITE);
+			g.clearRect(0, 0, raster.getWidth(), raster.getHeight());
+			g.translate(0, -top);
+			// the destination of renderImageWithDPI, for the optional contents
+			renderer.renderPageToGraphics(pageIndex, g, scale, scale, RenderDestination.EXPORT);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * @param width  the width of the image.
+	 * @param height the height of the image.
+	 * @param type   the type of the image.
+	 * @return the raster of these dimensions, with the pixels of its last use.
+	 */
+	public BufferedImage getImage(int width, int height, int type) {
+		final String key = width + "x" + height + ":" + type;
+		BufferedImage image = images.get(key);
+		if (image == null) {
+			if (images.size() >= MAX_IMAGES) {
+				images.clear();
+			}
+			image = new BufferedImage(width, height, type);
+			images.put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * write an image with the writer of its format, like
+	 * {@link ImageFormat#write(BufferedImage, OutputStream, int, float)}.
+	 *
+	 * @param image   the image.
+	 * @param format  the image format.
+	 * @param out     the stream of the image file.
+	 * @param dpi     the image resolution.
+	 * @param quality the image quality of the lossy formats. (use 1.0f for
+	 *                default)
+	 * @return false if there is no writer for this format.
+	 * @throws IOException If there is an error writing the image.
+	 */
+	public boolean write(BufferedImage image, ImageFormat format, OutputStream out, int dpi, float quality)
+			throws IOException {
+		final ImageWriter writer = getWriter(format);
+		if (writer == null) {
+			return false;
+		}
+		final float compressionQuality = format.getCompressionQuality(quality);
+		final ImageWriteParam param = params.computeIfAbsent(format, key -> writer.getDefaultWriteParam());
+		if (param.canWriteCompressed()) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionType(param.getCompressionTypes()[0]);
+			param.setCompressionQuality(compressionQuality);
+		}
+		final String key = format + ":" + image.getType() + ":" + dpi + ":" + compressionQuality;
+		IIOMetadata imageMetadata = metadata.get(key);
+		if (imageMetadata == null) {
+			imageMetadata = newMetadata(writer, format, image, param, dpi);
+			metadata.put(key, imageMetadata);
+		}
+		// the output is cached in memory instead of the temporary file of
+		// ImageIO.createImageOutputStream
+		boolean written = false;
+		try (ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+			writer.setOutput(output);
+			writer.write(null, new IIOImage(image, null, imageMetadata), param);
+			written = true;
+		} finally {
+			if (written) {
+				writer.setOutput(null);
+			} else {
+				// a writer interrupted by an error is not reused
+				writers.remove(format);
+				params.remove(format);
+				writer.dispose();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * dispose the writers and drop the rasters.
+	 */
+	@Override
+	public void close() {
+		for (Iterator<ImageWriter> it = writers.values().iterator(); it.hasNext();) {
+			it.next().dispose();
+			it.remove();
+		}
+		params.clear();
+		metadata.clear();
+		images.clear();
+	}
+
+	private ImageWriter getWriter(ImageFormat format) {
+		ImageWriter writer = writers.get(format);
+		if (writer == null) {
+			final Iterator<ImageWriter> it = ImageIO.getImageWritersBySuffix(format.getExtension());
+			if (!it.hasNext()) {
+				return null;
+			}
+			writer = it.next();
+			writers.put(format, writer);
+		}
+		return writer;
+	}
+
+	/**
+	 * the default metadata of an image with its resolution, as written by
+	 * PDFBox ImageIOUtil: in the JFIF segment for JPEG, in the standard metadata
+	 * for the other formats.
+	 */
+	private static IIOMetadata newMetadata(ImageWriter writer, ImageFormat format, BufferedImage image,
+			ImageWriteParam param, int dpi) throws IIOInvalidTreeException {
+		final IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image),
+				param);
+		if (metadata == null || metadata.isReadOnly()) {
+			return metadata;
+		}
+		if (format == ImageFormat.JPEG) {
+			final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+			final IIOMetadataNode jfif = getOrCreateChildNode(getOrCreateChildNode(root, "JPEGvariety"), "app0JFIF");
+			jfif.setAttribute("majorVersion", "1");
+			jfif.setAttribute("minorVersion", "2");
+			jfif.setAttribute("resUnits", "1");
+			jfif.setAttribute("Xdensity", Integer.toString(dpi));
+			jfif.setAttribute("Ydensity", Integer.toString(dpi));
+			jfif.setAttribute("thumbWidth", "0");
+			jfif.setAttribute("thumbHeight", "0");
+			metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+		} else if (metadata.isStandardMetadataFormatSupported()) {
+			final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(STANDARD_METADATA_FORMAT);
+			final IIOMetadataNode dimension = getOrCreateChildNode(root, "Dimension");
+			// the PNG writer counts the pixels per millimeter instead of the width of a
+			// pixel in millimeters
+			final float res = format == ImageFormat.PNG ? dpi / 25.4f : 25.4f / dpi;
+			getOrCreateChildNode(dimension, "HorizontalPixelSize").setAttribute("value", Double.toString(res));
+			getOrCreateChildNode(dimension, "VerticalPixelSize").setAttribute("value", Double.toString(res));
+			metadata.mergeTree(STANDARD_METADATA_FORMAT, root);
+		}
+		return metadata;
+	}
+
+	private static IIOMetadataNode getOrCreateChildNode(IIOMetadataNode parent, String name) {
+		for (int i = 0; i < parent.getLength(); i++) {
+			if (name.equals(parent.item(i).getNodeName())) {
+				return (IIOMetadataNode) parent.item(i);
+			}
+		}
+		final IIOMetadataNode child = new IIOMetadataNode(name);
+		parent.appendChild(child);
+		return child;
+	}
+
+	/**
+	 * the blend modes of the page, PDFRenderer renders such a page into a
+	 * transparent raster.
+	 */
+	private static boolean hasBlendMode(PDPage page) {
+		final PDResources resources = page.getResources();
+		if (resources == null) {
+			return false;
+		}
+		for (COSName name : resources.getExtGStateNames()) {
+			final PDExtendedGraphicsState extGState = resources.getExtGState(name);
+			if (extGState != null && extGState.getBlendMode() != BlendMode.NORMAL) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
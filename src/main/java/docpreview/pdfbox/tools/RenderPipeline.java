@@ -0,0 +1,382 @@
+package docpreview.pdfbox.tools;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The encode and write stages of the rendering of the pages.
+ *
+ * A render worker hands the images of a page to the encode pool, which encodes
+ * them in memory and hands the encoded images to the write pool, which writes
+ * the image files. Each pool has its own threads and a bounded queue: a full
+ * queue blocks the stage submitting to it, so that a slow disk slows the
+ * encoding and a slow encoding slows the rendering instead of piling up
+ * images in memory.
+ *
+ * The latency of each stage is timed by {@code docpreview.render.stage}, with a
+ * {@code stage} tag: render, encode and write. The time waited for room in the
+ * queue of a stage is timed apart by {@code docpreview.render.stage.wait}, with
+ * the {@code stage} tag of the stage waited for, so that the backpressure of a
+ * stage is not counted in the latency of the previous one.
+ */
+@Service
+public class RenderPipeline {
+
+	/**
+	 * A writer of an encoded image file.
+	 */
+	@FunctionalInterface
+	public interface ImageFileWriter {
+
+		/**
+		 * @param fileName the name of the image file.
+		 * @param bytes    the encoded image.
+		 * @param sha1     the SHA-1 of the encoded image.
+		 * @throws IOException if the file can not be written.
+		 */
+		void write(String fileName, byte[] bytes, String sha1) throws IOException;
+	}
+
+	private final ThreadPoolExecutor encodePool;
+
+	private final ThreadPoolExecutor writePool;
+
+	private final Timer renderTimer;
+
+	private final Timer encodeTimer;
+
+	private final Timer writeTimer;
+
+	private final Timer encodeWaitTimer;
+
+	private final Timer writeWaitTimer;
+
+	/**
+	 * the writers of the encode threads
+	 */
+	private final ThreadLocal<RenderContext> encodeContexts = ThreadLocal.withInitial(RenderContext::new);
+
+	/**
+	 * @param encodeThreads the threads of the encode stage (0 for the number of
+	 *                      available processors).
+	 * @param writeThreads  the threads of the write stage.
+	 * @param queueCapacity the images waiting for each stage before the previous
+	 *                      stage blocks.
+	 * @param meterRegistry the registry of the stage metrics.
+	 */
+	public RenderPipeline(@Value("${pdftoimage.render.encode-threads}") int encodeThreads,
+			@Value("${pdftoimage.render.write-threads}") int writeThreads,
+			@Value("${pdftoimage.render.stage-queue-capacity}") int queueCapacity, MeterRegistry meterRegistry) {
+		this.encodePool = newStagePool(encodeThreads > 0 ? encodeThreads : Runtime.getRuntime().availableProcessors(),
+				queueCapacity, "docpreview-encode-");
+		this.writePool = newStagePool(Math.max(1, writeThreads), queueCapacity, "docpreview-write-");
+		this.renderTimer = stageTimer("render", meterRegistry);
+		this.encodeTimer = stageTimer("encode", meterRegistry);
+		this.writeTimer = stageTimer("write", meterRegistry);
+		this.encodeWaitTimer = waitTimer("encode", meterRegistry);
+		this.writeWaitTimer = waitTimer("write", meterRegistry);
+		Gauge.builder("docpreview.render.stage.queue", encodePool, pool -> pool.getQueue().size()).tag("stage", "encode")
+				.description("Images waiting for the encode stage").register(meterRegistry);
+		Gauge.builder("docpreview.render.stage.queue", writePool, pool -> pool.getQueue().size()).tag("stage", "write")
+				.description("Images waiting for the write stage").register(meterRegistry);
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		encodePool.shutdownNow();
+		writePool.shutdownNow();
+	}
+
+	/**
+	 * @return the timer of the render stage, recorded by the render workers.
+	 */
+	public Timer getRenderTimer() {
+		return renderTimer;
+	}
+
+	/**
+	 * @return a new batch, for the images of a conversion.
+	 */
+	public Batch newBatch() {
+		return new Batch();
+	}
+
+	/**
+	 * An image of a page to encode.
+	 */
+	public static final class PageImage {
+
+		private final BufferedImage image;
+
+		private final String fileName;
+
+		private final int dpi;
+
+		/**
+		 * @param image    the image.
+		 * @param fileName the name of the image file.
+		 * @param dpi      the image resolution.
+		 */
+		public PageImage(BufferedImage image, String fileName, int dpi) {
+			this.image = image;
+			this.fileName = fileName;
+			this.dpi = dpi;
+		}
+	}
+
+	/**
+	 * The images of a conversion going through the stages.
+	 */
+	public final class Batch {
+
+		private final List<Future<Boolean>> encodings = new ArrayList<>();
+
+		private final List<Future<Boolean>> writes = new ArrayList<>();
+
+		/**
+		 * the images not encoded or written yet are skipped
+		 */
+		private volatile boolean cancelled;
+
+		/**
+		 * the encodings and writes submitted and not finished yet, guarded by the
+		 * batch
+		 */
+		private int pending;
+
+		private Batch() {
+		}
+
+		/**
+		 * hand the images of a page to the encode stage, waiting while its queue is
+		 * full.
+		 *
+		 * @param images  the images of the page.
+		 * @param format  the image format.
+		 * @param quality the image quality.
+		 * @param writer  the writer of the image files.
+		 * @return the encoding of the images, false if there is no writer for the
+		 *         format. The rasters of the images can be reused once it is done.
+		 * @throws IOException if the wait is interrupted.
+		 */
+		public Future<Boolean> submit(List<PageImage> images, ImageFormat format, float quality,
+				ImageFileWriter writer) throws IOException {
+			final Future<Boolean> encoding = submitTracked(encodePool, encodeWaitTimer, () -> {
+				final RenderContext context = encodeContexts.get();
+				for (PageImage image : images) {
+					final MessageDigest md = SHAUtil.newDigest();
+					final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+					final long startTime = System.nanoTime();
+					try (OutputStream out = new DigestOutputStream(bytes, md)) {
+						if (!context.write(image.image, format, out, image.dpi, quality)) {
+							return false;
+						}
+					} finally {
+						encodeTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+					}
+					final String sha1 = SHAUtil.hash(md);
+					// the wait for the write stage is not part of the encoding
+					final Future<Boolean> write = submitTracked(writePool, writeWaitTimer,
+							() -> writeTimer.recordCallable(() -> {
+								writer.write(image.fileName, bytes.toByteArray(), sha1);
+								return true;
+							}));
+					synchronized (this) {
+						writes.add(write);
+					}
+				}
+				return true;
+			});
+			synchronized (this) {
+				encodings.add(encoding);
+			}
+			return encoding;
+		}
+
+		/**
+		 * wait for the images handed to the stages, once the render workers are
+		 * done. The images not encoded or written yet are cancelled if one of them
+		 * fails.
+		 *
+		 * @return false if there is no writer for the image format.
+		 * @throws IOException if an image can not be encoded or written.
+		 */
+		public boolean await() throws IOException {
+			boolean success = true;
+			try {
+				// the writes are submitted by the encodings
+				for (Future<Boolean> encoding : snapshot(encodings)) {
+					success &= get(encoding);
+				}
+				for (Future<Boolean> write : snapshot(writes)) {
+					success &= get(write);
+				}
+			} finally {
+				cancel();
+			}
+			return success;
+		}
+
+		/**
+		 * cancel the images not encoded or written yet: their tasks are skipped.
+		 * The tasks already running go on, see {@link #awaitTermination()}.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * wait for the encodings and writes submitted to finish, skipped or not,
+		 * ignoring their results, so that no image file is written once it
+		 * returns. The render workers submitting to the batch must be done.
+		 */
+		public void awaitTermination() {
+			boolean interrupted = false;
+			synchronized (this) {
+				// the queued tasks are dropped when the pipeline is stopped
+				while (pending > 0 && !encodePool.isShutdown()) {
+					try {
+						wait(100);
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * submit a task of the batch, skipped once the batch is cancelled, and
+		 * count it until it is finished.
+		 */
+		private Future<Boolean> submitTracked(ThreadPoolExecutor pool, Timer waitTimer, Callable<Boolean> task)
+				throws IOException {
+			synchronized (this) {
+				pending++;
+			}
+			boolean submitted = false;
+			try {
+				final Future<Boolean> future = submitTo(pool, waitTimer, () -> {
+					try {
+						if (cancelled) {
+							throw new CancellationException("The images of the batch are cancelled");
+						}
+						return task.call();
+					} finally {
+						finished();
+					}
+				});
+				submitted = true;
+				return future;
+			} finally {
+				if (!submitted) {
+					finished();
+				}
+			}
+		}
+
+		private synchronized void finished() {
+			if (--pending == 0) {
+				notifyAll();
+			}
+		}
+
+		private synchronized List<Future<Boolean>> snapshot(List<Future<Boolean>> futures) {
+			return new ArrayList<>(futures);
+		}
+	}
+
+	/**
+	 * wait for a stage task.
+	 *
+	 * @param future the task.
+	 * @return the result of the task.
+	 * @throws IOException if the task has failed or the wait is interrupted.
+	 */
+	public static boolean get(Future<Boolean> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the images", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Error while writing the images", e.getCause());
+		}
+	}
+
+	/**
+	 * submit a task to a stage, waiting while the queue of the stage is full.
+	 */
+	private static Future<Boolean> submitTo(ThreadPoolExecutor pool, Timer waitTimer, Callable<Boolean> task)
+			throws IOException {
+		final long startTime = System.nanoTime();
+		try {
+			return pool.submit(task);
+		} catch (RejectedExecutionException e) {
+			throw new IOException("The render pipeline is stopped", e);
+		} finally {
+			waitTimer.record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private static ThreadPoolExecutor newStagePool(int threads, int queueCapacity, String threadNamePrefix) {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), new CustomizableThreadFactory(threadNamePrefix),
+				(task, executor) -> {
+					// backpressure: the submitting stage waits for room in the queue
+					if (executor.isShutdown()) {
+						throw new RejectedExecutionException("The render pipeline is stopped");
+					}
+					try {
+						executor.getQueue().put(task);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for the render pipeline", e);
+					}
+				});
+		return pool;
+	}
+
+	private static Timer waitTimer(String stage, MeterRegistry meterRegistry) {
+		return Timer.builder("docpreview.render.stage.wait").tag("stage", stage)
+				.description("Time waited for room in the queue of a stage of the rendering of the pages")
+				.register(meterRegistry);
+	}
+
+	private static Timer stageTimer(String stage, MeterRegistry meterRegistry) {
+		return Timer.builder("docpreview.render.stage").tag("stage", stage)
+				.description("Latency of a stage of the rendering of the pages").register(meterRegistry);
+	}
+}
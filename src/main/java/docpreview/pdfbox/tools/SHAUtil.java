@@ -1,5 +1,10 @@
 package docpreview.pdfbox.tools;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Formatter;
@@ -19,6 +24,40 @@ public class SHAUtil {
 	    return byteArray2Hex(md.digest(buf));
 	}
 
+	public static String hash(File file) throws IOException {
+	    MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// NEVER THROW SINCE SHA-1 EXISTS
+			return null;
+		}
+		// the file is hashed by blocks, without reading it in memory
+		try (InputStream in = new DigestInputStream(new FileInputStream(file), md)) {
+			byte[] buf = new byte[8192];
+			while (in.read(buf) != -1) {
+				// digest the block
+			}
+		}
+	    return byteArray2Hex(md.digest());
+	}
+
+	/**
+	 * @return a new SHA-1 digest, to hash a content while it is written.
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// NEVER THROW SINCE SHA-1 EXISTS
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static String hash(MessageDigest md) {
+	    return byteArray2Hex(md.digest());
+	}
+
 	private static String byteArray2Hex(final byte[] hash) {
 	    Formatter formatter = new Formatter();
 	    for (byte b : hash) {
@@ -3,12 +3,38 @@ package docpreview.repository;
 import docpreview.domain.Doc;
 
 import org.springframework.data.jpa.repository.*;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 /**
  * Spring Data  repository for the Doc entity.
  */
 @SuppressWarnings("unused")
 @Repository
 public interface DocRepository extends JpaRepository<Doc, Long>, JpaSpecificationExecutor<Doc> {
+
+    @Query("select d.contentSha1 from Doc d where d.id = :id")
+    Optional<String> findContentSha1ById(@Param("id") Long id);
+
+    @Query("select d.numberOfPages from Doc d where d.id = :id")
+    Optional<Integer> findNumberOfPagesById(@Param("id") Long id);
+
+    /**
+     * Count the docs sharing a content, that is the reference count of the content
+     * in the content store.
+     */
+    long countByContentSha1(String contentSha1);
+
+    /**
+     * Update the number of pages of a doc without loading its content, if the
+     * content has not been changed since the rendering.
+     *
+     * @return the number of updated docs.
+     */
+    @Modifying
+    @Query("update Doc d set d.numberOfPages = :numberOfPages where d.id = :id and d.contentSha1 = :contentSha1")
+    int updateNumberOfPages(@Param("id") Long id, @Param("contentSha1") String contentSha1,
+        @Param("numberOfPages") Integer numberOfPages);
 }
@@ -0,0 +1,44 @@
+package docpreview.repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import docpreview.domain.RenderJob;
+import docpreview.domain.enumeration.RenderJobStatus;
+
+/**
+ * Spring Data  repository for the RenderJob entity.
+ */
+@Repository
+public interface RenderJobRepository extends JpaRepository<RenderJob, Long> {
+
+    Optional<RenderJob> findFirstByDocIdOrderByIdDesc(Long docId);
+
+    List<RenderJob> findByStatusInOrderByIdAsc(Collection<RenderJobStatus> statuses);
+
+    boolean existsByDocIdAndContentSha1AndStatusIn(Long docId, String contentSha1, Collection<RenderJobStatus> statuses);
+
+    void deleteByDocId(Long docId);
+
+    long deleteByDocIdAndStatus(Long docId, RenderJobStatus status);
+
+    /**
+     * Atomically move a queued job to the rendering status, so that a job is
+     * never rendered by two workers.
+     *
+     * @return 1 if the job has been claimed, 0 otherwise.
+     */
+    @Modifying
+    @Query("update RenderJob j set j.status = docpreview.domain.enumeration.RenderJobStatus.RENDERING, "
+        + "j.attempts = j.attempts + 1, j.startedAt = :startedAt "
+        + "where j.id = :id and j.status = docpreview.domain.enumeration.RenderJobStatus.QUEUED")
+    int claim(@Param("id") Long id, @Param("startedAt") Instant startedAt);
+}
@@ -0,0 +1,70 @@
+package docpreview.service;
+
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.service.dto.DocContentDTO;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Optional;
+
+/**
+ * Service Interface for streaming the content of the {@link docpreview.domain.Doc}
+ * without loading it in the entity.
+ */
+public interface DocContentService {
+
+    /**
+     * Get the metadata of the content of the "id" doc, without reading the content.
+     *
+     * @param id the id of the doc.
+     * @return the metadata, or empty if the doc does not exist.
+     */
+    Optional<DocContentDTO> findContentInfo(Long id);
+
+    /**
+     * Get the content of a doc, or a variant of its content, as a seekable
+     * resource, to serve byte ranges without reading the whole content.
+     *
+     * @param info the metadata of the content of the doc.
+     * @param variant the variant of the content.
+     * @return the resource, or empty if the content is only in the database or
+     *         if the variant has not been written.
+     */
+    Optional<Resource> findContentResource(DocContentDTO info, ContentVariant variant);
+
+    /**
+     * Read the content of the "id" doc as a stream. The stream is only open
+     * during the call of the reader.
+     *
+     * @param id the id of the doc.
+     * @param reader the reader of the content.
+     * @param <T> the type of the result of the reader.
+     * @return the result of the reader, or empty if the doc has no content.
+     * @throws IOException if the reader fails.
+     */
+    <T> Optional<T> readContent(Long id, ContentReader<T> reader) throws IOException;
+
+    /**
+     * Copy the content of the "id" doc to an output stream with a constant memory.
+     *
+     * @param id the id of the doc.
+     * @param out the output stream.
+     * @return false if the doc has no content.
+     * @throws IOException if the content can not be written.
+     */
+    boolean writeContent(Long id, OutputStream out) throws IOException;
+
+    /**
+     * A reader of the content of a doc.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    interface ContentReader<T> {
+
+        T read(InputStream in) throws IOException;
+    }
+}
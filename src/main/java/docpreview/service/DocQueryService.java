@@ -1,14 +1,23 @@
 package docpreview.service;
 
 import java.util.List;
+import java.util.Optional;
 
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.repository.support.PageableExecutionUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,13 +28,15 @@ import docpreview.domain.*; // for static metamodels
 import docpreview.repository.DocRepository;
 import docpreview.service.dto.DocCriteria;
 import docpreview.service.dto.DocDTO;
+import docpreview.service.dto.DocSummaryDTO;
 import docpreview.service.mapper.DocMapper;
 
 /**
  * Service for executing complex queries for {@link Doc} entities in the database.
  * The main input is a {@link DocCriteria} which gets converted to {@link Specification},
  * in a way that all the filters must apply.
- * It returns a {@link List} of {@link DocDTO} or a {@link Page} of {@link DocDTO} which fulfills the criteria.
+ * It returns a {@link List} of {@link DocDTO} or a {@link Page} of {@link DocDTO} which fulfills the criteria,
+ * or a {@link Page} of {@link DocSummaryDTO} selecting every column but the content.
  */
 @Service
 @Transactional(readOnly = true)
@@ -37,9 +48,12 @@ public class DocQueryService extends QueryService<Doc> {
 
     private final DocMapper docMapper;
 
-    public DocQueryService(DocRepository docRepository, DocMapper docMapper) {
+    private final EntityManager em;
+
+    public DocQueryService(DocRepository docRepository, DocMapper docMapper, EntityManager em) {
         this.docRepository = docRepository;
         this.docMapper = docMapper;
+        this.em = em;
     }
 
     /**
@@ -68,6 +82,37 @@ public class DocQueryService extends QueryService<Doc> {
             .map(docMapper::toDto);
     }
 
+    /**
+     * Return a {@link Page} of {@link DocSummaryDTO} which matches the criteria from the database.
+     * The content of the docs is not selected.
+     * @param criteria The object which holds all the filters, which the entities should match.
+     * @param page The page, which should be returned.
+     * @return the summaries of the matching entities.
+     */
+    @Transactional(readOnly = true)
+    public Page<DocSummaryDTO> findSummariesByCriteria(DocCriteria criteria, Pageable page) {
+        log.debug("find summaries by criteria : {}, page: {}", criteria, page);
+        final Specification<Doc> specification = createSpecification(criteria);
+        final TypedQuery<DocSummaryDTO> query = createSummaryQuery(specification, page);
+        if (page.isPaged()) {
+            query.setFirstResult((int) page.getOffset());
+            query.setMaxResults(page.getPageSize());
+        }
+        return PageableExecutionUtils.getPage(query.getResultList(), page, () -> docRepository.count(specification));
+    }
+
+    /**
+     * Return the {@link DocSummaryDTO} of the "id" doc, without selecting its content.
+     * @param id the id of the doc.
+     * @return the summary of the doc, or empty if the doc does not exist.
+     */
+    @Transactional(readOnly = true)
+    public Optional<DocSummaryDTO> findSummary(Long id) {
+        log.debug("find summary : {}", id);
+        final Specification<Doc> specification = (root, query, cb) -> cb.equal(root.get(Doc_.id), id);
+        return createSummaryQuery(specification, Pageable.unpaged()).getResultList().stream().findFirst();
+    }
+
     /**
      * Return the number of matching entities in the database.
      * @param criteria The object which holds all the filters, which the entities should match.
@@ -80,6 +125,27 @@ public class DocQueryService extends QueryService<Doc> {
         return docRepository.count(specification);
     }
 
+    /**
+     * Create the query selecting the {@link DocSummaryDTO} of the entities matching the specification.
+     */
+    private TypedQuery<DocSummaryDTO> createSummaryQuery(Specification<Doc> specification, Pageable page) {
+        final CriteriaBuilder cb = em.getCriteriaBuilder();
+        final CriteriaQuery<DocSummaryDTO> query = cb.createQuery(DocSummaryDTO.class);
+        final Root<Doc> root = query.from(Doc.class);
+        query.select(cb.construct(DocSummaryDTO.class, root.get(Doc_.id), root.get(Doc_.title),
+            root.get(Doc_.language), root.get(Doc_.description), root.get(Doc_.contentContentType),
+            root.get(Doc_.contentSha1), root.get(Doc_.numberOfPages), root.get(Doc_.createdAt),
+            root.get(Doc_.updatedAt)));
+        final Predicate predicate = specification.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        if (page.getSort().isSorted()) {
+            query.orderBy(QueryUtils.toOrders(page.getSort(), root, cb));
+        }
+        return em.createQuery(query);
+    }
+
     /**
      * Function to convert {@link DocCriteria} to a {@link Specification}
      * @param criteria The object which holds all the filters, which the entities should match.
@@ -5,6 +5,7 @@ import docpreview.service.dto.DocDTO;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.io.InputStream;
 import java.util.Optional;
 
 /**
@@ -16,10 +17,20 @@ public interface DocService {
      * Save a doc.
      *
      * @param docDTO the entity to save.
-     * @return the persisted entity.
+     * @return the persisted entity, without content.
      */
     DocDTO save(DocDTO docDTO);
 
+    /**
+     * Save a doc with a content read from a stream, without holding the content
+     * in memory.
+     *
+     * @param docDTO the entity to save, without content.
+     * @param content the stream of the content.
+     * @return the persisted entity, without content.
+     */
+    DocDTO save(DocDTO docDTO, InputStream content);
+
     /**
      * Get all the docs.
      *
@@ -29,7 +40,8 @@ public interface DocService {
     Page<DocDTO> findAll(Pageable pageable);
 
     /**
-     * Get the "id" doc.
+     * Get the "id" doc, without its content: the content is read from the
+     * {@link DocContentService}.
      *
      * @param id the id of the entity.
      * @return the entity.
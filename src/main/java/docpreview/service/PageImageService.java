@@ -0,0 +1,38 @@
+package docpreview.service;
+
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageSize;
+import docpreview.service.dto.PageImageDTO;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Service Interface for serving the page images of the {@link docpreview.domain.Doc}.
+ */
+public interface PageImageService {
+
+    /**
+     * Get the image of a page of the "docId" doc. The concurrent identical
+     * requests share a single lookup.
+     *
+     * @param docId the id of the doc.
+     * @param page the page number.
+     * @param size the image size.
+     * @param format the image format.
+     * @return the image, or empty if the doc or the page has no image.
+     */
+    Optional<PageImageDTO> findPageImage(Long docId, long page, ImageSize size, ImageFormat format);
+
+    /**
+     * Get the resource serving the bytes of an image without copying them in the
+     * heap: a memory-mapped region for the recently served images, else the file.
+     *
+     * @param image the image.
+     * @return the resource.
+     * @throws IOException if the file can not be mapped.
+     */
+    Resource getResource(PageImageDTO image) throws IOException;
+}
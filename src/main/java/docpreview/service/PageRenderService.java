@@ -0,0 +1,26 @@
+package docpreview.service;
+
+import java.io.File;
+import java.util.Optional;
+
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageSize;
+
+/**
+ * Service Interface for getting the page images of the {@link docpreview.domain.Doc}.
+ */
+public interface PageRenderService {
+
+    /**
+     * Get the image file of a page of the "docId" doc. When the pages are
+     * rendered lazily, the image is rendered on the first request of the page.
+     * The formats other than JPEG are always rendered on their first request.
+     *
+     * @param docId the id of the doc.
+     * @param page the page number.
+     * @param size the image size.
+     * @param format the image format.
+     * @return the image file, or empty if the page has no image.
+     */
+    Optional<File> getPageImage(Long docId, long page, ImageSize size, ImageFormat format);
+}
@@ -0,0 +1,62 @@
+package docpreview.service;
+
+import docpreview.service.dto.RenderJobDTO;
+
+import java.util.Optional;
+
+/**
+ * Service Interface for managing {@link docpreview.domain.RenderJob}.
+ */
+public interface RenderJobService {
+
+    /**
+     * Enqueue the rendering of the page images of a doc. The job is handed to
+     * the workers once the current transaction is committed.
+     *
+     * @param docId the id of the doc.
+     * @param contentSha1 the SHA-1 of the content to render.
+     * @return the queued job.
+     */
+    RenderJobDTO enqueue(Long docId, String contentSha1);
+
+    /**
+     * Check that the rendering of a new content can be enqueued: the number of
+     * queued jobs is bounded, so that a burst of uploads does not starve the
+     * other requests. The admission reserves a place in the queue for the
+     * current thread until the job it enqueues is committed, or until
+     * {@link #releaseAdmission()}.
+     *
+     * @throws RenderQueueFullException if the queue is full.
+     */
+    void checkAdmission();
+
+    /**
+     * Release the admission of the current thread if no job has been enqueued
+     * with it.
+     */
+    void releaseAdmission();
+
+    /**
+     * Check whether the rendering of a content of a doc is queued or running.
+     *
+     * @param docId the id of the doc.
+     * @param contentSha1 the SHA-1 of the content.
+     * @return true if a job of this content is pending.
+     */
+    boolean isPending(Long docId, String contentSha1);
+
+    /**
+     * Get the last render job of the "docId" doc.
+     *
+     * @param docId the id of the doc.
+     * @return the job.
+     */
+    Optional<RenderJobDTO> findLastByDocId(Long docId);
+
+    /**
+     * Delete the render jobs of the "docId" doc.
+     *
+     * @param docId the id of the doc.
+     */
+    void deleteByDocId(Long docId);
+}
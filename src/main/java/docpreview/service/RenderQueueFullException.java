@@ -0,0 +1,24 @@
+package docpreview.service;
+
+/**
+ * Thrown when the rendering of a new content is not admitted because too many
+ * render jobs are queued.
+ */
+public class RenderQueueFullException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfter;
+
+    public RenderQueueFullException(int retryAfter) {
+        super("Too many documents are waiting for their rendering, retry later");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the delay before a new attempt, in seconds.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
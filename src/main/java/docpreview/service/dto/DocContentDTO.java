@@ -0,0 +1,66 @@
+package docpreview.service.dto;
+
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A DTO for the metadata of the content of a {@link docpreview.domain.Doc},
+ * without the bytes of the content.
+ */
+public class DocContentDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String contentType;
+
+    private final String sha1;
+
+    private final Instant updatedAt;
+
+    private final long length;
+
+    public DocContentDTO(String contentType, String sha1, Instant updatedAt, long length) {
+        this.contentType = contentType;
+        this.sha1 = sha1;
+        this.updatedAt = updatedAt;
+        this.length = length;
+    }
+
+    /**
+     * @return the content type of the content.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the SHA-1 of the content.
+     */
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * @return the update date of the doc.
+     */
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * @return the length of the content in bytes.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "DocContentDTO{" +
+            "contentType='" + getContentType() + "'" +
+            ", sha1='" + getSha1() + "'" +
+            ", updatedAt='" + getUpdatedAt() + "'" +
+            ", length=" + getLength() +
+            "}";
+    }
+}
@@ -0,0 +1,168 @@
+package docpreview.service.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.time.Instant;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A summary DTO for the {@link docpreview.domain.Doc} entity, with every field
+ * but the content.
+ */
+@ApiModel(description = "Summary of the entity Doc, without the content")
+public class DocSummaryDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Long id;
+
+    @ApiModelProperty(value = "Title du document")
+    private String title;
+
+    @ApiModelProperty(value = "Language of the document (ISO code).")
+    private String language;
+
+    @ApiModelProperty(value = "Description of the document")
+    private String description;
+
+    private String contentContentType;
+
+    private String contentSha1;
+
+    @ApiModelProperty(value = "Number of pages of the document")
+    private Integer numberOfPages;
+
+    @ApiModelProperty(value = "Creation date")
+    private Instant createdAt;
+
+    @ApiModelProperty(value = "Update date")
+    private Instant updatedAt;
+
+    public DocSummaryDTO() {
+    }
+
+    /**
+     * Constructor of the projection of the {@link docpreview.domain.Doc} entity.
+     */
+    public DocSummaryDTO(Long id, String title, String language, String description, String contentContentType,
+        String contentSha1, Integer numberOfPages, Instant createdAt, Instant updatedAt) {
+        this.id = id;
+        this.title = title;
+        this.language = language;
+        this.description = description;
+        this.contentContentType = contentContentType;
+        this.contentSha1 = contentSha1;
+        this.numberOfPages = numberOfPages;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public String getContentContentType() {
+        return contentContentType;
+    }
+
+    public void setContentContentType(String contentContentType) {
+        this.contentContentType = contentContentType;
+    }
+
+    public String getContentSha1() {
+        return contentSha1;
+    }
+
+    public void setContentSha1(String contentSha1) {
+        this.contentSha1 = contentSha1;
+    }
+
+    public Integer getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    public void setNumberOfPages(Integer numberOfPages) {
+        this.numberOfPages = numberOfPages;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        DocSummaryDTO docSummaryDTO = (DocSummaryDTO) o;
+        if (docSummaryDTO.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), docSummaryDTO.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "DocSummaryDTO{" +
+            "id=" + getId() +
+            ", title='" + getTitle() + "'" +
+            ", language='" + getLanguage() + "'" +
+            ", description='" + getDescription() + "'" +
+            ", contentContentType='" + getContentContentType() + "'" +
+            ", contentSha1='" + getContentSha1() + "'" +
+            ", numberOfPages=" + getNumberOfPages() +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", updatedAt='" + getUpdatedAt() + "'" +
+            "}";
+    }
+}
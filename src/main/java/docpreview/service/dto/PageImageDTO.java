@@ -0,0 +1,55 @@
+package docpreview.service.dto;
+
+import java.io.File;
+import java.io.Serializable;
+import java.time.Instant;
+
+/**
+ * A DTO for the image of a page of a {@link docpreview.domain.Doc}.
+ */
+public class PageImageDTO implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Instant updatedAt;
+
+    private final String sha1;
+
+    private final File file;
+
+    public PageImageDTO(Instant updatedAt, String sha1, File file) {
+        this.updatedAt = updatedAt;
+        this.sha1 = sha1;
+        this.file = file;
+    }
+
+    /**
+     * @return the update date of the doc.
+     */
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * @return the SHA-1 of the image.
+     */
+    public String getSha1() {
+        return sha1;
+    }
+
+    /**
+     * @return the image file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "PageImageDTO{" +
+            "updatedAt='" + getUpdatedAt() + "'" +
+            ", sha1='" + getSha1() + "'" +
+            ", file='" + getFile() + "'" +
+            "}";
+    }
+}
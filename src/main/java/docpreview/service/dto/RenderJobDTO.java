@@ -0,0 +1,161 @@
+package docpreview.service.dto;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+import java.time.Instant;
+import java.io.Serializable;
+import java.util.Objects;
+import docpreview.domain.enumeration.RenderJobStatus;
+
+/**
+ * A DTO for the {@link docpreview.domain.RenderJob} entity.
+ */
+@ApiModel(description = "Entity RenderJob")
+public class RenderJobDTO implements Serializable {
+
+    private Long id;
+
+    @ApiModelProperty(value = "Identifier of the rendered doc", required = true)
+    private Long docId;
+
+    @ApiModelProperty(value = "SHA-1 of the content to render")
+    private String contentSha1;
+
+    @ApiModelProperty(value = "Status of the job", required = true)
+    private RenderJobStatus status;
+
+    @ApiModelProperty(value = "Number of times a worker has started the job", required = true)
+    private Integer attempts;
+
+    @ApiModelProperty(value = "Number of rendered pages")
+    private Integer numberOfPages;
+
+    @ApiModelProperty(value = "Error message of a failed job")
+    private String message;
+
+    @ApiModelProperty(value = "Creation date", required = true)
+    private Instant createdAt;
+
+    @ApiModelProperty(value = "Start date of the last attempt")
+    private Instant startedAt;
+
+    @ApiModelProperty(value = "End date of the job")
+    private Instant finishedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getDocId() {
+        return docId;
+    }
+
+    public void setDocId(Long docId) {
+        this.docId = docId;
+    }
+
+    public String getContentSha1() {
+        return contentSha1;
+    }
+
+    public void setContentSha1(String contentSha1) {
+        this.contentSha1 = contentSha1;
+    }
+
+    public RenderJobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(RenderJobStatus status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Integer getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    public void setNumberOfPages(Integer numberOfPages) {
+        this.numberOfPages = numberOfPages;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public void setStartedAt(Instant startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public void setFinishedAt(Instant finishedAt) {
+        this.finishedAt = finishedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        RenderJobDTO renderJobDTO = (RenderJobDTO) o;
+        if (renderJobDTO.getId() == null || getId() == null) {
+            return false;
+        }
+        return Objects.equals(getId(), renderJobDTO.getId());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(getId());
+    }
+
+    @Override
+    public String toString() {
+        return "RenderJobDTO{" +
+            "id=" + getId() +
+            ", docId=" + getDocId() +
+            ", contentSha1='" + getContentSha1() + "'" +
+            ", status='" + getStatus() + "'" +
+            ", attempts=" + getAttempts() +
+            ", numberOfPages=" + getNumberOfPages() +
+            ", message='" + getMessage() + "'" +
+            ", createdAt='" + getCreatedAt() + "'" +
+            ", startedAt='" + getStartedAt() + "'" +
+            ", finishedAt='" + getFinishedAt() + "'" +
+            "}";
+    }
+}
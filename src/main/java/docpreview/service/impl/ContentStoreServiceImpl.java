@@ -0,0 +1,592 @@
+package docpreview.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import docpreview.domain.Doc;
+import docpreview.domain.RenderJob;
+import docpreview.domain.enumeration.RenderJobStatus;
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.pdfbox.tools.ImageHashIndex;
+import docpreview.pdfbox.tools.SHAUtil;
+import docpreview.repository.DocRepository;
+import docpreview.repository.RenderJobRepository;
+
+/**
+ * Content-addressed store of the contents of the {@link Doc} and of their
+ * rendered pages.
+ *
+ * The content and the page images of a SHA-1 live in a single directory shared
+ * by all the docs having this content: the directory of each doc is a symbolic
+ * link to the directory of its SHA-1. The reference count of a SHA-1 is the
+ * number of docs having this SHA-1 in the database, its directory is deleted
+ * once no doc refers to it.
+ *
+ * The pages of a content are rendered into a staging directory, then moved
+ * into the directory of the SHA-1; the link of a doc is flipped atomically
+ * once the pages of its new content are rendered. The readers see the
+ * complete pages of the previous or of the new content, and the directory of
+ * the previous content is deleted later, by {@link #collectReleased()}. Until
+ * then, a doc whose new content is being rendered still refers to its linked
+ * content.
+ */
+@Service
+public class ContentStoreServiceImpl {
+
+	private final Logger log = LoggerFactory.getLogger(ContentStoreServiceImpl.class);
+
+	/**
+	 * name of the content file in the directory of a SHA-1
+	 */
+	public static final String CONTENT_FILE = "content";
+
+	/**
+	 * name of the file keeping the number of pages, written once the pages are
+	 * rendered
+	 */
+	public static final String PAGES_FILE = "pages";
+
+	/**
+	 * prefix of the staging directories of the renderings, in the directory of a
+	 * SHA-1
+	 */
+	public static final String STAGING_DIR_PREFIX = "staging-";
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final FilesystemServiceImpl filesystemServiceImpl;
+
+	private final DocRepository docRepository;
+
+	private final RenderJobRepository renderJobRepository;
+
+	private final ImageHashIndex imageHashIndex;
+
+	private final TransactionTemplate newTransactionTemplate;
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	/**
+	 * number of transactions in progress storing a SHA-1, its directory is kept
+	 * until they are over
+	 */
+	private final ConcurrentMap<String, Integer> pins = new ConcurrentHashMap<>();
+
+	/**
+	 * SHA-1 released, with the time of their release, deleted by the next
+	 * collection after the grace delay. Kept in memory only, the contents
+	 * released before a restart are released again by {@link #releaseUnlinked()}
+	 */
+	private final ConcurrentMap<String, Long> released = new ConcurrentHashMap<>();
+
+	@NotNull(message = "pdftoimage.content.gc-delay-ms can not be null")
+	@Value("${pdftoimage.content.gc-delay-ms}")
+	private long gcDelay;
+
+	public ContentStoreServiceImpl(FilesystemServiceImpl filesystemServiceImpl, DocRepository docRepository,
+			RenderJobRepository renderJobRepository, ImageHashIndex imageHashIndex,
+			PlatformTransactionManager transactionManager) {
+		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.docRepository = docRepository;
+		this.renderJobRepository = renderJobRepository;
+		this.imageHashIndex = imageHashIndex;
+		this.newTransactionTemplate = new TransactionTemplate(transactionManager);
+		this.newTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.newTransactionTemplate.setReadOnly(true);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * @param sha1 the SHA-1 of a content.
+	 * @return the path of the directory of the SHA-1.
+	 */
+	public String getShaPath(String sha1) {
+		return filesystemServiceImpl.getContentRootPathPrefix() + File.separator + sha1.substring(0, 2)
+				+ File.separator + sha1;
+	}
+
+	/**
+	 * @param sha1 the SHA-1 of a content.
+	 * @return the content file of the SHA-1, which may not exist.
+	 */
+	public File getContentFile(String sha1) {
+		return new File(getShaPath(sha1), CONTENT_FILE);
+	}
+
+	/**
+	 * @param sha1    the SHA-1 of a content.
+	 * @param variant the variant of the content.
+	 * @return the file of the variant of the content, which may not exist.
+	 */
+	public File getContentFile(String sha1, ContentVariant variant) {
+		return new File(getShaPath(sha1), variant.getFileName(CONTENT_FILE));
+	}
+
+	/**
+	 * @param sha1 the SHA-1 of a content.
+	 * @return the prefix of the image files of the pages of the content.
+	 */
+	public String getImgPathPrefix(String sha1) {
+		return getShaPath(sha1) + File.separator + FilesystemServiceImpl.IMG_PREFIX;
+	}
+
+	/**
+	 * Create a staging directory for the rendering of the pages of a content.
+	 *
+	 * @param sha1 the SHA-1 of the content.
+	 * @return the staging directory, in the directory of the SHA-1.
+	 * @throws IOException if the directory can not be created.
+	 */
+	public File newStagingDir(String sha1) throws IOException {
+		final File dir = new File(getShaPath(sha1), STAGING_DIR_PREFIX + UUID.randomUUID());
+		Files.createDirectories(dir.toPath());
+		return dir;
+	}
+
+	/**
+	 * Move the files rendered into a staging directory into the directory of the
+	 * SHA-1. The SHA-1 files are moved first, so that a published image always has
+	 * its own.
+	 *
+	 * @param sha1    the SHA-1 of the content.
+	 * @param staging the staging directory.
+	 * @throws IOException if a file can not be moved.
+	 */
+	public void publishStaging(String sha1, File staging) throws IOException {
+		final File[] files = staging.listFiles();
+		if (files == null) {
+			throw new IOException("Can not list the staging directory " + staging);
+		}
+		Arrays.sort(files, Comparator.comparing((File file) -> !file.getName().endsWith(SHAUtil.SHA_EXTENSION)));
+		for (File file : files) {
+			final File target = new File(getShaPath(sha1), file.getName());
+			Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			imageHashIndex.rename(file.getPath(), target.getPath());
+		}
+	}
+
+	/**
+	 * Store a variant of a stored content, if it is not already stored.
+	 *
+	 * @param sha1     the SHA-1 of the content.
+	 * @param variant  the variant.
+	 * @param rewriter the writer of the variant file from the content file.
+	 * @return false if the content is not stored.
+	 * @throws IOException if the variant can not be written.
+	 */
+	public boolean putVariant(String sha1, ContentVariant variant, ContentRewriter rewriter) throws IOException {
+		final File content = getContentFile(sha1);
+		final File file = getContentFile(sha1, variant);
+		if (!content.exists()) {
+			return false;
+		}
+		if (file.exists()) {
+			return true;
+		}
+		// the variants are written outside of the lock, the slower writing is
+		// discarded by the atomic move
+		final File tmp = new File(getShaPath(sha1), variant.getFileName(CONTENT_FILE) + ".tmp-" + UUID.randomUUID());
+		try {
+			rewriter.rewrite(content, tmp);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+		return true;
+	}
+
+	/**
+	 * Store a content under its SHA-1, if it is not already stored. The directory
+	 * of the SHA-1 is kept until the end of the current transaction.
+	 *
+	 * @param sha1    the SHA-1 of the content.
+	 * @param content the content.
+	 * @throws IOException if the content can not be written.
+	 */
+	public void put(String sha1, byte[] content) throws IOException {
+		synchronized (lock(sha1)) {
+			pinUntilCompletion(sha1);
+			final File file = getContentFile(sha1);
+			if (file.exists()) {
+				log.debug("The content sha1={} is already stored", sha1);
+				return;
+			}
+			filesystemServiceImpl.mkdir(getShaPath(sha1));
+			// write aside, then publish the complete file
+			final File tmp = new File(getShaPath(sha1), CONTENT_FILE + ".tmp-" + UUID.randomUUID());
+			try {
+				FileUtils.writeByteArrayToFile(tmp, content);
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				tmp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Store a content read from a stream, if it is not already stored. The
+	 * content is copied into a temporary file and hashed while it is read, so
+	 * the memory used does not depend on its size. The directory of the SHA-1 is
+	 * kept until the end of the current transaction.
+	 *
+	 * @param in the stream of the content.
+	 * @return the SHA-1 of the content.
+	 * @throws IOException if the content can not be read or written.
+	 */
+	public String put(InputStream in) throws IOException {
+		final String root = filesystemServiceImpl.getContentRootPathPrefix();
+		filesystemServiceImpl.mkdir(root);
+		// in the root of the store, so that the move to the directory of the SHA-1
+		// is atomic
+		final File tmp = new File(root, "upload.tmp-" + UUID.randomUUID());
+		try {
+			final MessageDigest md = SHAUtil.newDigest();
+			try (InputStream digestIn = new DigestInputStream(in, md)) {
+				Files.copy(digestIn, tmp.toPath());
+			}
+			final String sha1 = SHAUtil.hash(md);
+			synchronized (lock(sha1)) {
+				pinUntilCompletion(sha1);
+				final File file = getContentFile(sha1);
+				if (file.exists()) {
+					log.debug("The content sha1={} is already stored", sha1);
+					return sha1;
+				}
+				filesystemServiceImpl.mkdir(getShaPath(sha1));
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			return sha1;
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Make the directory of a doc a link to the directory of its SHA-1. A link to
+	 * another content is replaced atomically, so the readers never miss the
+	 * directory of the doc.
+	 *
+	 * @param entityName the name of the entity.
+	 * @param id         the id of the doc.
+	 * @param sha1       the SHA-1 of the content of the doc.
+	 * @return the SHA-1 of the content linked before, or empty if the doc was not
+	 *         linked to another content.
+	 * @throws IOException if the link can not be created.
+	 */
+	public Optional<String> link(String entityName, long id, String sha1) throws IOException {
+		final Path target = new File(getShaPath(sha1)).getAbsoluteFile().toPath();
+		final Path link = new File(filesystemServiceImpl.getDocPathPrefix(entityName, id)).toPath();
+		synchronized (lock(sha1)) {
+			filesystemServiceImpl.mkdir(target.toString());
+			if (isLinked(link, target)) {
+				return Optional.empty();
+			}
+			final Optional<String> replaced = getLinkedSha1(link);
+			if (Files.isSymbolicLink(link)) {
+				// a link to another content, renamed over the link
+				final Path tmp = link.resolveSibling(link.getFileName() + ".tmp-" + UUID.randomUUID());
+				try {
+					Files.createSymbolicLink(tmp, target);
+					Files.move(tmp, link, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					Files.deleteIfExists(tmp);
+				}
+			} else {
+				// the directory of a doc rendered before the store
+				filesystemServiceImpl.deldir(link.toFile());
+				Files.createSymbolicLink(link, target);
+			}
+			imageHashIndex.removeDir(filesystemServiceImpl.getDocPathPrefix(entityName, id));
+			return replaced;
+		}
+	}
+
+	/**
+	 * @param entityName the name of the entity.
+	 * @param id         the id of the doc.
+	 * @return the SHA-1 of the content linked by the directory of the doc, or
+	 *         empty if the directory is not a link to a content.
+	 */
+	public Optional<String> getLinkedSha1(String entityName, long id) {
+		try {
+			return getLinkedSha1(new File(filesystemServiceImpl.getDocPathPrefix(entityName, id)).toPath());
+		} catch (IOException e) {
+			log.warn("Can not read the link of the directory of {} id={}", entityName, id, e);
+			return Optional.empty();
+		}
+	}
+
+	private Optional<String> getLinkedSha1(Path link) throws IOException {
+		if (!Files.isSymbolicLink(link)) {
+			return Optional.empty();
+		}
+		final Path target = Files.readSymbolicLink(link);
+		final Path name = target.getFileName();
+		if (name == null || !isLinked(link, new File(getShaPath(name.toString())).getAbsoluteFile().toPath())) {
+			return Optional.empty();
+		}
+		return Optional.of(name.toString());
+	}
+
+	private boolean isLinked(Path link, Path target) throws IOException {
+		return Files.isSymbolicLink(link) && Files.readSymbolicLink(link).equals(target);
+	}
+
+	/**
+	 * Remove the directory of a doc, without removing the directory of its SHA-1.
+	 *
+	 * @param entityName the name of the entity.
+	 * @param id         the id of the doc.
+	 */
+	public void unlink(String entityName, long id) {
+		final String link = filesystemServiceImpl.getDocPathPrefix(entityName, id);
+		imageHashIndex.removeDir(link);
+		filesystemServiceImpl.deldir(link);
+	}
+
+	/**
+	 * @param sha1 the SHA-1 of a content.
+	 * @return the number of pages of the content, or empty if its pages have not
+	 *         been rendered yet.
+	 */
+	public Optional<Integer> getNumberOfPages(String sha1) {
+		final File file = new File(getShaPath(sha1), PAGES_FILE);
+		if (!file.exists()) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(Integer.valueOf(FileUtils.readFileToString(file, StandardCharsets.UTF_8).trim()));
+		} catch (IOException | NumberFormatException e) {
+			log.warn("Can not read the number of pages of sha1={}", sha1, e);
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * Record that the pages of a content are rendered.
+	 *
+	 * @param sha1          the SHA-1 of the content.
+	 * @param numberOfPages the number of pages.
+	 */
+	public void setNumberOfPages(String sha1, int numberOfPages) {
+		final File tmp = new File(getShaPath(sha1), PAGES_FILE + ".tmp-" + UUID.randomUUID());
+		try {
+			FileUtils.writeStringToFile(tmp, Integer.toString(numberOfPages), StandardCharsets.UTF_8);
+			Files.move(tmp.toPath(), new File(getShaPath(sha1), PAGES_FILE).toPath(),
+					StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			log.warn("Can not save the number of pages of sha1={}", sha1, e);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * Delete the directory of a SHA-1 after the commit of the current transaction
+	 * and the grace delay, if no doc refers to it anymore.
+	 *
+	 * @param sha1 the SHA-1 of a content.
+	 */
+	public void releaseAfterCommit(final String sha1) {
+		afterCommit(() -> releaseLater(sha1));
+	}
+
+	/**
+	 * Remove the directory of a deleted doc and release the SHA-1 it refers to
+	 * after the commit of the current transaction: a rolled back deletion keeps
+	 * the pages of the doc.
+	 *
+	 * @param entityName the name of the entity.
+	 * @param id         the id of the doc.
+	 * @param sha1s      the SHA-1 of the contents of the doc, null if none.
+	 */
+	public void unlinkAfterCommit(final String entityName, final long id, final String... sha1s) {
+		afterCommit(() -> {
+			unlink(entityName, id);
+			Arrays.stream(sha1s).filter(Objects::nonNull).distinct().forEach(this::releaseLater);
+		});
+	}
+
+	private void afterCommit(final Runnable action) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					action.run();
+				}
+			});
+		} else {
+			action.run();
+		}
+	}
+
+	/**
+	 * Delete the directory of a SHA-1 after the grace delay, if no doc refers to
+	 * it anymore. The readers which have resolved the previous link of a doc still
+	 * find its files meanwhile.
+	 *
+	 * @param sha1 the SHA-1 of a content.
+	 */
+	public void releaseLater(String sha1) {
+		released.put(sha1, System.currentTimeMillis());
+	}
+
+	/**
+	 * Release the SHA-1 linked by no doc at startup: the contents released before
+	 * a restart, and not deleted yet, are deleted after the grace delay if no doc
+	 * refers to them.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void releaseUnlinked() {
+		final Set<String> linked = new HashSet<>();
+		final File[] docDirs = new File(filesystemServiceImpl.getDocRootPathPrefix(Doc.ENTITY_NAME)).listFiles();
+		if (docDirs != null) {
+			for (File docDir : docDirs) {
+				try {
+					getLinkedSha1(docDir.toPath()).ifPresent(linked::add);
+				} catch (IOException e) {
+					log.warn("Can not read the link of the directory {}", docDir, e);
+				}
+			}
+		}
+		int count = 0;
+		final File[] prefixDirs = new File(filesystemServiceImpl.getContentRootPathPrefix()).listFiles(File::isDirectory);
+		if (prefixDirs != null) {
+			for (File prefixDir : prefixDirs) {
+				final File[] shaDirs = prefixDir.listFiles(File::isDirectory);
+				if (shaDirs == null) {
+					continue;
+				}
+				for (File shaDir : shaDirs) {
+					if (!linked.contains(shaDir.getName())) {
+						releaseLater(shaDir.getName());
+						count++;
+					}
+				}
+			}
+		}
+		if (count > 0) {
+			log.info("Releasing {} content(s) linked by no doc", count);
+		}
+	}
+
+	/**
+	 * Delete the directories of the SHA-1 released before the grace delay.
+	 */
+	@Scheduled(fixedDelayString = "${pdftoimage.content.gc-delay-ms}")
+	public void collectReleased() {
+		final long releasedBefore = System.currentTimeMillis() - gcDelay;
+		for (Map.Entry<String, Long> entry : released.entrySet()) {
+			if (entry.getValue() <= releasedBefore && released.remove(entry.getKey(), entry.getValue())) {
+				release(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Delete the directory of a SHA-1 if no doc refers to it anymore: no doc has
+	 * this content, and no doc whose new content is being rendered is still
+	 * linked to it.
+	 *
+	 * @param sha1 the SHA-1 of a content.
+	 */
+	public void release(String sha1) {
+		synchronized (lock(sha1)) {
+			if (pins.containsKey(sha1)) {
+				return;
+			}
+			final Long references = newTransactionTemplate.execute(status -> docRepository.countByContentSha1(sha1));
+			if (references != null && references == 0 && !isLinkedByPendingRendering(sha1)) {
+				log.debug("Deleting the content sha1={}", sha1);
+				filesystemServiceImpl.deldir(getShaPath(sha1));
+			}
+		}
+	}
+
+	/**
+	 * @return true if a doc whose new content is being rendered is still linked
+	 *         to the SHA-1, its readers see the pages of this content until the
+	 *         link is flipped.
+	 */
+	private boolean isLinkedByPendingRendering(String sha1) {
+		final List<RenderJob> jobs = newTransactionTemplate.execute(status -> renderJobRepository
+				.findByStatusInOrderByIdAsc(Arrays.asList(RenderJobStatus.QUEUED, RenderJobStatus.RENDERING)));
+		if (jobs == null) {
+			return false;
+		}
+		for (RenderJob job : jobs) {
+			if (!sha1.equals(job.getContentSha1())
+					&& getLinkedSha1(Doc.ENTITY_NAME, job.getDocId()).filter(sha1::equals).isPresent()) {
+				log.debug("The content sha1={} is still linked by Doc : {}", sha1, job.getDocId());
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void pinUntilCompletion(final String sha1) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			return;
+		}
+		pins.merge(sha1, 1, Integer::sum);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				pins.computeIfPresent(sha1, (key, count) -> count > 1 ? count - 1 : null);
+			}
+		});
+	}
+
+	/**
+	 * A writer of a variant of a content.
+	 */
+	@FunctionalInterface
+	public interface ContentRewriter {
+
+		void rewrite(File content, File variant) throws IOException;
+	}
+
+	private Object lock(String sha1) {
+		return locks[Math.floorMod(sha1.hashCode(), LOCK_STRIPES)];
+	}
+}
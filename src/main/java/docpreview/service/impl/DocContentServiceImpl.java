@@ -0,0 +1,152 @@
+package docpreview.service.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.service.DocContentService;
+import docpreview.service.dto.DocContentDTO;
+
+/**
+ * Service Implementation for streaming the content of the {@link Doc}.
+ *
+ * The content is read from the content store, or with JDBC for the docs saved
+ * before the content store, so that it is never copied into a {@link Doc}
+ * entity, a {@link docpreview.service.dto.DocDTO} or the second level cache.
+ */
+@Service
+@Transactional(readOnly = true)
+public class DocContentServiceImpl implements DocContentService {
+
+	private final Logger log = LoggerFactory.getLogger(DocContentServiceImpl.class);
+
+	private static final String SELECT_CONTENT_INFO = "select content_content_type, content_sha_1, updated_at,"
+			+ " octet_length(content) from doc where id = ?";
+
+	private static final String SELECT_CONTENT_SHA1 = "select content_sha_1 from doc where id = ?";
+
+	private static final String SELECT_CONTENT = "select content from doc where id = ?";
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final ContentStoreServiceImpl contentStoreServiceImpl;
+
+	public DocContentServiceImpl(JdbcTemplate jdbcTemplate, ContentStoreServiceImpl contentStoreServiceImpl) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.contentStoreServiceImpl = contentStoreServiceImpl;
+	}
+
+	/**
+	 * Get the metadata of the content of the "id" doc.
+	 *
+	 * @param id the id of the doc.
+	 * @return the metadata, without content type if the content is neither in the
+	 *         content store nor in the database, or empty if the doc does not
+	 *         exist.
+	 */
+	@Override
+	public Optional<DocContentDTO> findContentInfo(Long id) {
+		log.debug("Request to get the content info of Doc : {}", id);
+		final List<DocContentDTO> infos = jdbcTemplate.query(SELECT_CONTENT_INFO, (rs, rowNum) -> {
+			final String sha1 = rs.getString(2);
+			final Timestamp updatedAt = rs.getTimestamp(3);
+			final Instant updated = updatedAt == null ? null : updatedAt.toInstant();
+			long length = rs.getLong(4);
+			if (rs.wasNull()) {
+				final File file = sha1 == null ? null : contentStoreServiceImpl.getContentFile(sha1);
+				if (file == null || !file.exists()) {
+					// no content to serve
+					return new DocContentDTO(null, sha1, updated, 0);
+				}
+				length = file.length();
+			}
+			return new DocContentDTO(rs.getString(1), sha1, updated, length);
+		}, id);
+		return infos.stream().findFirst();
+	}
+
+	/**
+	 * Get the content of a doc, or a variant of its content, as a seekable
+	 * resource.
+	 *
+	 * @param info    the metadata of the content of the doc.
+	 * @param variant the variant of the content.
+	 * @return the file of the content store, or empty if the content is only in
+	 *         the database or if the variant has not been written.
+	 */
+	@Override
+	public Optional<Resource> findContentResource(DocContentDTO info, ContentVariant variant) {
+		if (info.getSha1() == null) {
+			return Optional.empty();
+		}
+		final File file = contentStoreServiceImpl.getContentFile(info.getSha1(), variant);
+		return file.exists() ? Optional.of(new FileSystemResource(file)) : Optional.empty();
+	}
+
+	/**
+	 * Read the content of the "id" doc as a stream.
+	 *
+	 * @param id     the id of the doc.
+	 * @param reader the reader of the content.
+	 * @return the result of the reader, or empty if the doc has no content.
+	 * @throws IOException if the reader fails.
+	 */
+	@Override
+	public <T> Optional<T> readContent(Long id, ContentReader<T> reader) throws IOException {
+		log.debug("Request to read the content of Doc : {}", id);
+		final List<String> sha1 = jdbcTemplate.queryForList(SELECT_CONTENT_SHA1, String.class, id);
+		if (!sha1.isEmpty() && sha1.get(0) != null) {
+			final File file = contentStoreServiceImpl.getContentFile(sha1.get(0));
+			if (file.exists()) {
+				try (InputStream in = new FileInputStream(file)) {
+					return Optional.ofNullable(reader.read(in));
+				}
+			}
+		}
+		try {
+			return jdbcTemplate.query(SELECT_CONTENT, rs -> {
+				if (!rs.next()) {
+					return Optional.<T>empty();
+				}
+				try (InputStream in = rs.getBinaryStream(1)) {
+					return in == null ? Optional.<T>empty() : Optional.ofNullable(reader.read(in));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, id);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Copy the content of the "id" doc to an output stream.
+	 *
+	 * @param id  the id of the doc.
+	 * @param out the output stream.
+	 * @return false if the doc has no content.
+	 * @throws IOException if the content can not be written.
+	 */
+	@Override
+	public boolean writeContent(Long id, OutputStream out) throws IOException {
+		return readContent(id, in -> IOUtils.copyLarge(in, out)).isPresent();
+	}
+}
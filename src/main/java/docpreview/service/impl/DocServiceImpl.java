@@ -1,26 +1,29 @@
 package docpreview.service.impl;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.util.Optional;
 
 import javax.annotation.PostConstruct;
-import javax.validation.constraints.NotNull;
 
-import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.PDFDocumentCache;
 import docpreview.pdfbox.tools.PDFToImageUtil;
 import docpreview.pdfbox.tools.SHAUtil;
 import docpreview.repository.DocRepository;
+import docpreview.service.DocContentService;
 import docpreview.service.DocService;
+import docpreview.service.RenderJobService;
 import docpreview.service.dto.DocDTO;
 import docpreview.service.mapper.DocMapper;
 
@@ -37,24 +40,27 @@ public class DocServiceImpl implements DocService {
 
 	private final DocMapper docMapper;
 
-	private final PDFToImageUtil pdfToImageUtil;
+	private final RenderJobService renderJobService;
 
 	private FilesystemServiceImpl filesystemServiceImpl;
 
-	@NotNull(message = "pdftoimage.img.dpi can not be null")
-	@Value("${pdftoimage.img.dpi}")
-	private int imgDpi;
+	private final ContentStoreServiceImpl contentStoreServiceImpl;
 
-	@NotNull(message = "pdftoimage.img.quality can not be null")
-	@Value("${pdftoimage.img.quality}")
-	private float imgQuality;
+	private final DocContentService docContentService;
+
+	private final PDFDocumentCache documentCache;
 
 	public DocServiceImpl(DocRepository docRepository, DocMapper docMapper, 
-			FilesystemServiceImpl filesystemServiceImpl, PDFToImageUtil pdfToImageUtil) {
+			FilesystemServiceImpl filesystemServiceImpl, RenderJobService renderJobService,
+			ContentStoreServiceImpl contentStoreServiceImpl, DocContentService docContentService,
+			PDFDocumentCache documentCache) {
 		this.docRepository = docRepository;
 		this.docMapper = docMapper;
-		this.pdfToImageUtil = pdfToImageUtil;
+		this.renderJobService = renderJobService;
 		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.contentStoreServiceImpl = contentStoreServiceImpl;
+		this.docContentService = docContentService;
+		this.documentCache = documentCache;
 	}
 
 	@PostConstruct
@@ -71,64 +77,117 @@ public class DocServiceImpl implements DocService {
 	@Override
 	public DocDTO save(DocDTO docDTO) {
 		log.debug("Request to save Doc : {}", docDTO);
-		Doc doc = docMapper.toEntity(docDTO);
+		final Doc doc = toEntity(docDTO);
+
+		final String previousSha1 = findContentSha1(doc);
+		byte[] content = doc.getContent();
+		if (content == null && previousSha1 != null
+				&& !contentStoreServiceImpl.getContentFile(previousSha1).exists()) {
+			// a doc saved before the content store moves its content to the store
+			try {
+				content = docContentService.readContent(doc.getId(), IOUtils::toByteArray).orElse(null);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can not read the content of the doc", e);
+			}
+		}
+		// without content, an update keeps the stored content
+		final String sha1 = content != null ? SHAUtil.hash(content) : previousSha1;
+
+		// the content is stored once per SHA-1, outside of the doc table
+		try {
+			if (content != null) {
+				contentStoreServiceImpl.put(sha1, content);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not store the content of the doc", e);
+		}
+
+		return docMapper.toDto(persist(doc, previousSha1, sha1));
+	}
+
+	/**
+	 * Save a doc with a content read from a stream. The content is copied into
+	 * the content store without being held in memory, and is not returned.
+	 *
+	 * @param docDTO  the entity to save, without content.
+	 * @param content the stream of the content.
+	 * @return the persisted entity.
+	 */
+	@Override
+	public DocDTO save(DocDTO docDTO, InputStream content) {
+		log.debug("Request to save Doc : {} with a streamed content", docDTO);
+		final Doc doc = toEntity(docDTO);
+
+		final String previousSha1 = findContentSha1(doc);
+		final String sha1;
+		try {
+			sha1 = contentStoreServiceImpl.put(content);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not store the content of the doc", e);
+		}
 
-		Instant now = Instant.now();
+		return docMapper.toDto(persist(doc, previousSha1, sha1));
+	}
+
+	private Doc toEntity(DocDTO docDTO) {
+		final Doc doc = docMapper.toEntity(docDTO);
+		final Instant now = Instant.now();
 		if (doc.getId() == null) {
 			doc.setCreatedAt(now);
 		}
 		doc.setUpdatedAt(now);
+		return doc;
+	}
 
-		doc.setContentSha1(SHAUtil.hash(doc.getContent()));
+	private String findContentSha1(Doc doc) {
+		return doc.getId() == null ? null : docRepository.findContentSha1ById(doc.getId()).orElse(null);
+	}
 
-		doc.setNumberOfPages(null);
+	/**
+	 * Save a doc whose content is in the content store, and link its directory to
+	 * the content.
+	 */
+	private Doc persist(Doc doc, String previousSha1, String sha1) {
+		doc.setContentSha1(sha1);
+		doc.setContent(null);
+
+		// an unchanged content keeps its rendered pages: a metadata edit is a plain
+		// update
+		final String linkedSha1 = doc.getId() == null ? null
+				: contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, doc.getId()).orElse(null);
+		final boolean unchanged = sha1 != null && sha1.equals(previousSha1) && sha1.equals(linkedSha1);
+		Integer numberOfPages = unchanged ? docRepository.findNumberOfPagesById(doc.getId()).orElse(null) : null;
+		if (numberOfPages == null && sha1 != null) {
+			// a known content is already rendered
+			numberOfPages = contentStoreServiceImpl.getNumberOfPages(sha1).orElse(null);
+		}
+		doc.setNumberOfPages(numberOfPages);
+		final boolean render = PDFToImageUtil.MIME_PDF.equals(doc.getContentContentType()) && numberOfPages == null;
 
 		doc = docRepository.save(doc);
 
-		Long id = doc.getId();
-
-		PDDocument pddocument = null;
-		try {
-			final String docContentContentType = docDTO.getContentContentType();
-
-			if (PDFToImageUtil.MIME_PDF.equals(docContentContentType)) {
-				String password = "";
-				try {
-					pddocument = PDDocument.load(docDTO.getContent(), password);
-
-					doc.setNumberOfPages(pddocument.getNumberOfPages());
-
-					filesystemServiceImpl.deldir(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME,id));
-					filesystemServiceImpl.mkdir(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME,id));
-					String imgPrefix = filesystemServiceImpl.getImgPathPrefix(Doc.ENTITY_NAME,id);
-					try {
-						pdfToImageUtil.converPDFToImage(pddocument, imgPrefix, imgDpi, imgQuality);
-					} catch (IllegalArgumentException | IOException e) {
-						log.warn("Error of image conversion", e);
-					}
-
-				} catch (IOException e) {
-					log.warn("can not load PDF document", e);
-					doc.setNumberOfPages(null);
-					filesystemServiceImpl.deldir(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME,id));
-				}
-			}
-
-			// save numberOfPages
-			doc = docRepository.save(doc);
-			
-		} finally {
-			if (pddocument != null) {
-				try {
-					pddocument.close();
-				} catch (IOException e) {
-					log.warn("can not close document", e);
-					return null;
-				}
+		// a new content of a doc linked to a content is linked by the render job once
+		// its pages are rendered, the readers see the pages of the previous content
+		// meanwhile
+		final boolean publishLater = render && sha1 != null && linkedSha1 != null && !linkedSha1.equals(sha1);
+		if (sha1 != null && !publishLater) {
+			try {
+				contentStoreServiceImpl.link(Doc.ENTITY_NAME, doc.getId(), sha1)
+						.ifPresent(contentStoreServiceImpl::releaseAfterCommit);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can not link the content of the doc", e);
 			}
 		}
+		// the linked content is released when it is replaced
+		if (previousSha1 != null && !previousSha1.equals(sha1) && !previousSha1.equals(linkedSha1)) {
+			contentStoreServiceImpl.releaseAfterCommit(previousSha1);
+		}
 
-		return docMapper.toDto(doc);
+		// the pages are rendered in background once the doc is committed
+		if (render && !(unchanged && renderJobService.isPending(doc.getId(), sha1))) {
+			renderJobService.enqueue(doc.getId(), doc.getContentSha1());
+		}
+		return doc;
 	}
 
 	/**
@@ -154,7 +213,16 @@ public class DocServiceImpl implements DocService {
 	@Transactional(readOnly = true)
 	public Optional<DocDTO> findOne(Long id) {
 		log.debug("Request to get Doc : {}", id);
-		return docRepository.findById(id).map(docMapper::toDto);
+		return docRepository.findById(id).map(docMapper::toDto).map(this::withoutContent);
+	}
+
+	/**
+	 * Clear the content of a doc saved before the content store, the content is
+	 * read from the {@link DocContentService} instead.
+	 */
+	private DocDTO withoutContent(DocDTO docDTO) {
+		docDTO.setContent(null);
+		return docDTO;
 	}
 
 	/**
@@ -165,8 +233,13 @@ public class DocServiceImpl implements DocService {
 	@Override
 	public void delete(Long id) {
 		log.debug("Request to delete Doc : {}", id);
+		final String sha1 = docRepository.findContentSha1ById(id).orElse(null);
+		// the previous content while the new one is rendered
+		final String linkedSha1 = contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, id).orElse(null);
 		docRepository.deleteById(id);
-		filesystemServiceImpl.deldir(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME,id));
+		renderJobService.deleteByDocId(id);
+		documentCache.evict(id);
+		contentStoreServiceImpl.unlinkAfterCommit(Doc.ENTITY_NAME, id, sha1, linkedSha1);
 
 	}
 }
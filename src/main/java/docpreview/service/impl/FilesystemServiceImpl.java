@@ -13,6 +13,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageSize;
 
 /**
  * Service Implementation for managing {@link Doc}.
@@ -22,6 +24,11 @@ public class FilesystemServiceImpl {
 
 	private final Logger log = LoggerFactory.getLogger(FilesystemServiceImpl.class);
 
+	/**
+	 * prefix of the names of the image files in the directory of a doc
+	 */
+	public static final String IMG_PREFIX = "img.";
+
 	@NotNull(message = "filesystem.rootdir can not be null")
 	@Value("${filesystem.rootdir}")
 	private String fileSystemRootDir;
@@ -43,10 +50,11 @@ public class FilesystemServiceImpl {
 	}
 
 	public void deldir(File file) {
-		File[] contents = file.listFiles();
-		if (contents != null) {
-			for (File f : contents) {
-				if (!Files.isSymbolicLink(f.toPath())) {
+		// a symbolic link is removed without removing its target
+		if (!Files.isSymbolicLink(file.toPath())) {
+			File[] contents = file.listFiles();
+			if (contents != null) {
+				for (File f : contents) {
 					deldir(f);
 				}
 			}
@@ -58,12 +66,16 @@ public class FilesystemServiceImpl {
 		return fileSystemRootDir + File.separator + entityName;
 	}
 
+	public String getContentRootPathPrefix() {
+		return fileSystemRootDir + File.separator + "sha1";
+	}
+
 	public String getDocPathPrefix(String entityName, long id) {
 		return getDocRootPathPrefix(entityName) + File.separator + id;
 	}
 
 	public String getImgPathPrefix(String entityName, long id) {
-		return getDocPathPrefix(entityName, id) + File.separator + "img.";
+		return getDocPathPrefix(entityName, id) + File.separator + IMG_PREFIX;
 	}
 	
     /**
@@ -73,6 +85,18 @@ public class FilesystemServiceImpl {
      * @return the local path to the image file of the page
      */
 	public String getImgPath(String entityName, long id, long page) {
-		return getImgPathPrefix(entityName, id) + page + ".jpg";
+		return getImgPath(entityName, id, page, ImageSize.FULL, ImageFormat.JPEG);
+	}
+
+    /**
+     * Get the local path to the image file of the page for a size and a format
+     * @param id the "id" doc
+     * @param page the page number
+     * @param size the image size
+     * @param format the image format
+     * @return the local path to the image file of the page
+     */
+	public String getImgPath(String entityName, long id, long page, ImageSize size, ImageFormat format) {
+		return size.getFileName(getImgPathPrefix(entityName, id), page, format.getExtension());
 	}
 }
@@ -0,0 +1,315 @@
+package docpreview.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageHashIndex;
+import docpreview.pdfbox.tools.ImageSize;
+import docpreview.pdfbox.tools.SHAUtil;
+import docpreview.security.SecurityUtils;
+import docpreview.service.DocQueryService;
+import docpreview.service.PageImageService;
+import docpreview.service.PageRenderService;
+import docpreview.service.dto.DocSummaryDTO;
+import docpreview.service.dto.PageImageDTO;
+import docpreview.service.util.ByteBufferResource;
+import docpreview.service.util.MappedFileCache;
+import docpreview.service.util.PrefetchScheduler;
+import docpreview.service.util.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service Implementation for serving the page images of the {@link Doc}.
+ *
+ * The images are served from their files, without reading them in the heap,
+ * and the recently served images are memory-mapped. The ETags of the images
+ * are looked up in the in-memory {@link ImageHashIndex} first.
+ *
+ * Once a page image is served, the images of the next pages are rendered and
+ * mapped ahead of the viewer on a low priority thread, only while no page image
+ * request is in progress. The prefetch of a viewer, a user viewing a doc in a
+ * size and a format, is cancelled by its next request or once it has waited too
+ * long; the viewers of the same doc do not cancel the prefetches of each other.
+ */
+@Service
+public class PageImageServiceImpl implements PageImageService {
+
+	/**
+	 * the prefetches waiting for idle capacity, the others are dropped
+	 */
+	private static final int PREFETCH_MAX_PENDING = 64;
+
+	/**
+	 * the delay before a prefetch waiting for idle capacity checks it again
+	 */
+	private static final long PREFETCH_YIELD_MS = 20;
+
+	private final Logger log = LoggerFactory.getLogger(PageImageServiceImpl.class);
+
+	private final DocQueryService docQueryService;
+
+	private final PageRenderService pageRenderService;
+
+	private final FilesystemServiceImpl filesystemServiceImpl;
+
+	private final ImageHashIndex imageHashIndex;
+
+	/**
+	 * lookups in progress by "docId:page:size.format"
+	 */
+	private final SingleFlight<String, Optional<PageImageDTO>> lookups = new SingleFlight<>();
+
+	/**
+	 * mappings of the recently served images
+	 */
+	private final MappedFileCache mappedFiles;
+
+	/**
+	 * the number of pages prefetched after a served page
+	 */
+	private final int prefetchPages;
+
+	/**
+	 * the prefetches by "login:docId:size.format"
+	 */
+	private final PrefetchScheduler<String> prefetches;
+
+	/**
+	 * the page image requests in progress, the prefetches wait for none
+	 */
+	private final AtomicInteger interactive = new AtomicInteger();
+
+	/**
+	 * the prefetched images not requested yet, by "docId:page:size.format"
+	 */
+	private final Map<String, Boolean> prefetched;
+
+	/**
+	 * the images mapped by a prefetch
+	 */
+	private final AtomicInteger prefetchMapped = new AtomicInteger();
+
+	/**
+	 * the requests of an image mapped by a prefetch
+	 */
+	private final AtomicInteger prefetchHits = new AtomicInteger();
+
+	public PageImageServiceImpl(DocQueryService docQueryService, PageRenderService pageRenderService,
+			FilesystemServiceImpl filesystemServiceImpl, ImageHashIndex imageHashIndex, MeterRegistry meterRegistry,
+			@Value("${pdftoimage.img.mapped-cache-size}") long mappedCacheSize,
+			@Value("${pdftoimage.img.mapped-file-max-size}") long mappedFileMaxSize,
+			@Value("${pdftoimage.img.prefetch-pages}") int prefetchPages,
+			@Value("${pdftoimage.img.prefetch-timeout-ms}") long prefetchTimeoutMs) {
+		this.docQueryService = docQueryService;
+		this.pageRenderService = pageRenderService;
+		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.imageHashIndex = imageHashIndex;
+		this.mappedFiles = new MappedFileCache(mappedCacheSize, mappedFileMaxSize);
+		this.prefetchPages = Math.max(0, prefetchPages);
+		this.prefetches = new PrefetchScheduler<>(1, PREFETCH_MAX_PENDING, prefetchTimeoutMs, PREFETCH_YIELD_MS,
+				() -> interactive.get() == 0, "docpreview-prefetch-");
+		final int maxPrefetched = PREFETCH_MAX_PENDING * 4;
+		this.prefetched = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > maxPrefetched;
+			}
+		});
+
+		FunctionCounter.builder("docpreview.img.requests.coalesced", lookups, SingleFlight::getCoalesced)
+				.description("Page image requests served by a concurrent identical request").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.requests.executed", lookups, SingleFlight::getExecuted)
+				.description("Page image lookups").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.hash.hits", imageHashIndex, ImageHashIndex::getHits)
+				.description("Page image ETags found in the in-memory index").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.hash.misses", imageHashIndex, ImageHashIndex::getMisses)
+				.description("Page image ETags read from their SHA-1 file").register(meterRegistry);
+		Gauge.builder("docpreview.img.hash.size", imageHashIndex, ImageHashIndex::size)
+				.description("Number of page image ETags in the in-memory index").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.mapped.hits", mappedFiles, MappedFileCache::getHits)
+				.description("Page images served by a memory-mapped file").register(meterRegistry);
+		Gauge.builder("docpreview.img.mapped.size", mappedFiles, MappedFileCache::getSize).baseUnit("bytes")
+				.description("Total size of the memory-mapped page images").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.prefetch.executed", prefetches, PrefetchScheduler::getExecuted)
+				.description("Page images prefetched").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.prefetch.dropped", prefetches, PrefetchScheduler::getDropped)
+				.description("Page image prefetches dropped without idle capacity").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.prefetch.cancelled", prefetches, PrefetchScheduler::getCancelled)
+				.description("Page image prefetches cancelled by the next request of the viewer")
+				.register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.prefetch.mapped", prefetchMapped, AtomicInteger::get)
+				.description("Page images mapped by a prefetch").register(meterRegistry);
+		FunctionCounter.builder("docpreview.img.prefetch.hits", prefetchHits, AtomicInteger::get)
+				.description("Page image requests served by a prefetched image").register(meterRegistry);
+		Gauge.builder("docpreview.img.prefetch.hit.ratio", this, PageImageServiceImpl::getPrefetchHitRatio)
+				.description("Ratio of the prefetched page images requested afterwards").register(meterRegistry);
+	}
+
+	@PreDestroy
+	public void preDestroy() {
+		prefetches.shutdown();
+	}
+
+	/**
+	 * Get the image of a page of the "docId" doc.
+	 *
+	 * @param docId  the id of the doc.
+	 * @param page   the page number.
+	 * @param size   the image size.
+	 * @param format the image format.
+	 * @return the image, or empty if the doc or the page has no image.
+	 */
+	@Override
+	public Optional<PageImageDTO> findPageImage(Long docId, long page, ImageSize size, ImageFormat format) {
+		final String key = imageKey(docId, page, size, format);
+		if (prefetched.remove(key) != null) {
+			prefetchHits.incrementAndGet();
+		}
+		final Optional<PageImageDTO> image;
+		interactive.incrementAndGet();
+		try {
+			image = lookups.execute(key, () -> load(docId, page, size, format));
+		} finally {
+			interactive.decrementAndGet();
+		}
+		if (image.isPresent() && prefetchPages > 0) {
+			prefetch(docId, page, size, format);
+		}
+		return image;
+	}
+
+	/**
+	 * @return the ratio of the images mapped by a prefetch requested afterwards.
+	 */
+	double getPrefetchHitRatio() {
+		final int mapped = prefetchMapped.get();
+		return mapped == 0 ? 0 : (double) prefetchHits.get() / mapped;
+	}
+
+	/**
+	 * Get the resource serving the bytes of an image.
+	 *
+	 * @param image the image.
+	 * @return the resource.
+	 * @throws IOException if the file can not be mapped.
+	 */
+	@Override
+	public Resource getResource(PageImageDTO image) throws IOException {
+		final ByteBuffer buffer = mappedFiles.get(image.getFile());
+		if (buffer != null) {
+			return new ByteBufferResource(buffer, image.getFile().getName());
+		}
+		return new FileSystemResource(image.getFile());
+	}
+
+	/**
+	 * schedule the prefetch of the pages following a served page, replacing the
+	 * prefetch of the previous page of the viewer, the current user. The pages
+	 * past the last one have no image and are skipped by the rendering.
+	 */
+	private void prefetch(Long docId, long page, ImageSize size, ImageFormat format) {
+		final List<Runnable> tasks = new ArrayList<>(prefetchPages);
+		for (long next = page + 1; next <= page + prefetchPages; next++) {
+			final long nextPage = next;
+			tasks.add(() -> prefetch(docId, nextPage, size, format, imageKey(docId, nextPage, size, format)));
+		}
+		final String viewer = SecurityUtils.getCurrentUserLogin().orElse("");
+		prefetches.schedule(viewer + ":" + docId + ":" + size.getName() + "." + format.getExtension(), tasks);
+	}
+
+	/**
+	 * render the image of a page if needed, index its ETag and map its file. An
+	 * image is counted once by the prefetches, even if several viewers prefetch
+	 * it, and only if its file is mapped.
+	 */
+	private void prefetch(Long docId, long page, ImageSize size, ImageFormat format, String key) {
+		try {
+			final Optional<PageImageDTO> image = lookups.execute(key, () -> load(docId, page, size, format));
+			if (image.isPresent() && mappedFiles.get(image.get().getFile()) != null
+					&& prefetched.put(key, Boolean.TRUE) == null) {
+				prefetchMapped.incrementAndGet();
+			}
+		} catch (IOException | RuntimeException e) {
+			log.debug("Can not prefetch the image of Doc : {} page={}", docId, page, e);
+		}
+	}
+
+	private static String imageKey(Long docId, long page, ImageSize size, ImageFormat format) {
+		return docId + ":" + page + ":" + size.getName() + "." + format.getExtension();
+	}
+
+	private Optional<PageImageDTO> load(Long docId, long page, ImageSize size, ImageFormat format) {
+		final Optional<DocSummaryDTO> docDTO = docQueryService.findSummary(docId);
+		if (!docDTO.isPresent()) {
+			return Optional.empty();
+		}
+		log.debug("Request to get the image of Doc : {} page={} size={} format={}", docId, page, size, format);
+
+		final String path = filesystemServiceImpl.getImgPath(Doc.ENTITY_NAME, docId, page, size, format);
+		// an indexed image is rendered and has not been removed since, so its ETag
+		// is known without any file access
+		final String indexedSha = imageHashIndex.get(path);
+		if (indexedSha != null) {
+			return Optional.of(new PageImageDTO(docDTO.get().getUpdatedAt(), indexedSha, new File(path)));
+		}
+		final File shaFile = new File(path + SHAUtil.SHA_EXTENSION);
+		final Optional<File> file = pageRenderService.getPageImage(docId, page, size, format);
+		if (!file.isPresent()) {
+			return Optional.empty();
+		}
+		String sha = readSha(shaFile);
+		if (sha == null) {
+			try {
+				sha = SHAUtil.hash(file.get());
+			} catch (IOException e) {
+				log.warn("Can not read the img for doc id={} page={} path={}", docId, page, path);
+				return Optional.empty();
+			}
+			try {
+				// crée le fichier s'il n'existe pas
+				FileUtils.writeStringToFile(shaFile, sha, StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				log.warn("Can not save SHA1 of the img for doc id={} page={} path={}", docId, page, path);
+			}
+		}
+		imageHashIndex.put(path, sha);
+		return Optional.of(new PageImageDTO(docDTO.get().getUpdatedAt(), sha, file.get()));
+	}
+
+	private String readSha(File shaFile) {
+		if (!shaFile.exists()) {
+			return null;
+		}
+		try {
+			return FileUtils.readFileToString(shaFile, StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
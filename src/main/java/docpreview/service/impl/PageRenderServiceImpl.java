@@ -0,0 +1,242 @@
+package docpreview.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageHashIndex;
+import docpreview.pdfbox.tools.ImageSize;
+import docpreview.pdfbox.tools.PDFDocumentCache;
+import docpreview.pdfbox.tools.PDFToImageUtil;
+import docpreview.pdfbox.tools.PageFingerprint;
+import docpreview.pdfbox.tools.SHAUtil;
+import docpreview.repository.DocRepository;
+import docpreview.service.DocContentService;
+import docpreview.service.PageRenderService;
+import docpreview.service.util.SingleFlight;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service Implementation for getting the page images of the {@link Doc}.
+ *
+ * With {@code pdftoimage.render.lazy}, the render jobs only count the pages and
+ * a page is rendered on its first request. The render jobs only render the JPEG
+ * images, the other formats are rendered on their first request. The
+ * concurrent requests of the same page wait for a single rendering, and the
+ * pages of a doc are rendered from its cached PDDocument.
+ */
+@Service
+public class PageRenderServiceImpl implements PageRenderService {
+
+	private final Logger log = LoggerFactory.getLogger(PageRenderServiceImpl.class);
+
+	private final DocRepository docRepository;
+
+	private final DocContentService docContentService;
+
+	private final ContentStoreServiceImpl contentStoreServiceImpl;
+
+	private final FilesystemServiceImpl filesystemServiceImpl;
+
+	private final PDFToImageUtil pdfToImageUtil;
+
+	private final ImageHashIndex imageHashIndex;
+
+	private final PDFDocumentCache documentCache;
+
+	/**
+	 * renderings in progress by "docId:page:format", all the sizes of a page are
+	 * rendered together
+	 */
+	private final SingleFlight<String, Boolean> renderings = new SingleFlight<>();
+
+	@NotNull(message = "pdftoimage.render.lazy can not be null")
+	@Value("${pdftoimage.render.lazy}")
+	private boolean lazyRendering;
+
+	@NotNull(message = "pdftoimage.img.dpi can not be null")
+	@Value("${pdftoimage.img.dpi}")
+	private int imgDpi;
+
+	@NotNull(message = "pdftoimage.img.preview-dpi can not be null")
+	@Value("${pdftoimage.img.preview-dpi}")
+	private int previewDpi;
+
+	@NotNull(message = "pdftoimage.img.thumb-dpi can not be null")
+	@Value("${pdftoimage.img.thumb-dpi}")
+	private int thumbDpi;
+
+	@NotNull(message = "pdftoimage.img.quality can not be null")
+	@Value("${pdftoimage.img.quality}")
+	private float imgQuality;
+
+	public PageRenderServiceImpl(DocRepository docRepository, DocContentService docContentService,
+			ContentStoreServiceImpl contentStoreServiceImpl,
+			FilesystemServiceImpl filesystemServiceImpl, PDFToImageUtil pdfToImageUtil, ImageHashIndex imageHashIndex,
+			PDFDocumentCache documentCache, MeterRegistry meterRegistry) {
+		this.docRepository = docRepository;
+		this.docContentService = docContentService;
+		this.contentStoreServiceImpl = contentStoreServiceImpl;
+		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.pdfToImageUtil = pdfToImageUtil;
+		this.imageHashIndex = imageHashIndex;
+		this.documentCache = documentCache;
+
+		FunctionCounter.builder("docpreview.img.renderings.coalesced", renderings, SingleFlight::getCoalesced)
+				.description("On demand renderings served by a concurrent rendering of the same page")
+				.register(meterRegistry);
+		FunctionCounter.builder("docpreview.render.documents.hits", documentCache, PDFDocumentCache::getHits)
+				.description("On demand renderings from a cached PDF document").register(meterRegistry);
+		FunctionCounter.builder("docpreview.render.documents.misses", documentCache, PDFDocumentCache::getMisses)
+				.description("PDF documents loaded for the on demand renderings").register(meterRegistry);
+		Gauge.builder("docpreview.render.documents.size", documentCache, PDFDocumentCache::getSize).baseUnit("bytes")
+				.description("Estimated memory of the cached PDF documents").register(meterRegistry);
+	}
+
+	/**
+	 * Get the image file of a page of the "docId" doc.
+	 *
+	 * @param docId the id of the doc.
+	 * @param page  the page number.
+	 * @param size  the image size.
+	 * @param format the image format.
+	 * @return the image file, or empty if the page has no image.
+	 */
+	@Override
+	public Optional<File> getPageImage(Long docId, long page, ImageSize size, ImageFormat format) {
+		final File file = new File(filesystemServiceImpl.getImgPath(Doc.ENTITY_NAME, docId, page, size, format));
+		if (file.exists()) {
+			return Optional.of(file);
+		}
+		if ((!lazyRendering && format == ImageFormat.JPEG) || page < 1 || page > Integer.MAX_VALUE) {
+			return Optional.empty();
+		}
+
+		// the page may have been rendered since the first check
+		final boolean rendered = renderings.execute(docId + ":" + page + ":" + format.getExtension(),
+				() -> file.exists() || render(docId, (int) page, format));
+		return rendered && file.exists() ? Optional.of(file) : Optional.empty();
+	}
+
+	/**
+	 * Render a page into the image files of all the sizes.
+	 */
+	private boolean render(Long docId, int page, ImageFormat format) {
+		final Doc doc = docRepository.findById(docId).orElse(null);
+		if (doc == null || !PDFToImageUtil.MIME_PDF.equals(doc.getContentContentType())) {
+			return false;
+		}
+		if (doc.getNumberOfPages() != null && page > doc.getNumberOfPages()) {
+			return false;
+		}
+		log.debug("Rendering on demand Doc : {} page={} format={}", docId, page, format);
+
+		final File docDir = new File(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME, docId));
+		filesystemServiceImpl.mkdir(docDir.getPath());
+		// the directory linked by the doc is resolved once: the page is rendered from
+		// the content of this directory into this directory, even if a new content
+		// is published during the rendering
+		final File dir;
+		try {
+			dir = docDir.toPath().toRealPath().toFile();
+		} catch (IOException e) {
+			log.warn("can not resolve the directory of Doc : {}", docId, e);
+			return false;
+		}
+		final String imgPrefix = dir.getPath() + File.separator + FilesystemServiceImpl.IMG_PREFIX;
+		// render aside, then publish the complete files, the full size last since
+		// its presence tells that the page is rendered
+		final Map<ImageSize, Integer> dpis = ImageSize.pyramid(thumbDpi, previewDpi, imgDpi);
+		final String tmpPrefix = imgPrefix + "tmp-" + UUID.randomUUID() + ".";
+		final List<ImageSize> sizes = ImageSize.derivedSizes(dpis);
+		sizes.add(ImageSize.FULL);
+		final File file = new File(dir, ContentStoreServiceImpl.CONTENT_FILE);
+		try {
+			if (file.exists()) {
+				// PDFBox reads the stored file instead of a copy of the content in the heap,
+				// the directory of a stored content is named by its SHA-1
+				documentCache.withDocument(docId, dir.getName(), file, document -> pdfToImageUtil
+						.converPDFToImage(document, tmpPrefix, dpis, format, imgQuality, page, page));
+			} else {
+				documentCache.withDocument(docId, doc.getContentSha1(), () -> readContent(docId),
+						document -> pdfToImageUtil.converPDFToImage(document, tmpPrefix, dpis, format, imgQuality,
+								page, page));
+			}
+			// the fingerprint first, so that the images of the page are reused by the
+			// rendering of a next content
+			final File tmpFingerprint = new File(PageFingerprint.getFileName(tmpPrefix, page));
+			if (tmpFingerprint.exists()) {
+				move(tmpFingerprint.getPath(), PageFingerprint.getFileName(imgPrefix, page));
+			}
+			for (ImageSize size : sizes) {
+				final String tmp = size.getFileName(tmpPrefix, page, format.getExtension());
+				if (!new File(tmp).exists()) {
+					return false;
+				}
+				final String path = size.getFileName(imgPrefix, page, format.getExtension());
+				// the SHA-1 file first, so that a published image always has its own
+				move(tmp + SHAUtil.SHA_EXTENSION, path + SHAUtil.SHA_EXTENSION);
+				move(tmp, path);
+				// indexed by the path read by the requests
+				imageHashIndex.rename(tmp, filesystemServiceImpl.getImgPath(Doc.ENTITY_NAME, docId, page, size, format));
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			log.warn("can not render Doc : {} page={}", docId, page, e);
+			return false;
+		} finally {
+			new File(PageFingerprint.getFileName(tmpPrefix, page)).delete();
+			for (ImageSize size : sizes) {
+				final String tmp = size.getFileName(tmpPrefix, page, format.getExtension());
+				new File(tmp).delete();
+				new File(tmp + SHAUtil.SHA_EXTENSION).delete();
+				imageHashIndex.remove(tmp);
+			}
+		}
+
+		// a doc rendered before the content store: the content may have been changed
+		// during the rendering
+		if (!file.exists()
+				&& !Objects.equals(doc.getContentSha1(), docRepository.findContentSha1ById(docId).orElse(null))) {
+			new File(PageFingerprint.getFileName(imgPrefix, page)).delete();
+			for (ImageSize size : sizes) {
+				final String path = size.getFileName(imgPrefix, page, format.getExtension());
+				new File(path).delete();
+				new File(path + SHAUtil.SHA_EXTENSION).delete();
+				imageHashIndex.remove(filesystemServiceImpl.getImgPath(Doc.ENTITY_NAME, docId, page, size, format));
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private byte[] readContent(Long docId) throws IOException {
+		final Optional<byte[]> content = docContentService.readContent(docId, IOUtils::toByteArray);
+		if (!content.isPresent()) {
+			throw new IOException("No content for Doc : " + docId);
+		}
+		return content.get();
+	}
+
+	private static void move(String from, String to) throws IOException {
+		Files.move(new File(from).toPath(), new File(to).toPath(), StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+}
@@ -0,0 +1,590 @@
+package docpreview.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.validation.constraints.NotNull;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import docpreview.config.RenderConfiguration;
+import docpreview.domain.Doc;
+import docpreview.domain.RenderJob;
+import docpreview.domain.enumeration.RenderJobStatus;
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageHashIndex;
+import docpreview.pdfbox.tools.ImageSize;
+import docpreview.pdfbox.tools.PDFMemoryBudget;
+import docpreview.pdfbox.tools.PDFOptimizeUtil;
+import docpreview.pdfbox.tools.PDFToImageUtil;
+import docpreview.repository.DocRepository;
+import docpreview.repository.RenderJobRepository;
+import docpreview.service.DocContentService;
+import docpreview.service.RenderJobService;
+import docpreview.service.RenderQueueFullException;
+import docpreview.service.dto.RenderJobDTO;
+import docpreview.service.mapper.RenderJobMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Service Implementation for managing {@link RenderJob}.
+ *
+ * The jobs are persisted, so that the renderings interrupted by a shutdown are
+ * resumed at the next startup. The rendering itself runs on the bounded
+ * {@link RenderConfiguration#RENDER_TASK_EXECUTOR} pool, outside of any
+ * transaction.
+ */
+@Service
+@Transactional
+public class RenderJobServiceImpl implements RenderJobService {
+
+	private final Logger log = LoggerFactory.getLogger(RenderJobServiceImpl.class);
+
+	private static final List<RenderJobStatus> PENDING_STATUSES = Arrays.asList(RenderJobStatus.QUEUED,
+			RenderJobStatus.RENDERING);
+
+	private static final int MESSAGE_MAX_LENGTH = 2000;
+
+	private final RenderJobRepository renderJobRepository;
+
+	private final RenderJobMapper renderJobMapper;
+
+	private final DocRepository docRepository;
+
+	private final FilesystemServiceImpl filesystemServiceImpl;
+
+	private final ContentStoreServiceImpl contentStoreServiceImpl;
+
+	private final DocContentService docContentService;
+
+	private final PDFToImageUtil pdfToImageUtil;
+
+	private final PDFOptimizeUtil pdfOptimizeUtil;
+
+	private final ImageHashIndex imageHashIndex;
+
+	private final ThreadPoolTaskExecutor renderTaskExecutor;
+
+	private final TransactionTemplate transactionTemplate;
+
+	/**
+	 * ids of the jobs handed to the workers and not finished yet
+	 */
+	private final Set<Long> submittedJobs = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * the committed jobs waiting for a worker, seeded by the resumed jobs, so
+	 * that neither the admissions nor the metrics count them in the database
+	 */
+	private final AtomicLong queuedJobs = new AtomicLong();
+
+	/**
+	 * guards the admissions
+	 */
+	private final Object admissionLock = new Object();
+
+	/**
+	 * the admitted renderings whose job is not committed yet, counted with the
+	 * queued jobs, guarded by the admission lock
+	 */
+	private long admitted;
+
+	/**
+	 * true when the request of the current thread holds an admission, consumed by
+	 * the job it enqueues
+	 */
+	private final ThreadLocal<Boolean> admission = new ThreadLocal<>();
+
+	@NotNull(message = "pdftoimage.render.lazy can not be null")
+	@Value("${pdftoimage.render.lazy}")
+	private boolean lazyRendering;
+
+	@NotNull(message = "pdftoimage.render.max-attempts can not be null")
+	@Value("${pdftoimage.render.max-attempts}")
+	private int maxAttempts;
+
+	@NotNull(message = "pdftoimage.render.max-queued can not be null")
+	@Value("${pdftoimage.render.max-queued}")
+	private long maxQueued;
+
+	@NotNull(message = "pdftoimage.render.retry-after can not be null")
+	@Value("${pdftoimage.render.retry-after}")
+	private int retryAfter;
+
+	@NotNull(message = "pdftoimage.content.variants can not be null")
+	@Value("${pdftoimage.content.variants}")
+	private boolean contentVariants;
+
+	@NotNull(message = "pdftoimage.img.dpi can not be null")
+	@Value("${pdftoimage.img.dpi}")
+	private int imgDpi;
+
+	@NotNull(message = "pdftoimage.img.preview-dpi can not be null")
+	@Value("${pdftoimage.img.preview-dpi}")
+	private int previewDpi;
+
+	@NotNull(message = "pdftoimage.img.thumb-dpi can not be null")
+	@Value("${pdftoimage.img.thumb-dpi}")
+	private int thumbDpi;
+
+	@NotNull(message = "pdftoimage.img.quality can not be null")
+	@Value("${pdftoimage.img.quality}")
+	private float imgQuality;
+
+	public RenderJobServiceImpl(RenderJobRepository renderJobRepository, RenderJobMapper renderJobMapper,
+			DocRepository docRepository, FilesystemServiceImpl filesystemServiceImpl,
+			ContentStoreServiceImpl contentStoreServiceImpl, DocContentService docContentService,
+			PDFToImageUtil pdfToImageUtil, PDFOptimizeUtil pdfOptimizeUtil, ImageHashIndex imageHashIndex,
+			PDFMemoryBudget memoryBudget,
+			@Qualifier(RenderConfiguration.RENDER_TASK_EXECUTOR) ThreadPoolTaskExecutor renderTaskExecutor,
+			PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+		this.renderJobRepository = renderJobRepository;
+		this.renderJobMapper = renderJobMapper;
+		this.docRepository = docRepository;
+		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.contentStoreServiceImpl = contentStoreServiceImpl;
+		this.docContentService = docContentService;
+		this.pdfToImageUtil = pdfToImageUtil;
+		this.pdfOptimizeUtil = pdfOptimizeUtil;
+		this.imageHashIndex = imageHashIndex;
+		this.renderTaskExecutor = renderTaskExecutor;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+		Gauge.builder("docpreview.render.queue.depth", queuedJobs, AtomicLong::get).description("Render jobs waiting for a worker").register(meterRegistry);
+		Gauge.builder("docpreview.render.memory.in-flight", memoryBudget, PDFMemoryBudget::getInFlight)
+				.baseUnit("bytes").description("Memory budget of the documents loaded for the renderings")
+				.register(meterRegistry);
+		Gauge.builder("docpreview.render.memory.waiting", memoryBudget, PDFMemoryBudget::getWaiting)
+				.description("Document loads waiting for their memory budget").register(meterRegistry);
+	}
+
+	/**
+	 * Enqueue the rendering of the page images of a doc.
+	 *
+	 * @param docId       the id of the doc.
+	 * @param contentSha1 the SHA-1 of the content to render.
+	 * @return the queued job.
+	 */
+	@Override
+	public RenderJobDTO enqueue(Long docId, String contentSha1) {
+		log.debug("Request to enqueue the rendering of Doc : {}", docId);
+		// a queued job of a previous content is useless
+		final long superseded = renderJobRepository.deleteByDocIdAndStatus(docId, RenderJobStatus.QUEUED);
+		RenderJob job = new RenderJob().docId(docId).contentSha1(contentSha1).status(RenderJobStatus.QUEUED)
+				.attempts(0).createdAt(Instant.now());
+		job = renderJobRepository.save(job);
+		addQueuedAfterCommit(1 - superseded);
+		if (admission.get() != null) {
+			admission.remove();
+			// the job is counted with the queued jobs once committed
+			releaseAfterCompletion();
+		}
+		submitAfterCommit(job.getId());
+		return renderJobMapper.toDto(job);
+	}
+
+	/**
+	 * Check that the rendering of a new content can be enqueued.
+	 *
+	 * The concurrency of the renderings is bounded by the pool of the workers;
+	 * the jobs waiting for a worker are bounded by {@code max-queued}, counted
+	 * from their commit to their claim by a worker so that the jobs rejected by
+	 * the pool and swept later are counted too. The admitted renderings whose job is not committed yet are
+	 * counted with them, under a lock, so that the concurrent uploads at the
+	 * limit are not all admitted.
+	 *
+	 * @throws RenderQueueFullException if the queue is full.
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS)
+	public void checkAdmission() {
+		if (admission.get() != null) {
+			return;
+		}
+		synchronized (admissionLock) {
+			final long queued = queuedJobs.get() + admitted;
+			if (queued >= maxQueued) {
+				log.warn("The render queue is full ({} jobs), the rendering is not admitted", queued);
+				throw new RenderQueueFullException(retryAfter);
+			}
+			admitted++;
+		}
+		admission.set(Boolean.TRUE);
+	}
+
+	/**
+	 * Release the admission of the current thread if no job has been enqueued
+	 * with it.
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS)
+	public void releaseAdmission() {
+		if (admission.get() != null) {
+			admission.remove();
+			releaseAdmitted();
+		}
+	}
+
+	private void releaseAfterCompletion() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					releaseAdmitted();
+				}
+			});
+		} else {
+			releaseAdmitted();
+		}
+	}
+
+	private void releaseAdmitted() {
+		synchronized (admissionLock) {
+			admitted--;
+		}
+	}
+
+	/**
+	 * Check whether the rendering of a content of a doc is queued or running.
+	 *
+	 * @param docId       the id of the doc.
+	 * @param contentSha1 the SHA-1 of the content.
+	 * @return true if a job of this content is pending.
+	 */
+	@Override
+	@Transactional(readOnly = true)
+	public boolean isPending(Long docId, String contentSha1) {
+		return renderJobRepository.existsByDocIdAndContentSha1AndStatusIn(docId, contentSha1, PENDING_STATUSES);
+	}
+
+	/**
+	 * Get the last render job of the "docId" doc.
+	 *
+	 * @param docId the id of the doc.
+	 * @return the job.
+	 */
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<RenderJobDTO> findLastByDocId(Long docId) {
+		log.debug("Request to get the last RenderJob of Doc : {}", docId);
+		return renderJobRepository.findFirstByDocIdOrderByIdDesc(docId).map(renderJobMapper::toDto);
+	}
+
+	/**
+	 * Delete the render jobs of the "docId" doc.
+	 *
+	 * @param docId the id of the doc.
+	 */
+	@Override
+	public void deleteByDocId(Long docId) {
+		log.debug("Request to delete the RenderJobs of Doc : {}", docId);
+		final long queued = renderJobRepository.deleteByDocIdAndStatus(docId, RenderJobStatus.QUEUED);
+		renderJobRepository.deleteByDocId(docId);
+		addQueuedAfterCommit(-queued);
+	}
+
+	/**
+	 * Count the jobs queued or removed from the queue by the current transaction
+	 * once it is committed.
+	 */
+	private void addQueuedAfterCommit(final long delta) {
+		if (delta == 0) {
+			return;
+		}
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					queuedJobs.addAndGet(delta);
+				}
+			});
+		} else {
+			queuedJobs.addAndGet(delta);
+		}
+	}
+
+	/**
+	 * Resume the jobs queued or interrupted during the rendering by the last
+	 * shutdown. The jobs already started {@code max-attempts} times are failed
+	 * instead, since their rendering may be what stops the application.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void resumePendingJobs() {
+		List<RenderJob> jobs = renderJobRepository.findByStatusInOrderByIdAsc(PENDING_STATUSES);
+		if (!jobs.isEmpty()) {
+			log.info("Resuming {} render job(s)", jobs.size());
+		}
+		long resumed = 0;
+		for (RenderJob job : jobs) {
+			if (job.getAttempts() != null && job.getAttempts() >= maxAttempts) {
+				log.warn("The render job id={} of Doc : {} has been started {} times, it is failed", job.getId(),
+						job.getDocId(), job.getAttempts());
+				job.setStatus(RenderJobStatus.FAILED);
+				job.setMessage("The rendering has been interrupted " + job.getAttempts() + " times");
+				job.setFinishedAt(Instant.now());
+				publishFailed(job.getDocId(), job.getContentSha1());
+				continue;
+			}
+			job.setStatus(RenderJobStatus.QUEUED);
+			submitAfterCommit(job.getId());
+			resumed++;
+		}
+		addQueuedAfterCommit(resumed);
+	}
+
+	/**
+	 * Hand the queued jobs rejected by a full pool to the workers.
+	 */
+	@Scheduled(fixedDelayString = "${pdftoimage.render.sweep-delay-ms}")
+	@Transactional(readOnly = true)
+	public void submitQueuedJobs() {
+		for (RenderJob job : renderJobRepository.findByStatusInOrderByIdAsc(Arrays.asList(RenderJobStatus.QUEUED))) {
+			if (!submittedJobs.contains(job.getId())) {
+				submit(job.getId());
+			}
+		}
+	}
+
+	private void submitAfterCommit(final Long jobId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					submit(jobId);
+				}
+			});
+		} else {
+			submit(jobId);
+		}
+	}
+
+	private void submit(final Long jobId) {
+		if (!submittedJobs.add(jobId)) {
+			return;
+		}
+		try {
+			renderTaskExecutor.execute(() -> run(jobId));
+		} catch (TaskRejectedException e) {
+			submittedJobs.remove(jobId);
+			log.warn("The render queue is full, the job id={} stays queued", jobId);
+		}
+	}
+
+	/**
+	 * Render the page images of the doc of a job. Called by the workers.
+	 *
+	 * @param jobId the id of the job.
+	 */
+	private void run(final Long jobId) {
+		RenderJob job = null;
+		try {
+			Integer claimed = transactionTemplate.execute(status -> renderJobRepository.claim(jobId, Instant.now()));
+			if (claimed == null || claimed == 0) {
+				// deleted, superseded or already rendered by another worker
+				return;
+			}
+			queuedJobs.decrementAndGet();
+			job = transactionTemplate.execute(status -> renderJobRepository.findById(jobId).orElse(null));
+			if (job != null) {
+				render(job);
+			}
+		} catch (RuntimeException e) {
+			log.error("Unexpected error of the render job id={}", jobId, e);
+			if (job != null) {
+				publishFailed(job.getDocId(), job.getContentSha1());
+			}
+			finish(jobId, RenderJobStatus.FAILED, null, e.toString());
+		} finally {
+			submittedJobs.remove(jobId);
+		}
+	}
+
+	private void render(final RenderJob job) {
+		final Long docId = job.getDocId();
+		log.debug("Rendering Doc : {} for RenderJob : {}", docId, job.getId());
+
+		final Doc doc = transactionTemplate.execute(status -> docRepository.findById(docId).orElse(null));
+		if (doc == null) {
+			finish(job.getId(), RenderJobStatus.FAILED, null, "The doc has been deleted");
+			return;
+		}
+		if (!Objects.equals(doc.getContentSha1(), job.getContentSha1())) {
+			finish(job.getId(), RenderJobStatus.FAILED, null, "The content of the doc has been changed");
+			return;
+		}
+		if (!PDFToImageUtil.MIME_PDF.equals(doc.getContentContentType())) {
+			finish(job.getId(), RenderJobStatus.DONE, null, null);
+			return;
+		}
+
+		final String sha1 = job.getContentSha1();
+		final int numberOfPages;
+		try {
+			// the pages are shared by the docs having the same content
+			final Optional<Integer> rendered = contentStoreServiceImpl.getNumberOfPages(sha1);
+			numberOfPages = rendered.isPresent() ? rendered.get() : renderPages(doc);
+		} catch (IllegalArgumentException | IOException e) {
+			log.warn("can not render the pages of Doc : {}", docId, e);
+			publishFailed(docId, sha1);
+			finish(job.getId(), RenderJobStatus.FAILED, null, e.toString());
+			return;
+		}
+		contentStoreServiceImpl.setNumberOfPages(sha1, numberOfPages);
+		if (contentVariants) {
+			putContentVariants(docId, sha1);
+		}
+
+		Integer updated = transactionTemplate
+				.execute(status -> docRepository.updateNumberOfPages(docId, job.getContentSha1(), numberOfPages));
+		if (updated == null || updated == 0) {
+			// the doc has been deleted or updated during the rendering
+			if (!docRepository.existsById(docId)) {
+				contentStoreServiceImpl.unlink(Doc.ENTITY_NAME, docId);
+			}
+			contentStoreServiceImpl.release(sha1);
+			finish(job.getId(), RenderJobStatus.FAILED, numberOfPages, "The doc has been changed during the rendering");
+			return;
+		}
+		publish(docId, sha1);
+		finish(job.getId(), RenderJobStatus.DONE, numberOfPages, null);
+	}
+
+	/**
+	 * Flip the link of a doc to the directory of a content whose rendering has
+	 * failed, if the doc still has this content: the pages of the previous
+	 * content do not match the doc anymore, and the previous content is released.
+	 */
+	private void publishFailed(final Long docId, final String sha1) {
+		try {
+			if (Objects.equals(sha1, transactionTemplate
+					.execute(status -> docRepository.findContentSha1ById(docId).orElse(null)))) {
+				publish(docId, sha1);
+			}
+		} catch (RuntimeException e) {
+			log.warn("can not link the content of Doc : {}", docId, e);
+		}
+	}
+
+	/**
+	 * Flip the link of a doc to the directory of its rendered content, and
+	 * release the content linked before.
+	 */
+	private void publish(final Long docId, final String sha1) {
+		try {
+			contentStoreServiceImpl.link(Doc.ENTITY_NAME, docId, sha1)
+					.ifPresent(contentStoreServiceImpl::releaseAfterCommit);
+		} catch (IOException e) {
+			log.warn("can not link the content of Doc : {}", docId, e);
+			return;
+		}
+		// the images are written by the directory of the content and read by the
+		// directory of the doc
+		imageHashIndex.renameDir(contentStoreServiceImpl.getShaPath(sha1),
+				filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME, docId));
+	}
+
+	/**
+	 * Render the pages of the doc into a staging directory, then move them into
+	 * the directory of its content, or only count them when the pages are
+	 * rendered lazily. The images of the pages unchanged since the content
+	 * linked by the doc are linked instead of rendered.
+	 *
+	 * @param doc the doc.
+	 * @return the number of pages.
+	 */
+	private int renderPages(final Doc doc) throws IOException {
+		final Long id = doc.getId();
+		final String sha1 = doc.getContentSha1();
+		final File file = contentStoreServiceImpl.getContentFile(sha1);
+		final byte[] content;
+		if (file.exists()) {
+			// PDFBox reads the stored file instead of a copy of the content in the heap
+			content = null;
+		} else {
+			// a doc saved before the content store
+			content = docContentService.readContent(id, IOUtils::toByteArray)
+					.orElseThrow(() -> new IOException("The doc has no content"));
+		}
+		if (lazyRendering) {
+			// the pages are rendered on their first request
+			return content == null ? pdfToImageUtil.getNumberOfPages(file) : pdfToImageUtil.getNumberOfPages(content);
+		}
+
+		final Map<ImageSize, Integer> dpis = ImageSize.pyramid(thumbDpi, previewDpi, imgDpi);
+		// the doc stays linked to its previous content until its new pages are
+		// published: the images of its unchanged pages are reused
+		final String previousPrefix = contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, id)
+				.filter(linkedSha1 -> !linkedSha1.equals(sha1)).map(contentStoreServiceImpl::getImgPathPrefix)
+				.orElse(null);
+		final File staging = contentStoreServiceImpl.newStagingDir(sha1);
+		try {
+			final String imgPrefix = staging.getPath() + File.separator + FilesystemServiceImpl.IMG_PREFIX;
+			final int numberOfPages = content == null
+					? pdfToImageUtil.converPDFToImageParallel(file, imgPrefix, dpis, ImageFormat.JPEG, imgQuality,
+							previousPrefix)
+					: pdfToImageUtil.converPDFToImageParallel(content, imgPrefix, dpis, ImageFormat.JPEG, imgQuality,
+							previousPrefix);
+			contentStoreServiceImpl.publishStaging(sha1, staging);
+			return numberOfPages;
+		} finally {
+			imageHashIndex.removeDir(staging.getPath());
+			filesystemServiceImpl.deldir(staging);
+		}
+	}
+
+	/**
+	 * Store the variants of the content displayed progressively by the viewers.
+	 * The original content is served when a variant is missing, so a failure
+	 * does not fail the job.
+	 */
+	private void putContentVariants(final Long docId, final String sha1) {
+		try {
+			contentStoreServiceImpl.putVariant(sha1, ContentVariant.FIRST_PAGE, pdfOptimizeUtil::writeFirstPageFirst);
+			if (pdfOptimizeUtil.isLinearizeAvailable()) {
+				contentStoreServiceImpl.putVariant(sha1, ContentVariant.LINEARIZED, pdfOptimizeUtil::linearize);
+			}
+		} catch (IOException e) {
+			log.warn("can not write the content variants of Doc : {}", docId, e);
+		}
+	}
+
+	private void finish(final Long jobId, final RenderJobStatus status, final Integer numberOfPages,
+			final String message) {
+		transactionTemplate.execute(s -> renderJobRepository.findById(jobId).map(job -> {
+			job.setStatus(status);
+			job.setNumberOfPages(numberOfPages);
+			job.setMessage(message == null || message.length() <= MESSAGE_MAX_LENGTH ? message
+					: message.substring(0, MESSAGE_MAX_LENGTH));
+			job.setFinishedAt(Instant.now());
+			return renderJobRepository.save(job);
+		}).orElse(null));
+		log.debug("RenderJob : {} {}", jobId, status);
+	}
+}
@@ -0,0 +1,25 @@
+package docpreview.service.mapper;
+
+
+import docpreview.domain.*;
+import docpreview.service.dto.RenderJobDTO;
+
+import org.mapstruct.*;
+
+/**
+ * Mapper for the entity {@link RenderJob} and its DTO {@link RenderJobDTO}.
+ */
+@Mapper(componentModel = "spring", uses = {})
+public interface RenderJobMapper extends EntityMapper<RenderJobDTO, RenderJob> {
+
+
+
+    default RenderJob fromId(Long id) {
+        if (id == null) {
+            return null;
+        }
+        RenderJob renderJob = new RenderJob();
+        renderJob.setId(id);
+        return renderJob;
+    }
+}
@@ -0,0 +1,80 @@
+package docpreview.service.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.springframework.core.io.AbstractResource;
+
+/**
+ * A read-only {@link org.springframework.core.io.Resource} over a byte buffer,
+ * typically a memory-mapped file. Each input stream reads its own view of the
+ * buffer.
+ */
+public class ByteBufferResource extends AbstractResource {
+
+	private final ByteBuffer buffer;
+
+	private final String filename;
+
+	/**
+	 * @param buffer   the buffer, read from its position to its limit.
+	 * @param filename the name of the file of the buffer.
+	 */
+	public ByteBufferResource(ByteBuffer buffer, String filename) {
+		this.buffer = buffer.asReadOnlyBuffer();
+		this.filename = filename;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		final ByteBuffer view = buffer.duplicate();
+		return new InputStream() {
+
+			@Override
+			public int read() {
+				return view.hasRemaining() ? view.get() & 0xff : -1;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+				if (!view.hasRemaining()) {
+					return -1;
+				}
+				final int n = Math.min(len, view.remaining());
+				view.get(b, off, n);
+				return n;
+			}
+
+			@Override
+			public long skip(long n) {
+				final int skipped = (int) Math.max(0, Math.min(n, view.remaining()));
+				view.position(view.position() + skipped);
+				return skipped;
+			}
+
+			@Override
+			public int available() {
+				return view.remaining();
+			}
+		};
+	}
+
+	@Override
+	public long contentLength() {
+		return buffer.remaining();
+	}
+
+	@Override
+	public String getFilename() {
+		return filename;
+	}
+
+	@Override
+	public String getDescription() {
+		return "Byte buffer resource [" + filename + "]";
+	}
+}
@@ -0,0 +1,138 @@
+package docpreview.service.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of memory-mapped files, bounded by the total size
+ * of the mapped files. A file replaced since its mapping (another length or
+ * modification date) is mapped again.
+ *
+ * The mappings are read-only and are released by the garbage collector once
+ * they are evicted and no reader uses them anymore.
+ */
+public class MappedFileCache {
+
+	private final long capacity;
+
+	private final long maxFileSize;
+
+	private final LinkedHashMap<String, Mapping> mappings = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity    the maximum total size of the mapped files in bytes (0
+	 *                    disables the cache).
+	 * @param maxFileSize the maximum size of a mapped file in bytes.
+	 */
+	public MappedFileCache(long capacity, long maxFileSize) {
+		this.capacity = capacity;
+		this.maxFileSize = Math.min(maxFileSize, capacity);
+	}
+
+	/**
+	 * Get the mapping of a file, mapping it if needed.
+	 *
+	 * @param file the file.
+	 * @return a read-only buffer over the file, with its own position, or null if
+	 *         the file is too large to be mapped.
+	 * @throws IOException if the file can not be mapped.
+	 */
+	public ByteBuffer get(File file) throws IOException {
+		final long length = file.length();
+		final long lastModified = file.lastModified();
+		if (length <= 0 || length > maxFileSize) {
+			return null;
+		}
+		final String key = file.getPath();
+		synchronized (mappings) {
+			final Mapping mapping = mappings.get(key);
+			if (mapping != null && mapping.length == length && mapping.lastModified == lastModified) {
+				hits.increment();
+				return mapping.buffer.duplicate();
+			}
+		}
+		misses.increment();
+		final MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+		}
+		synchronized (mappings) {
+			final Mapping previous = mappings.put(key, new Mapping(buffer, length, lastModified));
+			if (previous != null) {
+				size -= previous.length;
+			}
+			size += length;
+			final Iterator<Mapping> eldest = mappings.values().iterator();
+			while (size > capacity && eldest.hasNext()) {
+				size -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+		return buffer.duplicate();
+	}
+
+	/**
+	 * Forget the mapping of a file.
+	 *
+	 * @param file the file.
+	 */
+	public void evict(File file) {
+		synchronized (mappings) {
+			final Mapping mapping = mappings.remove(file.getPath());
+			if (mapping != null) {
+				size -= mapping.length;
+			}
+		}
+	}
+
+	/**
+	 * @return the total size of the mapped files in bytes.
+	 */
+	public long getSize() {
+		synchronized (mappings) {
+			return size;
+		}
+	}
+
+	/**
+	 * @return the number of requests served by a mapping.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of files mapped.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	private static final class Mapping {
+
+		private final ByteBuffer buffer;
+
+		private final long length;
+
+		private final long lastModified;
+
+		private Mapping(ByteBuffer buffer, long length, long lastModified) {
+			this.buffer = buffer;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,242 @@
+package docpreview.service.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Run speculative tasks with the idle capacity only: a task waits while the
+ * interactive work is busy, is dropped when it has waited too long, and the
+ * tasks of a key are cancelled when new tasks are scheduled for the key.
+ *
+ * The tasks run one after the other on low priority threads.
+ *
+ * @param <K> the type of the keys.
+ */
+public class PrefetchScheduler<K> {
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final int maxPending;
+
+	private final long timeoutNanos;
+
+	private final long yieldDelayMs;
+
+	private final BooleanSupplier idle;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	/**
+	 * the pending tasks by key
+	 */
+	private final ConcurrentMap<K, List<Task>> scheduled = new ConcurrentHashMap<>();
+
+	private final LongAdder executed = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder cancelled = new LongAdder();
+
+	/**
+	 * @param threads          the threads running the tasks.
+	 * @param maxPending       the tasks waiting to run, the others are dropped.
+	 * @param timeoutMs        the time a task may wait before it is dropped.
+	 * @param yieldDelayMs     the delay before a task waiting for the interactive
+	 *                         work checks it again.
+	 * @param idle             true when the interactive work is idle.
+	 * @param threadNamePrefix the name prefix of the threads.
+	 */
+	public PrefetchScheduler(int threads, int maxPending, long timeoutMs, long yieldDelayMs, BooleanSupplier idle,
+			String threadNamePrefix) {
+		final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+		threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+		threadFactory.setDaemon(true);
+		this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threads), threadFactory);
+		this.executor.setRemoveOnCancelPolicy(true);
+		this.maxPending = maxPending;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		this.yieldDelayMs = Math.max(1, yieldDelayMs);
+		this.idle = idle;
+	}
+
+	/**
+	 * Schedule the tasks of a key, in order, cancelling the tasks of the key not
+	 * run yet.
+	 *
+	 * @param key   the key.
+	 * @param tasks the tasks.
+	 */
+	public void schedule(K key, List<Runnable> tasks) {
+		final List<Task> created = new ArrayList<>(tasks.size());
+		final long deadline = System.nanoTime() + timeoutNanos;
+		for (Runnable runnable : tasks) {
+			created.add(new Task(key, runnable, deadline));
+		}
+		final List<Task> previous = scheduled.put(key, created);
+		if (previous != null) {
+			cancel(previous);
+		}
+		synchronized (created) {
+			for (Task task : created) {
+				if (pending.incrementAndGet() > maxPending) {
+					task.finish();
+					dropped.increment();
+					continue;
+				}
+				task.submit(0);
+			}
+		}
+	}
+
+	/**
+	 * Cancel the tasks of a key not run yet.
+	 *
+	 * @param key the key.
+	 */
+	public void cancel(K key) {
+		final List<Task> tasks = scheduled.remove(key);
+		if (tasks != null) {
+			cancel(tasks);
+		}
+	}
+
+	/**
+	 * Stop the threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the number of tasks run.
+	 */
+	public long getExecuted() {
+		return executed.sum();
+	}
+
+	/**
+	 * @return the number of tasks dropped because they have waited too long or too
+	 *         many tasks were waiting.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return the number of tasks cancelled before they ran.
+	 */
+	public long getCancelled() {
+		return cancelled.sum();
+	}
+
+	/**
+	 * @return the number of tasks waiting to run.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	private void cancel(List<Task> tasks) {
+		synchronized (tasks) {
+			for (Task task : tasks) {
+				task.cancel();
+			}
+		}
+	}
+
+	private final class Task implements Runnable {
+
+		private final K key;
+
+		private final Runnable runnable;
+
+		private final long deadline;
+
+		/**
+		 * the next run of the task, null once it is done or cancelled, guarded by
+		 * the task
+		 */
+		private ScheduledFuture<?> future;
+
+		private boolean done;
+
+		private Task(K key, Runnable runnable, long deadline) {
+			this.key = key;
+			this.runnable = runnable;
+			this.deadline = deadline;
+		}
+
+		private synchronized void submit(long delayMs) {
+			if (done) {
+				return;
+			}
+			if (executor.isShutdown()) {
+				finish();
+				cancelled.increment();
+				return;
+			}
+			future = executor.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized boolean finish() {
+			if (done) {
+				return false;
+			}
+			done = true;
+			future = null;
+			pending.decrementAndGet();
+			return true;
+		}
+
+		private void cancel() {
+			final ScheduledFuture<?> scheduledRun;
+			synchronized (this) {
+				scheduledRun = future;
+			}
+			if (finish()) {
+				cancelled.increment();
+				if (scheduledRun != null) {
+					scheduledRun.cancel(false);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (System.nanoTime() - deadline > 0) {
+				if (finish()) {
+					dropped.increment();
+				}
+				return;
+			}
+			if (!idle.getAsBoolean()) {
+				// yield to the interactive work
+				submit(yieldDelayMs);
+				return;
+			}
+			if (!finish()) {
+				return;
+			}
+			try {
+				runnable.run();
+			} finally {
+				executed.increment();
+				final List<Task> tasks = scheduled.get(key);
+				if (tasks != null && tasks.get(tasks.size() - 1) == this) {
+					// the last task of the key
+					scheduled.remove(key, tasks);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package docpreview.service.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Run a computation once for all the concurrent callers of the same key: the
+ * callers arriving while the computation of a key is in progress wait for its
+ * result instead of running it again. The result is not kept once the
+ * computation is over.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the results.
+ */
+public class SingleFlight<K, V> {
+
+	private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+	private final LongAdder executed = new LongAdder();
+
+	private final LongAdder coalesced = new LongAdder();
+
+	/**
+	 * Run the computation of the key, or wait for the computation of the key in
+	 * progress.
+	 *
+	 * @param key         the key.
+	 * @param computation the computation.
+	 * @return the result of the computation.
+	 */
+	public V execute(K key, Supplier<V> computation) {
+		final CompletableFuture<V> call = new CompletableFuture<>();
+		final CompletableFuture<V> inFlight = calls.putIfAbsent(key, call);
+		if (inFlight != null) {
+			coalesced.increment();
+			return join(inFlight);
+		}
+		executed.increment();
+		try {
+			V value = computation.get();
+			call.complete(value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			call.completeExceptionally(e);
+			throw e;
+		} finally {
+			calls.remove(key, call);
+		}
+	}
+
+	private V join(CompletableFuture<V> call) {
+		try {
+			return call.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of computations in progress.
+	 */
+	public int getInFlight() {
+		return calls.size();
+	}
+
+	/**
+	 * @return the number of computations run.
+	 */
+	public long getExecuted() {
+		return executed.sum();
+	}
+
+	/**
+	 * @return the number of calls served by the computation of another caller.
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+}
@@ -1,36 +1,44 @@
 package docpreview.web.rest;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import javax.validation.Valid;
 
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.CacheControl;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.HttpMediaTypeNotAcceptableException;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -39,17 +47,30 @@ import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import docpreview.domain.Doc;
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageSize;
 import docpreview.pdfbox.tools.MimeTypes;
-import docpreview.pdfbox.tools.SHAUtil;
+import docpreview.service.DocContentService;
 import docpreview.service.DocQueryService;
 import docpreview.service.DocService;
+import docpreview.service.PageImageService;
+import docpreview.service.RenderJobService;
+import docpreview.service.RenderQueueFullException;
+import docpreview.service.dto.DocContentDTO;
 import docpreview.service.dto.DocCriteria;
 import docpreview.service.dto.DocDTO;
-import docpreview.service.impl.FilesystemServiceImpl;
+import docpreview.service.dto.DocSummaryDTO;
+import docpreview.service.dto.PageImageDTO;
+import docpreview.service.dto.RenderJobDTO;
 import docpreview.web.rest.errors.BadRequestAlertException;
 import io.github.jhipster.web.util.HeaderUtil;
 import io.github.jhipster.web.util.PaginationUtil;
@@ -65,6 +86,10 @@ public class DocResource {
 
 	private final Logger log = LoggerFactory.getLogger(DocResource.class);
 
+	private static final String PREFER_RESPOND_ASYNC = "respond-async";
+
+	private static final String PREFERENCE_APPLIED = "Preference-Applied";
+
 	@Value("${jhipster.clientApp.name}")
 	private String applicationName;
 
@@ -72,13 +97,24 @@ public class DocResource {
 
 	private final DocQueryService docQueryService;
 
-	private FilesystemServiceImpl filesystemServiceImpl;
+	private final RenderJobService renderJobService;
+
+	private final PageImageService pageImageService;
+
+	private final DocContentService docContentService;
 
-	public DocResource(DocService docService, DocQueryService docQueryService,
-			FilesystemServiceImpl filesystemServiceImpl) {
+	/**
+	 * the image formats having a writer, JPEG first as it is the default format
+	 */
+	private final List<ImageFormat> imageFormats = ImageFormat.availableFormats();
+
+	public DocResource(DocService docService, DocQueryService docQueryService, RenderJobService renderJobService,
+			PageImageService pageImageService, DocContentService docContentService) {
 		this.docService = docService;
 		this.docQueryService = docQueryService;
-		this.filesystemServiceImpl = filesystemServiceImpl;
+		this.renderJobService = renderJobService;
+		this.pageImageService = pageImageService;
+		this.docContentService = docContentService;
 
 	}
 
@@ -86,18 +122,90 @@ public class DocResource {
 	 * {@code POST  /docs} : Create a new doc.
 	 *
 	 * @param docDTO the docDTO to create.
+	 * @param prefer the Prefer header, {@code respond-async} to queue the
+	 *               rendering when the render queue is full.
 	 * @return the {@link ResponseEntity} with status {@code 201 (Created)} and with
-	 *         body the new docDTO, or with status {@code 400 (Bad Request)} if the
-	 *         doc has already an ID.
+	 *         body the new docDTO, or with status {@code 202 (Accepted)} if the
+	 *         rendering is queued beyond the limit of the render queue, or with
+	 *         status {@code 400 (Bad Request)} if the doc has already an ID, or
+	 *         with status {@code 503 (Service Unavailable)} if the render queue is
+	 *         full.
 	 * @throws URISyntaxException if the Location URI syntax is incorrect.
 	 */
 	@PostMapping("/docs")
-	public ResponseEntity<DocDTO> createDoc(@Valid @RequestBody DocDTO docDTO) throws URISyntaxException {
+	public ResponseEntity<DocDTO> createDoc(@Valid @RequestBody DocDTO docDTO,
+			@RequestHeader(name = "Prefer", required = false) String prefer) throws URISyntaxException {
 		log.debug("REST request to save Doc : {}", docDTO);
 		if (docDTO.getId() != null) {
 			throw new BadRequestAlertException("A new doc cannot already have an ID", Doc.ENTITY_NAME, "idexists");
 		}
-		DocDTO result = docService.save(docDTO);
+		final Optional<Integer> retryAfter = admitRendering(docDTO.getContentContentType(),
+				docDTO.getContent() != null, prefer);
+		final DocDTO result;
+		try {
+			result = docService.save(docDTO);
+		} finally {
+			renderJobService.releaseAdmission();
+		}
+		if (retryAfter.isPresent()) {
+			return queuedResponse(result.getId(), retryAfter.get()).headers(HeaderUtil
+					.createEntityCreationAlert(applicationName, true, Doc.ENTITY_NAME, result.getId().toString()))
+					.body(result);
+		}
+		return ResponseEntity
+				.created(new URI("/api/docs/" + result.getId())).headers(HeaderUtil
+						.createEntityCreationAlert(applicationName, true, Doc.ENTITY_NAME, result.getId().toString()))
+				.body(result);
+	}
+
+	/**
+	 * {@code POST  /docs} : Create a new doc from a multipart upload.
+	 *
+	 * The file part is streamed to the content store and hashed on the fly, so
+	 * the memory used does not depend on the size of the file, unlike the JSON
+	 * upload of a base64 content.
+	 *
+	 * @param docDTO the docDTO to create, without content (the "doc" part).
+	 * @param file   the content of the doc (the "file" part).
+	 * @param prefer the Prefer header, {@code respond-async} to queue the
+	 *               rendering when the render queue is full.
+	 * @return the {@link ResponseEntity} with status {@code 201 (Created)} and
+	 *         with body the new docDTO, without content, or with status
+	 *         {@code 202 (Accepted)} if the rendering is queued beyond the limit
+	 *         of the render queue, or with status {@code 400 (Bad Request)} if the
+	 *         doc has already an ID or a content, or with status
+	 *         {@code 503 (Service Unavailable)} if the render queue is full.
+	 * @throws URISyntaxException if the Location URI syntax is incorrect.
+	 * @throws IOException        if the file can not be read.
+	 */
+	@PostMapping(value = "/docs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+	public ResponseEntity<DocDTO> uploadDoc(@Valid @RequestPart("doc") DocDTO docDTO,
+			@RequestPart("file") MultipartFile file,
+			@RequestHeader(name = "Prefer", required = false) String prefer) throws URISyntaxException, IOException {
+		log.debug("REST request to upload Doc : {} file={} size={}", docDTO, file.getOriginalFilename(),
+				file.getSize());
+		if (docDTO.getId() != null) {
+			throw new BadRequestAlertException("A new doc cannot already have an ID", Doc.ENTITY_NAME, "idexists");
+		}
+		if (docDTO.getContent() != null) {
+			throw new BadRequestAlertException("The content of an upload is its file part", Doc.ENTITY_NAME,
+					"contentexists");
+		}
+		if (docDTO.getContentContentType() == null) {
+			docDTO.setContentContentType(file.getContentType());
+		}
+		final Optional<Integer> retryAfter = admitRendering(docDTO.getContentContentType(), true, prefer);
+		final DocDTO result;
+		try (InputStream in = file.getInputStream()) {
+			result = docService.save(docDTO, in);
+		} finally {
+			renderJobService.releaseAdmission();
+		}
+		if (retryAfter.isPresent()) {
+			return queuedResponse(result.getId(), retryAfter.get()).headers(HeaderUtil
+					.createEntityCreationAlert(applicationName, true, Doc.ENTITY_NAME, result.getId().toString()))
+					.body(result);
+		}
 		return ResponseEntity
 				.created(new URI("/api/docs/" + result.getId())).headers(HeaderUtil
 						.createEntityCreationAlert(applicationName, true, Doc.ENTITY_NAME, result.getId().toString()))
@@ -108,37 +216,96 @@ public class DocResource {
 	 * {@code PUT  /docs} : Updates an existing doc.
 	 *
 	 * @param docDTO the docDTO to update.
+	 * @param prefer the Prefer header, {@code respond-async} to queue the
+	 *               rendering when the render queue is full.
 	 * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body
-	 *         the updated docDTO, or with status {@code 400 (Bad Request)} if the
-	 *         docDTO is not valid, or with status
+	 *         the updated docDTO, or with status {@code 202 (Accepted)} if the
+	 *         rendering is queued beyond the limit of the render queue, or with
+	 *         status {@code 400 (Bad Request)} if the docDTO is not valid, or with
+	 *         status {@code 503 (Service Unavailable)} if the render queue is
+	 *         full, or with status
 	 *         {@code 500 (Internal Server Error)} if the docDTO couldn't be
 	 *         updated.
 	 * @throws URISyntaxException if the Location URI syntax is incorrect.
 	 */
 	@PutMapping("/docs")
-	public ResponseEntity<DocDTO> updateDoc(@Valid @RequestBody DocDTO docDTO) throws URISyntaxException {
+	public ResponseEntity<DocDTO> updateDoc(@Valid @RequestBody DocDTO docDTO,
+			@RequestHeader(name = "Prefer", required = false) String prefer) throws URISyntaxException {
 		log.debug("REST request to update Doc : {}", docDTO);
 		if (docDTO.getId() == null) {
 			throw new BadRequestAlertException("Invalid id", Doc.ENTITY_NAME, "idnull");
 		}
-		DocDTO result = docService.save(docDTO);
+		final Optional<Integer> retryAfter = admitRendering(docDTO.getContentContentType(),
+				docDTO.getContent() != null, prefer);
+		final DocDTO result;
+		try {
+			result = docService.save(docDTO);
+		} finally {
+			renderJobService.releaseAdmission();
+		}
+		if (retryAfter.isPresent()) {
+			return queuedResponse(result.getId(), retryAfter.get()).headers(
+					HeaderUtil.createEntityUpdateAlert(applicationName, true, Doc.ENTITY_NAME, docDTO.getId().toString()))
+					.body(result);
+		}
 		return ResponseEntity.ok().headers(
 				HeaderUtil.createEntityUpdateAlert(applicationName, true, Doc.ENTITY_NAME, docDTO.getId().toString()))
 				.body(result);
 	}
 
 	/**
-	 * {@code GET  /docs} : get all the docs.
+	 * Admit the rendering of the new content of a doc.
+	 *
+	 * @param contentType the content type of the doc.
+	 * @param newContent  true if the request has a content.
+	 * @param prefer      the Prefer header of the request.
+	 * @return the Retry-After of a rendering queued beyond the limit of the render
+	 *         queue, as accepted by a {@code respond-async} client, or empty if
+	 *         the rendering is admitted.
+	 * @throws RenderQueueFullException if the render queue is full.
+	 */
+	private Optional<Integer> admitRendering(String contentType, boolean newContent, String prefer) {
+		if (!newContent || !MimeTypes.MIME_APPLICATION_PDF.equals(contentType)) {
+			return Optional.empty();
+		}
+		try {
+			renderJobService.checkAdmission();
+			return Optional.empty();
+		} catch (RenderQueueFullException e) {
+			if (prefer == null || !prefer.toLowerCase(Locale.ROOT).contains(PREFER_RESPOND_ASYNC)) {
+				throw e;
+			}
+			log.debug("The render queue is full, the rendering stays queued");
+			return Optional.of(e.getRetryAfter());
+		}
+	}
+
+	/**
+	 * @param id         the id of the saved doc.
+	 * @param retryAfter the delay before polling the render status, in seconds.
+	 * @return the {@code 202 (Accepted)} response of a doc whose rendering is
+	 *         queued, located at its render status.
+	 * @throws URISyntaxException if the Location URI syntax is incorrect.
+	 */
+	private ResponseEntity.BodyBuilder queuedResponse(Long id, int retryAfter) throws URISyntaxException {
+		return ResponseEntity.accepted().location(new URI("/api/docs/" + id + "/render-status"))
+				.header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+				.header(PREFERENCE_APPLIED, PREFER_RESPOND_ASYNC);
+	}
+
+	/**
+	 * {@code GET  /docs} : get the summaries of all the docs, without their
+	 * content.
 	 *
 	 * @param pageable the pagination information.
 	 * @param criteria the criteria which the requested entities should match.
 	 * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the list
-	 *         of docs in body.
+	 *         of doc summaries in body.
 	 */
 	@GetMapping("/docs")
-	public ResponseEntity<List<DocDTO>> getAllDocs(DocCriteria criteria, Pageable pageable) {
+	public ResponseEntity<List<DocSummaryDTO>> getAllDocs(DocCriteria criteria, Pageable pageable) {
 		log.debug("REST request to get Docs by criteria: {}", criteria);
-		Page<DocDTO> page = docQueryService.findByCriteria(criteria, pageable);
+		Page<DocSummaryDTO> page = docQueryService.findSummariesByCriteria(criteria, pageable);
 		HttpHeaders headers = PaginationUtil
 				.generatePaginationHttpHeaders(ServletUriComponentsBuilder.fromCurrentRequest(), page);
 		return ResponseEntity.ok().headers(headers).body(page.getContent());
@@ -186,146 +353,256 @@ public class DocResource {
 				.build();
 	}
 
+	/**
+	 * {@code GET  /docs/:id/render-status} : get the status of the rendering of
+	 * the page images of the "id" doc.
+	 *
+	 * @param id the id of the doc.
+	 * @return the {@link ResponseEntity} with status {@code 200 (OK)} and with body
+	 *         the last renderJobDTO of the doc, or with status
+	 *         {@code 404 (Not Found)}.
+	 */
+	@GetMapping("/docs/{id}/render-status")
+	public ResponseEntity<RenderJobDTO> getRenderStatus(@PathVariable Long id) {
+		log.debug("REST request to get the render status of Doc : {}", id);
+		return ResponseUtil.wrapOrNotFound(renderJobService.findLastByDocId(id));
+	}
+
+	/**
+	 * {@code GET  /docs/:id/content} : get the content of the "id" doc.
+	 *
+	 * The content is streamed from the database to the response, so the memory
+	 * used does not depend on the size of the content. The byte ranges of the
+	 * contents of the content store are served from their file, as a single part
+	 * or as multipart/byteranges.
+	 *
+	 * @param ifNoneMatch the ETag of the content in the cache of the client.
+	 * @param range       the byte ranges requested by the client.
+	 * @param ifRange     the ETag or the date of the partial content of the
+	 *                    client, the whole content is sent if it has changed.
+	 * @param id          the id of the doc.
+	 * @param variant     the variant of the content: original (default),
+	 *                    linearized or first-page. The original content is sent
+	 *                    when the variant has not been written.
+	 * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the
+	 *         content in body, or with status {@code 206 (Partial Content)} and
+	 *         the ranges of the content in body, or with status
+	 *         {@code 304 (Not Modified)}, or with status
+	 *         {@code 400 (Bad Request)} if the variant is unknown, or with status
+	 *         {@code 416 (Range Not Satisfiable)}, or with status
+	 *         {@code 404 (Not Found)}.
+	 * @throws IOException if the length of the variant can not be read.
+	 */
 	@GetMapping(value = "/docs/{id}/content")
 	@Timed
-	public ResponseEntity<byte[]> getContentAsResponseEntity(
+	public ResponseEntity<StreamingResponseBody> getContentAsResponseEntity(
 			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, defaultValue = "") final String ifNoneMatch,
-			@PathVariable final Long id) {
-		log.debug("REST request from {} to get the contenu of Doc : {}", id);
-		final Optional<DocDTO> docDTO = docService.findOne(id);
-		if (docDTO.isPresent()) {
-			final DocDTO d = docDTO.get();
-
-			final byte[] buf = d.getContent();
-			if (buf != null) {
-				final String contentType = d.getContentContentType();
-				final String sha1 = d.getContentSha1();
-				final String name = Doc.ENTITY_NAME + "-" + id + "." + MimeTypes.lookupExt(contentType);
-				return getResponseEntity(buf, sha1, contentType, d.getUpdatedAt(), ifNoneMatch, name);
+			@RequestHeader(value = HttpHeaders.RANGE, defaultValue = "") final String range,
+			@RequestHeader(value = HttpHeaders.IF_RANGE, defaultValue = "") final String ifRange,
+			@PathVariable final Long id,
+			@RequestParam(value = "variant", defaultValue = "original") final String variant) throws IOException {
+		log.debug("REST request to get the content of Doc : {} variant={} ifNoneMatch={} range={} ifRange={}", id,
+				variant, ifNoneMatch, range, ifRange);
+		final ContentVariant contentVariant = ContentVariant.fromName(variant).orElseThrow(
+				() -> new BadRequestAlertException("Invalid content variant", Doc.ENTITY_NAME, "variantinvalid"));
+		final Optional<DocContentDTO> info = docContentService.findContentInfo(id);
+		if (!info.isPresent() || info.get().getContentType() == null) {
+			return ResponseUtil.wrapOrNotFound(Optional.ofNullable(null));
+		}
+		DocContentDTO d = info.get();
+		Optional<Resource> resource = docContentService.findContentResource(d, contentVariant);
+		final boolean isVariant = contentVariant != ContentVariant.ORIGINAL && resource.isPresent();
+		if (isVariant) {
+			// a variant has its own ETag and length
+			d = new DocContentDTO(d.getContentType(), contentVariant.getETag(d.getSha1()), d.getUpdatedAt(),
+					resource.get().contentLength());
+		} else if (contentVariant != ContentVariant.ORIGINAL) {
+			resource = docContentService.findContentResource(d, ContentVariant.ORIGINAL);
+		}
+		// TODO Select the cacheControl policy according to the subject
+		final String cacheControl = CACHE_CONTROL_MAXAGE;
+		if (ifNoneMatch.equals("\"" + d.getSha1() + "\"")) {
+			return getResponseEntityForNotModified(d.getContentType(), d.getUpdatedAt(), d.getSha1(), cacheControl);
+		}
+
+		final String name = Doc.ENTITY_NAME + "-" + id + "." + MimeTypes.lookupExt(d.getContentType());
+		// the contents only in the database are not seekable, they are always sent
+		// whole
+		if (resource.isPresent() && !range.isEmpty() && isIfRangeSatisfied(ifRange, d)) {
+			return getResponseEntityForPartialContent(resource.get(), range, d, cacheControl, name);
+		}
+		// the body is the resolved content, whose length is already sent
+		final Resource contentResource = resource.orElse(null);
+		final StreamingResponseBody body = contentResource != null ? out -> {
+			try (InputStream in = contentResource.getInputStream()) {
+				StreamUtils.copy(in, out);
 			}
+		} : out -> {
+			if (!docContentService.writeContent(id, out)) {
+				throw new IOException("The content of Doc " + id + " has been removed");
+			}
+		};
+		final ResponseEntity<StreamingResponseBody> responseEntity = getResponseEntityForOK(body, d.getLength(),
+				d.getContentType(), d.getUpdatedAt(), d.getSha1(), cacheControl, name);
+		if (!resource.isPresent()) {
+			return responseEntity;
 		}
-		return ResponseUtil.wrapOrNotFound(Optional.ofNullable(null));
+		return ResponseEntity.status(responseEntity.getStatusCode()).headers(responseEntity.getHeaders())
+				.header(HttpHeaders.ACCEPT_RANGES, "bytes").body(responseEntity.getBody());
+	}
 
+	/**
+	 * Tell whether the partial content of the client can be completed: the
+	 * {@code If-Range} header is absent, or it is the strong ETag of the content,
+	 * or the date of its last modification.
+	 */
+	private boolean isIfRangeSatisfied(final String ifRange, final DocContentDTO d) {
+		if (ifRange.isEmpty()) {
+			return true;
+		}
+		if (ifRange.startsWith("\"")) {
+			return ifRange.equals("\"" + d.getSha1() + "\"");
+		}
+		if (d.getUpdatedAt() == null) {
+			return false;
+		}
+		try {
+			final Instant date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			return date.equals(d.getUpdatedAt().truncatedTo(ChronoUnit.SECONDS));
+		} catch (DateTimeParseException e) {
+			// a weak ETag or an invalid date
+			return false;
+		}
 	}
 
-	@GetMapping(value = "/docs/{id}/img/{page}", produces = { MediaType.IMAGE_JPEG_VALUE })
+	/**
+	 * {@code GET  /docs/:id/img/:page} : get the image of a page of the "id" doc.
+	 *
+	 * The image format (JPEG, PNG or WebP when an ImageIO plugin provides it) is
+	 * negotiated with the {@code Accept} header, JPEG being the default. The
+	 * mapping declares no produced types: they depend on the ImageIO writers of
+	 * the classpath, and the formats without a writer are not acceptable.
+	 *
+	 * @param ifNoneMatch the ETag of the image in the cache of the client.
+	 * @param accept      the media types accepted by the client.
+	 * @param id          the id of the doc.
+	 * @param page        the page number.
+	 * @param size        the image size: thumb, preview or full (default).
+	 * @return the {@link ResponseEntity} with status {@code 200 (OK)} and the
+	 *         image in body, or with status {@code 400 (Bad Request)} if the size
+	 *         is unknown, or with status {@code 404 (Not Found)}.
+	 * @throws HttpMediaTypeNotAcceptableException if no image format is accepted.
+	 * @throws IOException                         if the image can not be read.
+	 */
+	@GetMapping("/docs/{id}/img/{page}")
 	@Timed
-	public ResponseEntity<byte[]> getImgAsResponseEntity(
+	public ResponseEntity<Resource> getImgAsResponseEntity(
 			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, defaultValue = "") final String ifNoneMatch,
-			@PathVariable final Long id, @PathVariable final Long page) {
-		log.debug("REST request to get the img of Doc : id={} page={} ifNoneMatch={}", id, page, ifNoneMatch);
-		final String filename = Doc.ENTITY_NAME + "-" + id + "-img-" + page + ".jpg";
-		return getResponseEntity(id, page, filesystemServiceImpl.getImgPath(Doc.ENTITY_NAME, id, page), ifNoneMatch,
-				filename);
-
+			@RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = "") final String accept,
+			@PathVariable final Long id, @PathVariable final Long page,
+			@RequestParam(value = "size", defaultValue = "full") final String size)
+			throws HttpMediaTypeNotAcceptableException, IOException {
+		log.debug("REST request to get the img of Doc : id={} page={} size={} accept={} ifNoneMatch={}", id, page,
+				size, accept, ifNoneMatch);
+		final ImageSize imageSize = ImageSize.fromName(size).orElseThrow(
+				() -> new BadRequestAlertException("Invalid image size", Doc.ENTITY_NAME, "sizeinvalid"));
+		final ImageFormat imageFormat = negotiateImageFormat(accept);
+		final String filename = imageSize.getFileName(Doc.ENTITY_NAME + "-" + id + "-img-", page,
+				imageFormat.getExtension());
+		final ResponseEntity<Resource> responseEntity = getResponseEntity(id, page, imageSize, imageFormat,
+				ifNoneMatch, filename);
+		// the caches must keep one image per format
+		return ResponseEntity.status(responseEntity.getStatusCode()).headers(responseEntity.getHeaders())
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT).body(responseEntity.getBody());
 	}
 
 	/**
-	 * return the byte array of the content of the file
-	 * 
-	 * @param path the path of the file
-	 * @return the byte array of the content of the file
+	 * Select the image format of the first accepted media type.
+	 *
+	 * @param accept the value of the {@code Accept} header.
+	 * @return the image format, JPEG if the header is empty or invalid.
+	 * @throws HttpMediaTypeNotAcceptableException if no image format is accepted.
 	 */
-	private byte[] readFile(final String path) {
-		final File f = new File(path);
-		if (!f.exists()) {
-			return null;
-		}
-		byte[] buf = null;
+	private ImageFormat negotiateImageFormat(final String accept) throws HttpMediaTypeNotAcceptableException {
+		final List<MediaType> mediaTypes;
 		try {
-			final Path p = Paths.get(path);
-			buf = Files.readAllBytes(p);
-			return buf;
-		} catch (java.io.IOException e) {
-			return null;
+			mediaTypes = MediaType.parseMediaTypes(accept);
+		} catch (InvalidMediaTypeException e) {
+			return ImageFormat.JPEG;
 		}
+		if (mediaTypes.isEmpty()) {
+			return ImageFormat.JPEG;
+		}
+		MediaType.sortBySpecificityAndQuality(mediaTypes);
+		final List<MediaType> producibleTypes = new ArrayList<>();
+		for (ImageFormat imageFormat : imageFormats) {
+			producibleTypes.add(MediaType.parseMediaType(imageFormat.getMediaType()));
+		}
+		for (MediaType mediaType : mediaTypes) {
+			if (mediaType.getQualityValue() > 0) {
+				for (int i = 0; i < imageFormats.size(); i++) {
+					if (mediaType.includes(producibleTypes.get(i))) {
+						return imageFormats.get(i);
+					}
+				}
+			}
+		}
+		throw new HttpMediaTypeNotAcceptableException(producibleTypes);
 	}
 
 	private final String CACHE_CONTROL_NO_CACHE = CacheControl.noCache().getHeaderValue();
 	private final long MAXAGE = 60;
 	private final String CACHE_CONTROL_MAXAGE = CacheControl.maxAge(MAXAGE, TimeUnit.MINUTES).getHeaderValue();
 
-	private final Charset UTF8_CHARSET = Charset.forName("UTF-8");
-
-	private ResponseEntity<byte[]> getResponseEntity(final byte[] buf, final String sha1, final String contentType,
-			final Instant dateModification, final String ifNoneMatch, final String filename) {
-		// TODO Select the cacheControl policy according to the subject
-		final String cacheControl = CACHE_CONTROL_MAXAGE;
-
-		if (ifNoneMatch.equals("\"" + sha1 + "\"")) {
-			return getResponseEntityForNotModified(contentType, dateModification, sha1, cacheControl);
-		} else {
-			return getResponseEntityForOK(buf, contentType, dateModification, sha1, cacheControl, filename);
-		}
-	}
-
 	/**
 	 * return the ResponseEntity of the page's image of the doc
 	 * 
 	 * @param id          identifier of the doc
 	 * @param page        number of the page
-	 * @param path        path of the file to return
+	 * @param size        size of the image
+	 * @param format      format of the image
 	 * @param ifNoneMatch the string of the ETag to match
 	 * @return
+	 * @throws IOException if the image can not be read.
 	 */
-	private ResponseEntity<byte[]> getResponseEntity(final Long id, final Long page, final String path,
-			final String ifNoneMatch, String filename) {
-		final Optional<DocDTO> opdocDTO = docService.findOne(id);
-		if (opdocDTO.isPresent()) {
-			DocDTO docDTO = opdocDTO.get();
-			log.debug("REST request to get the image of Doc id={} page={} path={} ifNoneMatch={}", id, page, path,
-					ifNoneMatch);
-
-			final String shaPath = path + SHAUtil.SHA_EXTENSION;
-
-			final String cacheControl = CACHE_CONTROL_MAXAGE;
-
-			final byte[] shaBuf = readFile(shaPath);
-			if (shaBuf != null) {
-				String shaString = new String(shaBuf, UTF8_CHARSET);
-				if (ifNoneMatch.equals("\"" + shaString + "\"")) {
-					return getResponseEntityForNotModified(MimeTypeUtils.IMAGE_JPEG_VALUE, docDTO.getUpdatedAt(),
-							shaString, cacheControl);
-				}
-			}
+	private ResponseEntity<Resource> getResponseEntity(final Long id, final Long page, final ImageSize size,
+			final ImageFormat format, final String ifNoneMatch, String filename) throws IOException {
+		log.debug("REST request to get the image of Doc id={} page={} size={} format={} ifNoneMatch={}", id, page,
+				size, format, ifNoneMatch);
+		final String cacheControl = CACHE_CONTROL_MAXAGE;
 
-			final byte[] buf = readFile(path);
-			if (buf == null) {
-				return ResponseUtil.wrapOrNotFound(Optional.ofNullable(null));
-			} else {
-				final String sha = SHAUtil.hash(buf);
-				final File s = new File(shaPath);
-				if (!s.exists()) {
-					try {
-						// crée le fichier s'il n'existe pas
-						FileUtils.writeStringToFile(s, sha, "UTF-8");
-					} catch (IOException e) {
-						log.warn("Can not save SHA1 of the img for doc id={} page={} path={}", id, page, path);
-					}
-				}
-				return getResponseEntityForOK(buf, MimeTypeUtils.IMAGE_JPEG_VALUE, docDTO.getUpdatedAt(), sha,
-						cacheControl, filename);
-			}
+		final Optional<PageImageDTO> image = pageImageService.findPageImage(id, page, size, format);
+		if (!image.isPresent()) {
+			return ResponseUtil.wrapOrNotFound(Optional.ofNullable(null));
+		}
+		if (ifNoneMatch.equals("\"" + image.get().getSha1() + "\"")) {
+			return getResponseEntityForNotModified(format.getMediaType(), image.get().getUpdatedAt(),
+					image.get().getSha1(), cacheControl);
 		}
-		return ResponseUtil.wrapOrNotFound(Optional.ofNullable(null));
+		// the bytes of the image are not copied in the heap
+		final Resource resource = pageImageService.getResource(image.get());
+		return getResponseEntityForOK(resource, resource.contentLength(), format.getMediaType(),
+				image.get().getUpdatedAt(), image.get().getSha1(), cacheControl, filename);
 	}
 
 	/**
-	 * Helper for byte[] ResponseEntity
+	 * Helper for ResponseEntity
 	 * 
-	 * @param buf
+	 * @param body
+	 * @param contentLength the length of the body, or -1 if unknown
 	 * @param contentType
 	 * @param updateAt
 	 * @param sha1
 	 * @return
 	 * @TODO add the number of pages or null
 	 */
-	private ResponseEntity<byte[]> getResponseEntityForOK(final byte[] buf, final String contentType,
-			final Instant updateAt, final String sha1, final String cacheControl, final String filename) {
+	private <T> ResponseEntity<T> getResponseEntityForOK(final T body, final long contentLength,
+			final String contentType, final Instant updateAt, final String sha1, final String cacheControl,
+			final String filename) {
 		HttpHeaders headers = new HttpHeaders();
 
-		if (buf != null) {
-			headers.setContentLength(buf.length);
+		if (contentLength >= 0) {
+			headers.setContentLength(contentLength);
 		}
 		headers.setCacheControl(cacheControl);
 
@@ -342,21 +619,98 @@ public class DocResource {
 		if (sha1 != null) {
 			headers.setETag("\"" + sha1 + "\"");
 		}
-		ResponseEntity<byte[]> responseEntity = new ResponseEntity<>(buf, headers, HttpStatus.OK);
+		ResponseEntity<T> responseEntity = new ResponseEntity<>(body, headers, HttpStatus.OK);
 		return responseEntity;
 	}
 
 	/**
-	 * Helper for byte[] ResponseEntity
+	 * Helper for ResponseEntity of byte ranges, a single range is sent as is and
+	 * several ranges as multipart/byteranges.
+	 *
+	 * @param resource the seekable content.
+	 * @param range    the value of the Range header.
+	 * @return the ranges of the content, or the status
+	 *         {@code 416 (Range Not Satisfiable)} if they are invalid or out of
+	 *         the content.
+	 */
+	private ResponseEntity<StreamingResponseBody> getResponseEntityForPartialContent(final Resource resource,
+			final String range, final DocContentDTO d, final String cacheControl, final String filename) {
+		final List<ResourceRegion> regions;
+		try {
+			regions = HttpRange.toResourceRegions(HttpRange.parseRanges(range), resource);
+		} catch (IllegalArgumentException e) {
+			log.debug("Invalid range {} for the content of length {}", range, d.getLength());
+			return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header(HttpHeaders.CONTENT_RANGE, "bytes */" + d.getLength()).build();
+		}
+
+		final StreamingResponseBody body;
+		final long contentLength;
+		final String contentType;
+		final String contentRange;
+		if (regions.size() == 1) {
+			final ResourceRegion region = regions.get(0);
+			body = out -> copyRegion(region, out);
+			contentLength = region.getCount();
+			contentType = d.getContentType();
+			contentRange = getContentRange(region, d.getLength());
+		} else {
+			final String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+			final List<byte[]> partHeaders = new ArrayList<>();
+			final byte[] end = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+			long length = end.length;
+			for (ResourceRegion region : regions) {
+				final byte[] partHeader = ("\r\n--" + boundary + "\r\n" + HttpHeaders.CONTENT_TYPE + ": "
+						+ d.getContentType() + "\r\n" + HttpHeaders.CONTENT_RANGE + ": "
+						+ getContentRange(region, d.getLength()) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+				partHeaders.add(partHeader);
+				length += partHeader.length + region.getCount();
+			}
+			body = out -> {
+				for (int i = 0; i < regions.size(); i++) {
+					out.write(partHeaders.get(i));
+					copyRegion(regions.get(i), out);
+				}
+				out.write(end);
+			};
+			contentLength = length;
+			contentType = "multipart/byteranges; boundary=" + boundary;
+			contentRange = null;
+		}
+		final ResponseEntity<StreamingResponseBody> responseEntity = getResponseEntityForOK(body, contentLength,
+				contentType, d.getUpdatedAt(), d.getSha1(), cacheControl, filename);
+		final ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+				.headers(responseEntity.getHeaders()).header(HttpHeaders.ACCEPT_RANGES, "bytes");
+		if (contentRange != null) {
+			builder.header(HttpHeaders.CONTENT_RANGE, contentRange);
+		}
+		return builder.body(body);
+	}
+
+	private static String getContentRange(final ResourceRegion region, final long length) {
+		return "bytes " + region.getPosition() + "-" + (region.getPosition() + region.getCount() - 1) + "/" + length;
+	}
+
+	/**
+	 * copy a region of a file, the start of the region is reached by skipping the
+	 * bytes of the file, which is a seek.
+	 */
+	private static void copyRegion(final ResourceRegion region, final OutputStream out) throws IOException {
+		try (InputStream in = region.getResource().getInputStream()) {
+			StreamUtils.copyRange(in, out, region.getPosition(), region.getPosition() + region.getCount() - 1);
+		}
+	}
+
+	/**
+	 * Helper for ResponseEntity
 	 * 
-	 * @param buf
 	 * @param contentType
 	 * @param updateAt
 	 * @param sha1
 	 * @return
 	 * @TODO add the number of pages or null
 	 */
-	private ResponseEntity<byte[]> getResponseEntityForNotModified(final String contentType, final Instant updateAt,
+	private <T> ResponseEntity<T> getResponseEntityForNotModified(final String contentType, final Instant updateAt,
 			final String sha1, final String cacheControl) {
 		HttpHeaders headers = new HttpHeaders();
 		headers.setCacheControl(cacheControl);
@@ -369,7 +723,7 @@ public class DocResource {
 		if (sha1 != null) {
 			headers.setETag("\"" + sha1 + "\"");
 		}
-		ResponseEntity<byte[]> responseEntity = new ResponseEntity<>(null, headers, HttpStatus.NOT_MODIFIED);
+		ResponseEntity<T> responseEntity = new ResponseEntity<>(null, headers, HttpStatus.NOT_MODIFIED);
 		return responseEntity;
 	}
 
@@ -4,6 +4,7 @@ import io.github.jhipster.web.util.HeaderUtil;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -121,4 +122,16 @@ public class ExceptionTranslator implements ProblemHandling, SecurityAdviceTrait
             .build();
         return create(ex, problem, request);
     }
+
+    @ExceptionHandler
+    public ResponseEntity<Problem> handleRenderQueueFullException(docpreview.service.RenderQueueFullException ex, NativeWebRequest request) {
+        Problem problem = Problem.builder()
+            .withStatus(Status.SERVICE_UNAVAILABLE)
+            .withDetail(ex.getMessage())
+            .with(MESSAGE_KEY, ErrorConstants.ERR_RENDER_QUEUE_FULL)
+            .build();
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter()));
+        return create(ex, problem, request, headers);
+    }
 }
@@ -4,6 +4,7 @@ import { JhiDataUtils } from 'ng-jhipster';
 import { DomSanitizer, SafeResourceUrl } from '@angular/platform-browser';
 
 import { IDoc } from 'app/shared/model/doc.model';
+import { DocService } from './doc.service';
 
 @Component({
   selector: 'jhi-doc-detail',
@@ -15,7 +16,12 @@ export class DocDetailComponent implements OnInit {
   pdfHeight = 1200;
   pdfWidth = 900;
 
-  constructor(protected dataUtils: JhiDataUtils, protected activatedRoute: ActivatedRoute, private sanitizer: DomSanitizer) {}
+  constructor(
+    protected dataUtils: JhiDataUtils,
+    protected docService: DocService,
+    protected activatedRoute: ActivatedRoute,
+    private sanitizer: DomSanitizer
+  ) {}
 
   ngOnInit(): void {
     this.activatedRoute.data.subscribe(({ doc }) => (this.doc = doc));
@@ -29,6 +35,11 @@ export class DocDetailComponent implements OnInit {
     this.dataUtils.openFile(contentType, base64String);
   }
 
+  openContent(): void {
+    // the content is not part of the doc, it is downloaded on demand
+    this.docService.getContent(this.doc!.id!).subscribe(content => window.open(URL.createObjectURL(content), '_blank'));
+  }
+
   previousState(): void {
     window.history.back();
   }
@@ -85,8 +85,7 @@ export class DocSliderComponent implements OnInit {
   }
 
   getThumbnail(url: string): string {
-    // return url.replace('.jpg', '.x1.jpg');
-    return url;
+    return url + '?size=thumb';
   }
 
   public toggleType(): void {
@@ -49,6 +49,11 @@ export class DocUpdateComponent implements OnInit {
       }
 
       this.updateForm(doc);
+      if (doc.id) {
+        // the content is not loaded with the doc, an update without content keeps it
+        this.editForm.get('content')!.clearValidators();
+        this.editForm.get('content')!.updateValueAndValidity();
+      }
     });
   }
 
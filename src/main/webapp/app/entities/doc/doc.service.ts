@@ -44,6 +44,10 @@ export class DocService {
       .pipe(map((res: EntityArrayResponseType) => this.convertDateArrayFromServer(res)));
   }
 
+  getContent(id: number): Observable<Blob> {
+    return this.http.get(`${this.resourceUrl}/${id}/content`, { responseType: 'blob' });
+  }
+
   delete(id: number): Observable<HttpResponse<{}>> {
     return this.http.delete(`${this.resourceUrl}/${id}`, { observe: 'response' });
   }
@@ -0,0 +1,22 @@
+package docpreview.domain;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import docpreview.web.rest.TestUtil;
+
+public class RenderJobTest {
+
+    @Test
+    public void equalsVerifier() throws Exception {
+        TestUtil.equalsVerifier(RenderJob.class);
+        RenderJob renderJob1 = new RenderJob();
+        renderJob1.setId(1L);
+        RenderJob renderJob2 = new RenderJob();
+        renderJob2.setId(renderJob1.getId());
+        assertThat(renderJob1).isEqualTo(renderJob2);
+        renderJob2.setId(2L);
+        assertThat(renderJob1).isNotEqualTo(renderJob2);
+        renderJob1.setId(null);
+        assertThat(renderJob1).isNotEqualTo(renderJob2);
+    }
+}
@@ -0,0 +1,44 @@
+package docpreview.pdfbox.tools;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test class for the {@link ImageHashIndex}.
+ */
+public class ImageHashIndexTest {
+
+    private static final String SHA_DIR = File.separator + "sha1" + File.separator + "ab";
+
+    private static final String DOC_DIR = File.separator + "doc" + File.separator + "1";
+
+    @Test
+    public void testRenameDir() {
+        ImageHashIndex index = new ImageHashIndex(10);
+        index.put(SHA_DIR + File.separator + "img.1.jpg", "a");
+        index.put(SHA_DIR + "c" + File.separator + "img.1.jpg", "b");
+
+        index.renameDir(SHA_DIR, DOC_DIR);
+
+        assertThat(index.get(DOC_DIR + File.separator + "img.1.jpg")).isEqualTo("a");
+        assertThat(index.get(SHA_DIR + File.separator + "img.1.jpg")).isNull();
+        // a directory having the same prefix is not renamed
+        assertThat(index.get(SHA_DIR + "c" + File.separator + "img.1.jpg")).isEqualTo("b");
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testEviction() {
+        ImageHashIndex index = new ImageHashIndex(1);
+        index.put("a", "1");
+        index.put("b", "2");
+
+        assertThat(index.get("a")).isNull();
+        assertThat(index.get("b")).isEqualTo("2");
+        assertThat(index.getHits()).isEqualTo(1);
+        assertThat(index.getMisses()).isEqualTo(1);
+    }
+}
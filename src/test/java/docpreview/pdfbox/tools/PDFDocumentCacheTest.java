@@ -0,0 +1,100 @@
+package docpreview.pdfbox.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the {@link PDFDocumentCache}.
+ */
+public class PDFDocumentCacheTest {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    private PDFMemoryBudget memoryBudget;
+
+    private File file;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        memoryBudget = new PDFMemoryBudget(1 << 20, 8 << 20, tmp.toString());
+        memoryBudget.postConstruct();
+        file = tmp.resolve("content").toFile();
+        try (InputStream in = PDFDocumentCacheTest.class.getResourceAsStream(PDF_RESOURCE)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Test
+    public void testDocumentIsLoadedOnce() throws Exception {
+        PDFDocumentCache cache = new PDFDocumentCache(file.length() * 4, memoryBudget);
+
+        PDDocument document = cache.withDocument(1L, "sha1", file, loaded -> loaded);
+        assertThat(cache.withDocument(1L, "sha1", file, loaded -> loaded)).isSameAs(document);
+        assertThat(document.getDocument().isClosed()).isFalse();
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(file.length());
+
+        cache.evict(1L);
+        assertThat(document.getDocument().isClosed()).isTrue();
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    public void testDocumentOfAnotherContentReplacesTheCachedDocument() throws Exception {
+        PDFDocumentCache cache = new PDFDocumentCache(file.length() * 4, memoryBudget);
+
+        PDDocument document = cache.withDocument(1L, "sha1", file, loaded -> loaded);
+        PDDocument replacement = cache.withDocument(1L, "sha2", file, loaded -> loaded);
+        assertThat(replacement).isNotSameAs(document);
+        assertThat(document.getDocument().isClosed()).isTrue();
+        assertThat(cache.getSize()).isEqualTo(file.length());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDocumentIsEvicted() throws Exception {
+        PDFDocumentCache cache = new PDFDocumentCache(file.length() * 2, memoryBudget);
+
+        PDDocument first = cache.withDocument(1L, "sha1", file, loaded -> loaded);
+        PDDocument second = cache.withDocument(2L, "sha1", file, loaded -> loaded);
+        cache.withDocument(1L, "sha1", file, loaded -> loaded);
+        PDDocument third = cache.withDocument(3L, "sha1", file, loaded -> loaded);
+
+        assertThat(second.getDocument().isClosed()).isTrue();
+        assertThat(first.getDocument().isClosed()).isFalse();
+        assertThat(third.getDocument().isClosed()).isFalse();
+        assertThat(cache.getSize()).isEqualTo(file.length() * 2);
+    }
+
+    @Test
+    public void testDocumentIsClosedOnceItsTaskIsDone() throws Exception {
+        PDFDocumentCache cache = new PDFDocumentCache(file.length() * 4, memoryBudget);
+
+        PDDocument document = cache.withDocument(1L, "sha1", file, loaded -> {
+            // evicted while it is used
+            cache.evict(1L);
+            assertThat(loaded.getDocument().isClosed()).isFalse();
+            return loaded;
+        });
+        assertThat(document.getDocument().isClosed()).isTrue();
+    }
+
+    @Test
+    public void testDocumentIsNotCachedWithoutCapacity() throws Exception {
+        PDFDocumentCache cache = new PDFDocumentCache(0, memoryBudget);
+
+        PDDocument document = cache.withDocument(1L, "sha1", file, loaded -> loaded);
+        assertThat(document.getDocument().isClosed()).isTrue();
+        assertThat(cache.getSize()).isZero();
+    }
+}
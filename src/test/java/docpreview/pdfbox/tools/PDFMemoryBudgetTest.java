@@ -0,0 +1,53 @@
+package docpreview.pdfbox.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the {@link PDFMemoryBudget}.
+ */
+public class PDFMemoryBudgetTest {
+
+    @Test
+    public void testLoadsWaitForTheBudget(@TempDir Path tmp) throws Exception {
+        PDFMemoryBudget memoryBudget = new PDFMemoryBudget(4096, 8192, tmp.toString());
+        memoryBudget.postConstruct();
+        assertThat(new File(tmp.toFile(), PDFMemoryBudget.SCRATCH_DIR)).isDirectory();
+
+        PDFMemoryBudget.Lease first = memoryBudget.acquire();
+        PDFMemoryBudget.Lease second = memoryBudget.acquire();
+        assertThat(memoryBudget.getInFlight()).isEqualTo(8192);
+        assertThat(first.getMemoryUsageSetting().getTempDir()).isEqualTo(new File(tmp.toFile(), PDFMemoryBudget.SCRATCH_DIR));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<PDFMemoryBudget.Lease> third = executor.submit(() -> {
+                started.countDown();
+                return memoryBudget.acquire();
+            });
+            started.await();
+            Thread.sleep(100);
+            assertThat(third.isDone()).isFalse();
+
+            first.close();
+            first.close();
+            third.get(5, TimeUnit.SECONDS).close();
+            second.close();
+            assertThat(memoryBudget.getInFlight()).isZero();
+            assertThat(memoryBudget.getWaiting()).isZero();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
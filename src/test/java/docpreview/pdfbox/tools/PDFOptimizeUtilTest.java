@@ -0,0 +1,61 @@
+package docpreview.pdfbox.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the {@link PDFOptimizeUtil}.
+ */
+public class PDFOptimizeUtilTest {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    private File pdf;
+
+    private PDFMemoryBudget memoryBudget;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        pdf = tmp.resolve("content").toFile();
+        memoryBudget = new PDFMemoryBudget(1 << 20, 8 << 20, tmp.toString());
+        memoryBudget.postConstruct();
+        try (InputStream in = PDFOptimizeUtilTest.class.getResourceAsStream(PDF_RESOURCE)) {
+            Files.copy(in, pdf.toPath());
+        }
+    }
+
+    @Test
+    public void testFirstPageFirstKeepsThePages(@TempDir Path tmp) throws Exception {
+        File out = tmp.resolve("content.first-page").toFile();
+
+        new PDFOptimizeUtil("", 10, memoryBudget).writeFirstPageFirst(pdf, out);
+
+        try (PDDocument original = PDDocument.load(pdf); PDDocument variant = PDDocument.load(out)) {
+            assertThat(variant.getNumberOfPages()).isEqualTo(original.getNumberOfPages());
+            assertThat(variant.getDocumentCatalog().getCOSObject().keySet().iterator().next())
+                .isEqualTo(COSName.PAGES);
+        }
+    }
+
+    @Test
+    public void testLinearizeRunsTheCommand(@TempDir Path tmp) throws Exception {
+        File out = tmp.resolve("content.linearized").toFile();
+        PDFOptimizeUtil pdfOptimizeUtil = new PDFOptimizeUtil("cp {in} {out}", 10, memoryBudget);
+
+        assertThat(pdfOptimizeUtil.isLinearizeAvailable()).isTrue();
+        pdfOptimizeUtil.linearize(pdf, out);
+
+        assertThat(out).hasSameContentAs(pdf);
+        assertThat(new PDFOptimizeUtil(" ", 10, memoryBudget).isLinearizeAvailable()).isFalse();
+    }
+}
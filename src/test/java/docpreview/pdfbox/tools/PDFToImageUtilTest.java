@@ -0,0 +1,306 @@
+package docpreview.pdfbox.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Test class for the {@link PDFToImageUtil}.
+ */
+public class PDFToImageUtilTest {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    private static final int DPI = 36;
+
+    private ImageHashIndex imageHashIndex;
+
+    private RenderPipeline renderPipeline;
+
+    private PDFToImageUtil pdfToImageUtil;
+
+    private byte[] pdf;
+
+    @BeforeEach
+    public void setUp(@TempDir Path tmp) throws Exception {
+        imageHashIndex = new ImageHashIndex(100);
+        PDFMemoryBudget memoryBudget = new PDFMemoryBudget(1 << 20, 8 << 20, tmp.toString());
+        memoryBudget.postConstruct();
+        renderPipeline = new RenderPipeline(2, 1, 4, new SimpleMeterRegistry());
+        pdfToImageUtil = new PDFToImageUtil(4, 0, 0, imageHashIndex, memoryBudget, renderPipeline);
+        try (InputStream in = PDFToImageUtilTest.class.getResourceAsStream(PDF_RESOURCE)) {
+            pdf = IOUtils.toByteArray(in);
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        pdfToImageUtil.preDestroy();
+        renderPipeline.preDestroy();
+    }
+
+    @Test
+    public void testParallelRenderingIsIdenticalToSequentialRendering(@TempDir Path tmp) throws Exception {
+        Path sequential = Files.createDirectory(tmp.resolve("sequential"));
+        Path parallel = Files.createDirectory(tmp.resolve("parallel"));
+
+        int count = pdfToImageUtil.converPDFToImage(pdf, sequential + File.separator + "img.", DPI, 1.0f);
+        int parallelCount = pdfToImageUtil.converPDFToImageParallel(pdf, parallel + File.separator + "img.", DPI,
+            1.0f);
+
+        assertThat(count).isGreaterThan(1);
+        assertThat(parallelCount).isEqualTo(count);
+        for (int page = 1; page <= count; page++) {
+            String name = "img." + page + ".jpg";
+            assertThat(Files.readAllBytes(parallel.resolve(name))).isEqualTo(Files.readAllBytes(sequential.resolve(name)));
+        }
+    }
+
+    @Test
+    public void testPyramidSizesAreDownscaledFromTheFullSize(@TempDir Path tmp) throws Exception {
+        String prefix = tmp + File.separator + "img.";
+
+        int count = pdfToImageUtil.converPDFToImage(pdf, prefix, ImageSize.pyramid(DPI / 4, DPI / 2, DPI),
+            ImageFormat.JPEG, 1.0f, 1, 1);
+
+        assertThat(count).isEqualTo(1);
+        BufferedImage full = ImageIO.read(new File(ImageSize.FULL.getFileName(prefix, 1, "jpg")));
+        BufferedImage preview = ImageIO.read(new File(ImageSize.PREVIEW.getFileName(prefix, 1, "jpg")));
+        BufferedImage thumb = ImageIO.read(new File(ImageSize.THUMB.getFileName(prefix, 1, "jpg")));
+        assertThat(preview.getWidth()).isEqualTo(Math.round(full.getWidth() / 2.0f));
+        assertThat(thumb.getWidth()).isEqualTo(Math.round(preview.getWidth() / 2.0f));
+        assertThat(thumb.getHeight()).isLessThan(preview.getHeight());
+    }
+
+    @Test
+    public void testPngRenderingHasTheSizeOfTheJpegRendering(@TempDir Path tmp) throws Exception {
+        String prefix = tmp + File.separator + "img.";
+        assertThat(ImageFormat.availableFormats()).contains(ImageFormat.JPEG, ImageFormat.PNG);
+
+        pdfToImageUtil.converPDFToImage(pdf, prefix, ImageSize.fullOnly(DPI), ImageFormat.JPEG, 1.0f, 1, 1);
+        pdfToImageUtil.converPDFToImage(pdf, prefix, ImageSize.fullOnly(DPI), ImageFormat.PNG, 1.0f, 1, 1);
+
+        BufferedImage jpeg = ImageIO.read(new File(ImageSize.FULL.getFileName(prefix, 1, "jpg")));
+        BufferedImage png = ImageIO.read(new File(ImageSize.FULL.getFileName(prefix, 1, "png")));
+        assertThat(png.getWidth()).isEqualTo(jpeg.getWidth());
+        assertThat(png.getHeight()).isEqualTo(jpeg.getHeight());
+    }
+
+    @Test
+    public void testRenderingIndexesTheSha1OfTheImages(@TempDir Path tmp) throws Exception {
+        String prefix = tmp + File.separator + "img.";
+
+        pdfToImageUtil.converPDFToImage(pdf, prefix, ImageSize.pyramid(DPI / 4, DPI / 2, DPI), ImageFormat.JPEG,
+            1.0f, 1, 1);
+
+        for (ImageSize size : ImageSize.values()) {
+            String fileName = size.getFileName(prefix, 1, "jpg");
+            String sha1 = SHAUtil.hash(new File(fileName));
+            assertThat(imageHashIndex.get(fileName)).isEqualTo(sha1);
+            assertThat(new String(Files.readAllBytes(Paths.get(fileName + SHAUtil.SHA_EXTENSION)), StandardCharsets.UTF_8))
+                .isEqualTo(sha1);
+        }
+
+        imageHashIndex.removeDir(tmp.toString());
+        assertThat(imageHashIndex.size()).isZero();
+    }
+
+    @Test
+    public void testImagesOfTheUnchangedPagesAreReused(@TempDir Path tmp) throws Exception {
+        Path previous = Files.createDirectory(tmp.resolve("previous"));
+        Path next = Files.createDirectory(tmp.resolve("next"));
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        try (PDDocument document = PDDocument.load(pdf)) {
+            try (PDPageContentStream content = new PDPageContentStream(document, document.getPage(0),
+                AppendMode.APPEND, true, true)) {
+                content.addRect(10, 10, 50, 50);
+                content.fill();
+            }
+            document.save(edited);
+        }
+
+        int count = pdfToImageUtil.converPDFToImageParallel(pdf, previous + File.separator + "img.",
+            ImageSize.pyramid(DPI / 4, DPI / 2, DPI), ImageFormat.JPEG, 1.0f, null);
+        pdfToImageUtil.converPDFToImageParallel(edited.toByteArray(), next + File.separator + "img.",
+            ImageSize.pyramid(DPI / 4, DPI / 2, DPI), ImageFormat.JPEG, 1.0f, previous + File.separator + "img.");
+
+        assertThat(count).isGreaterThan(1);
+        assertThat(Files.readAllBytes(next.resolve("img.1.fp"))).isNotEqualTo(Files.readAllBytes(previous.resolve("img.1.fp")));
+        assertThat(Files.isSameFile(next.resolve("img.1.jpg"), previous.resolve("img.1.jpg"))).isFalse();
+        for (int page = 2; page <= count; page++) {
+            for (ImageSize size : ImageSize.values()) {
+                String name = size.getFileName("img.", page, "jpg");
+                assertThat(Files.isSameFile(next.resolve(name), previous.resolve(name))).isTrue();
+                assertThat(imageHashIndex.get(next.resolve(name).toString()))
+                    .isEqualTo(SHAUtil.hash(next.resolve(name).toFile()));
+            }
+        }
+    }
+
+    @Test
+    public void testRenderContextReusesTheRasterOfThePages() throws Exception {
+        try (PDDocument document = PDDocument.load(pdf); RenderContext context = new RenderContext()) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            BufferedImage expected = renderer.renderImageWithDPI(0, DPI, ImageType.RGB);
+
+            BufferedImage image = context.renderImage(renderer, document.getPage(0), 0, DPI, ImageType.RGB);
+            assertThat(image.getWidth()).isEqualTo(expected.getWidth());
+            assertThat(image.getHeight()).isEqualTo(expected.getHeight());
+            assertThat(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()))
+                .isEqualTo(expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()));
+
+            // the raster of the same dimensions is reused, and cleared
+            assertThat(context.renderImage(renderer, document.getPage(0), 0, DPI, ImageType.RGB)).isSameAs(image);
+            assertThat(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()))
+                .isEqualTo(expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0, expected.getWidth()));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertThat(context.write(image, ImageFormat.JPEG, out, DPI, 1.0f)).isTrue();
+            BufferedImage written = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            assertThat(written.getWidth()).isEqualTo(image.getWidth());
+        }
+    }
+
+    @Test
+    public void testEncodeStageDoesNotTimeTheWaitForTheWriteStage() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // a single write thread and a single place in its queue
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 1, registry);
+        try {
+            List<RenderPipeline.PageImage> images = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                images.add(new RenderPipeline.PageImage(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "img." + i, DPI));
+            }
+            RenderPipeline.Batch batch = pipeline.newBatch();
+            batch.submit(images, ImageFormat.PNG, 1.0f, (fileName, bytes, sha1) -> {
+                try {
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertThat(batch.await()).isTrue();
+
+            Timer encode = registry.get("docpreview.render.stage").tag("stage", "encode").timer();
+            Timer writeWait = registry.get("docpreview.render.stage.wait").tag("stage", "write").timer();
+            assertThat(encode.count()).isEqualTo(4);
+            assertThat(writeWait.count()).isEqualTo(4);
+            // the encodings waited for the slow writes, which are not timed as encoding
+            assertThat(writeWait.totalTime(TimeUnit.MILLISECONDS)).isGreaterThanOrEqualTo(800);
+            assertThat(encode.totalTime(TimeUnit.MILLISECONDS)).isLessThan(500);
+        } finally {
+            pipeline.preDestroy();
+        }
+    }
+
+    @Test
+    public void testCancelledBatchWritesNoImageOnceTerminated() throws Exception {
+        RenderPipeline pipeline = new RenderPipeline(1, 1, 4, new SimpleMeterRegistry());
+        try {
+            List<RenderPipeline.PageImage> images = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                images.add(new RenderPipeline.PageImage(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "img." + i, DPI));
+            }
+            List<String> written = Collections.synchronizedList(new ArrayList<>());
+            RenderPipeline.Batch batch = pipeline.newBatch();
+            batch.submit(images, ImageFormat.PNG, 1.0f, (fileName, bytes, sha1) -> {
+                if (fileName.equals("img.0")) {
+                    throw new IOException("No space left on device");
+                }
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                written.add(fileName);
+            });
+            assertThatThrownBy(batch::await).isInstanceOf(IOException.class);
+            batch.awaitTermination();
+
+            // the images cancelled by the failure are not written afterwards
+            List<String> terminated = new ArrayList<>(written);
+            Thread.sleep(500);
+            assertThat(written).isEqualTo(terminated);
+        } finally {
+            pipeline.preDestroy();
+        }
+    }
+
+    @Test
+    public void testBandedRenderingHasThePixelsOfTheWholePage() throws Exception {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            BufferedImage expected = renderer.renderImageWithDPI(0, DPI, ImageType.RGB);
+            // bands of 16 rows
+            try (RenderContext context = new RenderContext(expected.getWidth() * 4L * 16)) {
+                assertThat(context.getBandHeight(expected.getWidth(), expected.getHeight())).isEqualTo(16);
+
+                BufferedImage image = context.renderImage(renderer, document.getPage(0), 0, DPI, ImageType.RGB);
+                assertThat(image.getType()).isEqualTo(BufferedImage.TYPE_3BYTE_BGR);
+                assertThat(image.getWidth()).isEqualTo(expected.getWidth());
+                assertThat(image.getHeight()).isEqualTo(expected.getHeight());
+                int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+                int[] expectedPixels = expected.getRGB(0, 0, expected.getWidth(), expected.getHeight(), null, 0,
+                    expected.getWidth());
+                // the anti-aliasing may differ at the edges of the bands
+                int different = 0;
+                for (int i = 0; i < pixels.length; i++) {
+                    if (pixels[i] != expectedPixels[i]) {
+                        different++;
+                    }
+                }
+                assertThat(different).isLessThan(pixels.length / 100);
+
+                // the page image is not kept by the context
+                assertThat(context.renderImage(renderer, document.getPage(0), 0, DPI, ImageType.RGB)).isNotSameAs(image);
+            }
+        }
+    }
+
+    @Test
+    public void testResolutionOfTheLargePagesIsCapped() {
+        PDPage a4 = new PDPage(PDRectangle.A4);
+        assertThat(PDFToImageUtil.capDpi(a4, 300, 0)).isEqualTo(300);
+        assertThat(PDFToImageUtil.capDpi(a4, 300, 10_000_000)).isEqualTo(300);
+
+        int dpi = PDFToImageUtil.capDpi(a4, 300, 1_000_000);
+        assertThat(dpi).isEqualTo(101);
+        assertThat((double) a4.getMediaBox().getWidth() * a4.getMediaBox().getHeight() * dpi * dpi / (72 * 72))
+            .isLessThanOrEqualTo(1_000_000);
+
+        PDPage a0 = new PDPage(PDRectangle.A0);
+        assertThat(PDFToImageUtil.capDpi(a0, 300, 1_000_000)).isLessThan(dpi);
+    }
+}
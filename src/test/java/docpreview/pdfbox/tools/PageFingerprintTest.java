@@ -0,0 +1,81 @@
+package docpreview.pdfbox.tools;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.PDPageContentStream.AppendMode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the {@link PageFingerprint}.
+ */
+public class PageFingerprintTest {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    private byte[] pdf;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        try (InputStream in = PageFingerprintTest.class.getResourceAsStream(PDF_RESOURCE)) {
+            pdf = IOUtils.toByteArray(in);
+        }
+    }
+
+    @Test
+    public void testOnlyTheFingerprintOfTheEditedPageChanges() throws Exception {
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        try (PDDocument document = PDDocument.load(pdf)) {
+            try (PDPageContentStream content = new PDPageContentStream(document, document.getPage(1),
+                AppendMode.APPEND, true, true)) {
+                content.addRect(10, 10, 50, 50);
+                content.fill();
+            }
+            document.save(edited);
+        }
+
+        try (PDDocument document = PDDocument.load(pdf);
+            PDDocument editedDocument = PDDocument.load(edited.toByteArray())) {
+            PageFingerprint fingerprints = new PageFingerprint("settings");
+            PageFingerprint editedFingerprints = new PageFingerprint("settings");
+            assertThat(document.getNumberOfPages()).isGreaterThan(2);
+            for (int i = 0; i < document.getNumberOfPages(); i++) {
+                String fingerprint = fingerprints.compute(document.getPage(i));
+                String editedFingerprint = editedFingerprints.compute(editedDocument.getPage(i));
+                if (i == 1) {
+                    assertThat(editedFingerprint).isNotEqualTo(fingerprint);
+                } else {
+                    assertThat(editedFingerprint).isEqualTo(fingerprint);
+                }
+            }
+            assertThat(new PageFingerprint("other settings").compute(document.getPage(0)))
+                .isNotEqualTo(fingerprints.compute(document.getPage(0)));
+        }
+    }
+
+    @Test
+    public void testFingerprintsAreReadFromTheirFiles(@TempDir Path tmp) throws Exception {
+        String prefix = tmp.resolve("img.").toString();
+        Files.write(tmp.resolve("img.1.fp"), "abc".getBytes(StandardCharsets.UTF_8));
+        Files.write(tmp.resolve("img.12.fp"), "def".getBytes(StandardCharsets.UTF_8));
+        Files.write(tmp.resolve("img.1.jpg"), new byte[] { 1 });
+        Files.write(tmp.resolve("other.2.fp"), "ghi".getBytes(StandardCharsets.UTF_8));
+
+        Map<String, Integer> fingerprints = PageFingerprint.readFingerprints(prefix);
+
+        assertThat(fingerprints).hasSize(2).containsEntry("abc", 1).containsEntry("def", 12);
+        assertThat(PageFingerprint.getFileName(prefix, 12)).isEqualTo(tmp.resolve("img.12.fp").toString());
+        assertThat(PageFingerprint.readFingerprints(tmp.resolve("missing").resolve("img.").toString())).isEmpty();
+    }
+}
@@ -0,0 +1,23 @@
+package docpreview.service.dto;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import docpreview.web.rest.TestUtil;
+
+public class DocSummaryDTOTest {
+
+    @Test
+    public void dtoEqualsVerifier() throws Exception {
+        TestUtil.equalsVerifier(DocSummaryDTO.class);
+        DocSummaryDTO docSummaryDTO1 = new DocSummaryDTO();
+        docSummaryDTO1.setId(1L);
+        DocSummaryDTO docSummaryDTO2 = new DocSummaryDTO();
+        assertThat(docSummaryDTO1).isNotEqualTo(docSummaryDTO2);
+        docSummaryDTO2.setId(docSummaryDTO1.getId());
+        assertThat(docSummaryDTO1).isEqualTo(docSummaryDTO2);
+        docSummaryDTO2.setId(2L);
+        assertThat(docSummaryDTO1).isNotEqualTo(docSummaryDTO2);
+        docSummaryDTO1.setId(null);
+        assertThat(docSummaryDTO1).isNotEqualTo(docSummaryDTO2);
+    }
+}
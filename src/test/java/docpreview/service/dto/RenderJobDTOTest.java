@@ -0,0 +1,23 @@
+package docpreview.service.dto;
+
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+import docpreview.web.rest.TestUtil;
+
+public class RenderJobDTOTest {
+
+    @Test
+    public void dtoEqualsVerifier() throws Exception {
+        TestUtil.equalsVerifier(RenderJobDTO.class);
+        RenderJobDTO renderJobDTO1 = new RenderJobDTO();
+        renderJobDTO1.setId(1L);
+        RenderJobDTO renderJobDTO2 = new RenderJobDTO();
+        assertThat(renderJobDTO1).isNotEqualTo(renderJobDTO2);
+        renderJobDTO2.setId(renderJobDTO1.getId());
+        assertThat(renderJobDTO1).isEqualTo(renderJobDTO2);
+        renderJobDTO2.setId(2L);
+        assertThat(renderJobDTO1).isNotEqualTo(renderJobDTO2);
+        renderJobDTO1.setId(null);
+        assertThat(renderJobDTO1).isNotEqualTo(renderJobDTO2);
+    }
+}
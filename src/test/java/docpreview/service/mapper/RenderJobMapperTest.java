@@ -0,0 +1,22 @@
+package docpreview.service.mapper;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RenderJobMapperTest {
+
+    private RenderJobMapper renderJobMapper;
+
+    @BeforeEach
+    public void setUp() {
+        renderJobMapper = new RenderJobMapperImpl();
+    }
+
+    @Test
+    public void testEntityFromId() {
+        Long id = 1L;
+        assertThat(renderJobMapper.fromId(id).getId()).isEqualTo(id);
+        assertThat(renderJobMapper.fromId(null)).isNull();
+    }
+}
@@ -0,0 +1,60 @@
+package docpreview.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test class for the {@link MappedFileCache}.
+ */
+public class MappedFileCacheTest {
+
+    @Test
+    public void testMappedFileIsServedFromTheCache(@TempDir Path tmp) throws Exception {
+        File file = Files.write(tmp.resolve("img.1.jpg"), new byte[] { 1, 2, 3 }).toFile();
+        MappedFileCache cache = new MappedFileCache(10, 10);
+
+        ByteBuffer first = cache.get(file);
+        ByteBuffer second = cache.get(file);
+
+        assertThat(first.remaining()).isEqualTo(3);
+        assertThat(second.get(2)).isEqualTo((byte) 3);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedFileIsEvicted(@TempDir Path tmp) throws Exception {
+        File a = Files.write(tmp.resolve("a"), new byte[4]).toFile();
+        File b = Files.write(tmp.resolve("b"), new byte[4]).toFile();
+        File c = Files.write(tmp.resolve("c"), new byte[4]).toFile();
+        MappedFileCache cache = new MappedFileCache(8, 8);
+
+        cache.get(a);
+        cache.get(b);
+        cache.get(a);
+        cache.get(c);
+        cache.get(a);
+
+        assertThat(cache.getSize()).isEqualTo(8);
+        assertThat(cache.getHits()).isEqualTo(2);
+        cache.get(b);
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    public void testLargeFileIsNotMapped(@TempDir Path tmp) throws Exception {
+        File file = Files.write(tmp.resolve("large"), new byte[16]).toFile();
+        MappedFileCache cache = new MappedFileCache(64, 8);
+
+        assertThat(cache.get(file)).isNull();
+        assertThat(new MappedFileCache(0, 8).get(file)).isNull();
+    }
+}
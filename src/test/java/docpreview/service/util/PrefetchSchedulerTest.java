@@ -0,0 +1,104 @@
+package docpreview.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the {@link PrefetchScheduler}.
+ */
+public class PrefetchSchedulerTest {
+
+    @Test
+    public void testTasksRunInOrderWhenIdle() throws Exception {
+        PrefetchScheduler<String> scheduler = new PrefetchScheduler<>(1, 8, 10000, 1, () -> true, "test-prefetch-");
+        List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        try {
+            scheduler.schedule("doc", Arrays.asList(run(runs, 1, done), run(runs, 2, done), run(runs, 3, done)));
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(runs).containsExactly(1, 2, 3);
+            assertThat(scheduler.getExecuted()).isEqualTo(3);
+            assertThat(scheduler.getPending()).isZero();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testTasksWaitForTheInteractiveWork() throws Exception {
+        AtomicBoolean idle = new AtomicBoolean(false);
+        PrefetchScheduler<String> scheduler = new PrefetchScheduler<>(1, 8, 10000, 1, idle::get, "test-prefetch-");
+        List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            scheduler.schedule("doc", Collections.singletonList(run(runs, 1, done)));
+
+            assertThat(done.await(100, TimeUnit.MILLISECONDS)).isFalse();
+            assertThat(scheduler.getPending()).isEqualTo(1);
+            idle.set(true);
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(runs).containsExactly(1);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testTasksOfAKeyAreCancelledByTheNextTasks() throws Exception {
+        AtomicBoolean idle = new AtomicBoolean(false);
+        PrefetchScheduler<String> scheduler = new PrefetchScheduler<>(1, 8, 10000, 1, idle::get, "test-prefetch-");
+        List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            scheduler.schedule("doc", Arrays.asList(run(runs, 1, null), run(runs, 2, null)));
+            scheduler.schedule("doc", Collections.singletonList(run(runs, 3, done)));
+            idle.set(true);
+
+            assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(runs).containsExactly(3);
+            assertThat(scheduler.getCancelled()).isEqualTo(2);
+            assertThat(scheduler.getPending()).isZero();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testTasksAreDroppedWithoutIdleCapacity() throws Exception {
+        PrefetchScheduler<String> scheduler = new PrefetchScheduler<>(1, 2, 50, 1, () -> false, "test-prefetch-");
+        List<Integer> runs = Collections.synchronizedList(new ArrayList<>());
+        try {
+            scheduler.schedule("doc", Arrays.asList(run(runs, 1, null), run(runs, 2, null), run(runs, 3, null)));
+            assertThat(scheduler.getDropped()).isEqualTo(1);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (scheduler.getPending() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(scheduler.getPending()).isZero();
+            assertThat(scheduler.getDropped()).isEqualTo(3);
+            assertThat(runs).isEmpty();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static Runnable run(List<Integer> runs, int id, CountDownLatch done) {
+        return () -> {
+            runs.add(id);
+            if (done != null) {
+                done.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,138 @@
+package docpreview.service.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for the {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 4;
+
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareASingleExecution() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Integer> first = executor.submit(() -> singleFlight.execute("key", () -> {
+            executions.incrementAndGet();
+            await(release);
+            return 42;
+        }));
+        awaitInFlight(singleFlight);
+        List<Future<Integer>> waiters = submitWaiters(singleFlight, () -> {
+            executions.incrementAndGet();
+            return 0;
+        });
+        awaitCoalesced(singleFlight, CALLERS - 1);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(42);
+        for (Future<Integer> waiter : waiters) {
+            assertThat(waiter.get(5, TimeUnit.SECONDS)).isEqualTo(42);
+        }
+        assertThat(executions.get()).isEqualTo(1);
+        assertThat(singleFlight.getExecuted()).isEqualTo(1);
+        assertThat(singleFlight.getCoalesced()).isEqualTo(CALLERS - 1);
+        assertThat(singleFlight.getInFlight()).isZero();
+    }
+
+    @Test
+    public void testExceptionReachesEveryWaiter() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<Integer> first = executor.submit(() -> singleFlight.execute("key", () -> {
+            await(release);
+            throw new IllegalStateException("failed");
+        }));
+        awaitInFlight(singleFlight);
+        List<Future<Integer>> waiters = submitWaiters(singleFlight, () -> 0);
+        awaitCoalesced(singleFlight, CALLERS - 1);
+        release.countDown();
+
+        List<Future<Integer>> callers = new ArrayList<>(waiters);
+        callers.add(first);
+        for (Future<Integer> caller : callers) {
+            assertThatThrownBy(() -> caller.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class).hasMessageContaining("failed");
+        }
+    }
+
+    @Test
+    public void testKeyIsReleasedAfterAFailure() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+
+        assertThatThrownBy(() -> singleFlight.execute("key", () -> {
+            throw new IllegalStateException("failed");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(singleFlight.getInFlight()).isZero();
+
+        // the retry runs again instead of getting the failure
+        assertThat(singleFlight.execute("key", () -> 42)).isEqualTo(42);
+        assertThat(singleFlight.getExecuted()).isEqualTo(2);
+        assertThat(singleFlight.getCoalesced()).isZero();
+    }
+
+    private List<Future<Integer>> submitWaiters(SingleFlight<String, Integer> singleFlight, Supplier<Integer> computation) {
+        List<Future<Integer>> waiters = new ArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            waiters.add(executor.submit(() -> singleFlight.execute("key", computation)));
+        }
+        return waiters;
+    }
+
+    private static void awaitInFlight(SingleFlight<String, Integer> singleFlight) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getInFlight() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(singleFlight.getInFlight()).isEqualTo(1);
+    }
+
+    private static void awaitCoalesced(SingleFlight<String, Integer> singleFlight, long coalesced)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (singleFlight.getCoalesced() < coalesced && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(singleFlight.getCoalesced()).isEqualTo(coalesced);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
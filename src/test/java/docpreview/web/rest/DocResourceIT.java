@@ -2,30 +2,70 @@ package docpreview.web.rest;
 
 import docpreview.DocpreviewApp;
 import docpreview.domain.Doc;
+import docpreview.domain.RenderJob;
+import docpreview.pdfbox.tools.ContentVariant;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.PageFingerprint;
+import docpreview.pdfbox.tools.SHAUtil;
 import docpreview.repository.DocRepository;
+import docpreview.repository.RenderJobRepository;
+import docpreview.domain.enumeration.RenderJobStatus;
 import docpreview.service.DocService;
+import docpreview.service.RenderJobService;
+import docpreview.service.RenderQueueFullException;
 import docpreview.service.dto.DocDTO;
+import docpreview.service.dto.RenderJobDTO;
+import docpreview.service.impl.ContentStoreServiceImpl;
+import docpreview.service.impl.FilesystemServiceImpl;
 import docpreview.service.mapper.DocMapper;
 import docpreview.service.dto.DocCriteria;
 import docpreview.service.DocQueryService;
 
+import com.jayway.jsonpath.JsonPath;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.util.Base64Utils;
 import javax.persistence.EntityManager;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -52,6 +92,10 @@ public class DocResourceIT {
     private static final String DEFAULT_CONTENT_CONTENT_TYPE = "image/jpg";
     private static final String UPDATED_CONTENT_CONTENT_TYPE = "image/png";
 
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    private static final byte[] RANGE_CONTENT = "0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII);
+
     private static final String DEFAULT_CONTENT_SHA_1 = "6f7a06c0dd8059aaa2c9d3a8497409d54ab3ac11";
     private static final String UPDATED_CONTENT_SHA_1 = "23d0d6a6f858e60c8e297ed38fef8601cb9ceb75";
 
@@ -77,9 +121,24 @@ public class DocResourceIT {
     @Autowired
     private DocQueryService docQueryService;
 
+    @Autowired
+    private RenderJobService renderJobService;
+
+    @Autowired
+    private RenderJobRepository renderJobRepository;
+
+    @Autowired
+    private ContentStoreServiceImpl contentStoreServiceImpl;
+
+    @Autowired
+    private FilesystemServiceImpl filesystemServiceImpl;
+
     @Autowired
     private EntityManager em;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Autowired
     private MockMvc restDocMockMvc;
 
@@ -148,7 +207,8 @@ public class DocResourceIT {
         assertThat(testDoc.getTitle()).isEqualTo(DEFAULT_TITLE);
         assertThat(testDoc.getLanguage()).isEqualTo(DEFAULT_LANGUAGE);
         assertThat(testDoc.getDescription()).isEqualTo(DEFAULT_DESCRIPTION);
-        assertThat(testDoc.getContent()).isEqualTo(DEFAULT_CONTENT);
+        assertThat(Files.readAllBytes(contentStoreServiceImpl.getContentFile(testDoc.getContentSha1()).toPath()))
+            .isEqualTo(DEFAULT_CONTENT);
         assertThat(testDoc.getContentContentType()).isEqualTo(DEFAULT_CONTENT_CONTENT_TYPE);
         assertThat(testDoc.getContentSha1()).isEqualTo(DEFAULT_CONTENT_SHA_1);
         assertThat(testDoc.getNumberOfPages()).isEqualTo(DEFAULT_NUMBER_OF_PAGES);
@@ -156,6 +216,131 @@ public class DocResourceIT {
         assertThat(testDoc.getUpdatedAt()).isEqualTo(DEFAULT_UPDATED_AT);
     }
 
+    @Test
+    @Transactional
+    public void uploadDoc() throws Exception {
+        int databaseSizeBeforeCreate = docRepository.findAll().size();
+
+        // Upload the Doc, the content is the file part
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContent(null);
+        docDTO.setContentContentType(null);
+        docDTO.setContentSha1(null);
+        MockMultipartFile docPart = new MockMultipartFile("doc", "", MediaType.APPLICATION_JSON_VALUE,
+            TestUtil.convertObjectToJsonBytes(docDTO));
+        MockMultipartFile filePart = new MockMultipartFile("file", "doc.jpg", DEFAULT_CONTENT_CONTENT_TYPE, DEFAULT_CONTENT);
+        restDocMockMvc.perform(multipart("/api/docs").file(docPart).file(filePart))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.contentSha1").value(DEFAULT_CONTENT_SHA_1))
+            .andExpect(jsonPath("$.content").doesNotExist());
+
+        // Validate the Doc in the database
+        List<Doc> docList = docRepository.findAll();
+        assertThat(docList).hasSize(databaseSizeBeforeCreate + 1);
+        Doc testDoc = docList.get(docList.size() - 1);
+        assertThat(testDoc.getTitle()).isEqualTo(DEFAULT_TITLE);
+        assertThat(testDoc.getContentContentType()).isEqualTo(DEFAULT_CONTENT_CONTENT_TYPE);
+        assertThat(testDoc.getContentSha1()).isEqualTo(DEFAULT_CONTENT_SHA_1);
+        assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).hasBinaryContent(DEFAULT_CONTENT);
+    }
+
+    @Test
+    @Transactional
+    public void uploadDocWithContent() throws Exception {
+        int databaseSizeBeforeCreate = docRepository.findAll().size();
+
+        // The content can not be both in the doc part and in the file part
+        MockMultipartFile docPart = new MockMultipartFile("doc", "", MediaType.APPLICATION_JSON_VALUE,
+            TestUtil.convertObjectToJsonBytes(docMapper.toDto(doc)));
+        MockMultipartFile filePart = new MockMultipartFile("file", "doc.jpg", DEFAULT_CONTENT_CONTENT_TYPE, DEFAULT_CONTENT);
+        restDocMockMvc.perform(multipart("/api/docs").file(docPart).file(filePart))
+            .andExpect(status().isBadRequest());
+
+        assertThat(docRepository.findAll()).hasSize(databaseSizeBeforeCreate);
+    }
+
+    @Test
+    @Transactional
+    public void createDocWithAFullRenderQueue() throws Exception {
+        int databaseSizeBeforeCreate = docRepository.findAll().size();
+
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContentContentType("application/pdf");
+        Object renderJobServiceImpl = AopTestUtils.getTargetObject(renderJobService);
+        Object maxQueued = ReflectionTestUtils.getField(renderJobServiceImpl, "maxQueued");
+        ReflectionTestUtils.setField(renderJobServiceImpl, "maxQueued", 0L);
+        try {
+            // The upload is rejected
+            restDocMockMvc.perform(post("/api/docs")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(TestUtil.convertObjectToJsonBytes(docDTO)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(jsonPath("$.message").value("error.renderQueueFull"));
+            assertThat(docRepository.findAll()).hasSize(databaseSizeBeforeCreate);
+
+            // The upload is accepted with its rendering queued
+            restDocMockMvc.perform(post("/api/docs")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(TestUtil.convertObjectToJsonBytes(docDTO)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+                .andExpect(header().string("Preference-Applied", "respond-async"))
+                .andExpect(header().string(HttpHeaders.LOCATION, containsString("/render-status")));
+            assertThat(docRepository.findAll()).hasSize(databaseSizeBeforeCreate + 1);
+        } finally {
+            ReflectionTestUtils.setField(renderJobServiceImpl, "maxQueued", maxQueued);
+        }
+    }
+
+    @Test
+    public void concurrentAdmissionsAtTheLimitAreRejected() throws Exception {
+        Object renderJobServiceImpl = AopTestUtils.getTargetObject(renderJobService);
+        Object maxQueued = ReflectionTestUtils.getField(renderJobServiceImpl, "maxQueued");
+        // a single place left in the render queue
+        ReflectionTestUtils.setField(renderJobServiceImpl, "maxQueued",
+            (long) meterRegistry.get("docpreview.render.queue.depth").gauge().value() + 1);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch checked = new CountDownLatch(threads);
+            List<Future<Boolean>> admissions = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                admissions.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        renderJobService.checkAdmission();
+                        return true;
+                    } catch (RenderQueueFullException e) {
+                        return false;
+                    } finally {
+                        // the admissions are held until all the threads are checked
+                        checked.countDown();
+                        checked.await();
+                        renderJobService.releaseAdmission();
+                    }
+                }));
+            }
+            start.countDown();
+            int admitted = 0;
+            for (Future<Boolean> admission : admissions) {
+                if (admission.get(30, TimeUnit.SECONDS)) {
+                    admitted++;
+                }
+            }
+            assertThat(admitted).isEqualTo(1);
+
+            // the released admission frees its place
+            renderJobService.checkAdmission();
+            renderJobService.releaseAdmission();
+        } finally {
+            executor.shutdownNow();
+            ReflectionTestUtils.setField(renderJobServiceImpl, "maxQueued", maxQueued);
+        }
+    }
+
     @Test
     @Transactional
     public void createDocWithExistingId() throws Exception {
@@ -230,7 +415,7 @@ public class DocResourceIT {
             .andExpect(jsonPath("$.[*].language").value(hasItem(DEFAULT_LANGUAGE)))
             .andExpect(jsonPath("$.[*].description").value(hasItem(DEFAULT_DESCRIPTION)))
             .andExpect(jsonPath("$.[*].contentContentType").value(hasItem(DEFAULT_CONTENT_CONTENT_TYPE)))
-            .andExpect(jsonPath("$.[*].content").value(hasItem(Base64Utils.encodeToString(DEFAULT_CONTENT))))
+            .andExpect(jsonPath("$.[*].content").doesNotExist())
             .andExpect(jsonPath("$.[*].contentSha1").value(hasItem(DEFAULT_CONTENT_SHA_1)))
             .andExpect(jsonPath("$.[*].numberOfPages").value(hasItem(DEFAULT_NUMBER_OF_PAGES)))
             .andExpect(jsonPath("$.[*].createdAt").value(hasItem(DEFAULT_CREATED_AT.toString())))
@@ -252,7 +437,7 @@ public class DocResourceIT {
             .andExpect(jsonPath("$.language").value(DEFAULT_LANGUAGE))
             .andExpect(jsonPath("$.description").value(DEFAULT_DESCRIPTION))
             .andExpect(jsonPath("$.contentContentType").value(DEFAULT_CONTENT_CONTENT_TYPE))
-            .andExpect(jsonPath("$.content").value(Base64Utils.encodeToString(DEFAULT_CONTENT)))
+            .andExpect(jsonPath("$.content").doesNotExist())
             .andExpect(jsonPath("$.contentSha1").value(DEFAULT_CONTENT_SHA_1))
             .andExpect(jsonPath("$.numberOfPages").value(DEFAULT_NUMBER_OF_PAGES))
             .andExpect(jsonPath("$.createdAt").value(DEFAULT_CREATED_AT.toString()))
@@ -811,7 +996,7 @@ public class DocResourceIT {
             .andExpect(jsonPath("$.[*].language").value(hasItem(DEFAULT_LANGUAGE)))
             .andExpect(jsonPath("$.[*].description").value(hasItem(DEFAULT_DESCRIPTION)))
             .andExpect(jsonPath("$.[*].contentContentType").value(hasItem(DEFAULT_CONTENT_CONTENT_TYPE)))
-            .andExpect(jsonPath("$.[*].content").value(hasItem(Base64Utils.encodeToString(DEFAULT_CONTENT))))
+            .andExpect(jsonPath("$.[*].content").doesNotExist())
             .andExpect(jsonPath("$.[*].contentSha1").value(hasItem(DEFAULT_CONTENT_SHA_1)))
             .andExpect(jsonPath("$.[*].numberOfPages").value(hasItem(DEFAULT_NUMBER_OF_PAGES)))
             .andExpect(jsonPath("$.[*].createdAt").value(hasItem(DEFAULT_CREATED_AT.toString())))
@@ -886,7 +1071,8 @@ public class DocResourceIT {
         assertThat(testDoc.getTitle()).isEqualTo(UPDATED_TITLE);
         assertThat(testDoc.getLanguage()).isEqualTo(UPDATED_LANGUAGE);
         assertThat(testDoc.getDescription()).isEqualTo(UPDATED_DESCRIPTION);
-        assertThat(testDoc.getContent()).isEqualTo(UPDATED_CONTENT);
+        assertThat(Files.readAllBytes(contentStoreServiceImpl.getContentFile(testDoc.getContentSha1()).toPath()))
+            .isEqualTo(UPDATED_CONTENT);
         assertThat(testDoc.getContentContentType()).isEqualTo(UPDATED_CONTENT_CONTENT_TYPE);
         assertThat(testDoc.getContentSha1()).isEqualTo(UPDATED_CONTENT_SHA_1);
         assertThat(testDoc.getNumberOfPages()).isEqualTo(UPDATED_NUMBER_OF_PAGES);
@@ -894,6 +1080,61 @@ public class DocResourceIT {
         assertThat(testDoc.getUpdatedAt()).isEqualTo(UPDATED_UPDATED_AT);
     }
 
+    @Test
+    @Transactional
+    public void updateDocMetadataKeepsTheRenderedPages() throws Exception {
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContentContentType("application/pdf");
+        DocDTO saved = docService.save(docDTO);
+        Long jobId = renderJobService.findLastByDocId(saved.getId()).get().getId();
+
+        // The rendering of the content is pending: an update of the title does not enqueue it again
+        saved.setTitle(UPDATED_TITLE);
+        restDocMockMvc.perform(put("/api/docs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(TestUtil.convertObjectToJsonBytes(saved)))
+            .andExpect(status().isOk());
+        assertThat(renderJobService.findLastByDocId(saved.getId()).get().getId()).isEqualTo(jobId);
+
+        // The content is rendered: an update of the title keeps its pages
+        docRepository.updateNumberOfPages(saved.getId(), DEFAULT_CONTENT_SHA_1, UPDATED_NUMBER_OF_PAGES);
+        em.clear();
+        saved.setDescription(UPDATED_DESCRIPTION);
+        restDocMockMvc.perform(put("/api/docs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(TestUtil.convertObjectToJsonBytes(saved)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.numberOfPages").value(UPDATED_NUMBER_OF_PAGES));
+        Doc testDoc = docRepository.findById(saved.getId()).get();
+        assertThat(testDoc.getTitle()).isEqualTo(UPDATED_TITLE);
+        assertThat(testDoc.getDescription()).isEqualTo(UPDATED_DESCRIPTION);
+        assertThat(testDoc.getNumberOfPages()).isEqualTo(UPDATED_NUMBER_OF_PAGES);
+        assertThat(renderJobService.findLastByDocId(saved.getId()).get().getId()).isEqualTo(jobId);
+    }
+
+    @Test
+    @Transactional
+    public void updateDocContentKeepsThePreviousPagesUntilRendered() throws Exception {
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContentContentType("application/pdf");
+        DocDTO saved = docService.save(docDTO);
+        assertThat(contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, saved.getId())).contains(DEFAULT_CONTENT_SHA_1);
+
+        // The new content is linked by its render job, once its pages are rendered
+        saved.setContent(UPDATED_CONTENT);
+        DocDTO updated = docService.save(saved);
+        assertThat(updated.getContentSha1()).isEqualTo(UPDATED_CONTENT_SHA_1);
+        assertThat(updated.getNumberOfPages()).isNull();
+        assertThat(contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, saved.getId())).contains(DEFAULT_CONTENT_SHA_1);
+        assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).exists();
+        assertThat(contentStoreServiceImpl.getContentFile(UPDATED_CONTENT_SHA_1)).hasBinaryContent(UPDATED_CONTENT);
+
+        // The new content is linked at once when it is not rendered
+        updated.setContentContentType(DEFAULT_CONTENT_CONTENT_TYPE);
+        docService.save(updated);
+        assertThat(contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, saved.getId())).contains(UPDATED_CONTENT_SHA_1);
+    }
+
     @Test
     @Transactional
     public void updateNonExistingDoc() throws Exception {
@@ -930,4 +1171,383 @@ public class DocResourceIT {
         List<Doc> docList = docRepository.findAll();
         assertThat(docList).hasSize(databaseSizeBeforeDelete - 1);
     }
+
+    @Test
+    public void createDocRendersThePagesInARenderJob() throws Exception {
+        // Create the Doc, the render job runs once the doc is committed
+        byte[] pdf = readPdf();
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContent(pdf);
+        docDTO.setContentContentType("application/pdf");
+        MvcResult mvcResult = restDocMockMvc.perform(post("/api/docs")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(TestUtil.convertObjectToJsonBytes(docDTO)))
+            .andExpect(status().isCreated())
+            .andReturn();
+        Long id = ((Number) JsonPath.read(mvcResult.getResponse().getContentAsString(), "$.id")).longValue();
+        try (PDDocument document = PDDocument.load(pdf)) {
+            long deadline = System.currentTimeMillis() + 30000;
+            String renderStatus;
+            do {
+                Thread.sleep(50);
+                mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/render-status", id))
+                    .andExpect(status().isOk())
+                    .andReturn();
+                renderStatus = JsonPath.read(mvcResult.getResponse().getContentAsString(), "$.status");
+            } while (!RenderJobStatus.DONE.name().equals(renderStatus) && !RenderJobStatus.FAILED.name().equals(renderStatus)
+                && System.currentTimeMillis() < deadline);
+
+            restDocMockMvc.perform(get("/api/docs/{id}/render-status", id))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.docId").value(id.intValue()))
+                .andExpect(jsonPath("$.status").value(RenderJobStatus.DONE.name()))
+                .andExpect(jsonPath("$.numberOfPages").value(document.getNumberOfPages()));
+        } finally {
+            docService.delete(id);
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getNonExistingRenderStatus() throws Exception {
+        // Get the render status of a doc without render job
+        restDocMockMvc.perform(get("/api/docs/{id}/render-status", Long.MAX_VALUE))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getDocContent() throws Exception {
+        // Initialize the database, the content is streamed outside of the test transaction
+        docRepository.saveAndFlush(doc);
+        try {
+            MvcResult mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content", doc.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(DEFAULT_CONTENT_CONTENT_TYPE))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + DEFAULT_CONTENT_SHA_1 + "\""))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, DEFAULT_CONTENT.length))
+                .andExpect(content().bytes(DEFAULT_CONTENT));
+        } finally {
+            docRepository.deleteById(doc.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getDocContentOfAMissingContentIsNotFound() throws Exception {
+        // Initialize the database, the content is neither in the database nor in the content store
+        doc.setContent(null);
+        doc.setContentSha1(SHAUtil.hash(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)));
+        docRepository.saveAndFlush(doc);
+
+        restDocMockMvc.perform(get("/api/docs/{id}/content", doc.getId()))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getDocContentRange() throws Exception {
+        // Initialize the content store, the ranges are streamed outside of the test transaction
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+        try {
+            MvcResult mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content", docDTO.getId())
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, "\"" + docDTO.getContentSha1() + "\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().contentType(DEFAULT_CONTENT_CONTENT_TYPE))
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-5/" + RANGE_CONTENT.length))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 4))
+                .andExpect(content().bytes("2345".getBytes(StandardCharsets.US_ASCII)));
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    public void getDocContentMultipleRanges() throws Exception {
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+        try {
+            MvcResult mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content", docDTO.getId())
+                .header(HttpHeaders.RANGE, "bytes=0-1,-3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            mvcResult = restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")))
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().string(containsString("Content-Range: bytes 0-1/20\r\n\r\n01\r\n")))
+                .andExpect(content().string(containsString("Content-Range: bytes 17-19/20\r\n\r\nhij\r\n")))
+                .andReturn();
+            assertThat(mvcResult.getResponse().getContentAsByteArray().length)
+                .isEqualTo(mvcResult.getResponse().getContentLength());
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    public void getDocContentRangeOfAChangedContent() throws Exception {
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+        try {
+            MvcResult mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content", docDTO.getId())
+                .header(HttpHeaders.RANGE, "bytes=2-5")
+                .header(HttpHeaders.IF_RANGE, "\"" + DEFAULT_CONTENT_SHA_1 + "\""))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(content().bytes(RANGE_CONTENT));
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getDocContentUnsatisfiableRange() throws Exception {
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+
+        restDocMockMvc.perform(get("/api/docs/{id}/content", docDTO.getId())
+            .header(HttpHeaders.RANGE, "bytes=20-30"))
+            .andExpect(status().isRequestedRangeNotSatisfiable())
+            .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + RANGE_CONTENT.length));
+    }
+
+    @Test
+    public void getDocContentVariant() throws Exception {
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+        try {
+            // the original content is sent until the variant is written
+            MvcResult mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content?variant=first-page", docDTO.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + docDTO.getContentSha1() + "\""))
+                .andExpect(content().bytes(RANGE_CONTENT));
+
+            contentStoreServiceImpl.putVariant(docDTO.getContentSha1(), ContentVariant.FIRST_PAGE,
+                (in, out) -> Files.write(out.toPath(), "variant".getBytes(StandardCharsets.US_ASCII)));
+            mvcResult = restDocMockMvc.perform(get("/api/docs/{id}/content?variant=first-page", docDTO.getId()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+            restDocMockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"" + docDTO.getContentSha1() + "-first-page\""))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 7))
+                .andExpect(content().string("variant"));
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    @Transactional
+    public void getDocContentUnknownVariant() throws Exception {
+        DocDTO docDTO = saveDocWithContent(RANGE_CONTENT);
+
+        restDocMockMvc.perform(get("/api/docs/{id}/content?variant=unknown", docDTO.getId()))
+            .andExpect(status().isBadRequest());
+    }
+
+    private DocDTO saveDocWithContent(byte[] content) {
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContent(content);
+        return docService.save(docDTO);
+    }
+
+    @Test
+    @Transactional
+    public void getNotModifiedDocContent() throws Exception {
+        // Initialize the database
+        docRepository.saveAndFlush(doc);
+
+        restDocMockMvc.perform(get("/api/docs/{id}/content", doc.getId())
+            .header(HttpHeaders.IF_NONE_MATCH, "\"" + DEFAULT_CONTENT_SHA_1 + "\""))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    @Transactional
+    public void getNonExistingDocContent() throws Exception {
+        restDocMockMvc.perform(get("/api/docs/{id}/content", Long.MAX_VALUE))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @Transactional
+    public void createDocsWithSameContentShareTheStoredContent() throws Exception {
+        DocDTO docDTO = docMapper.toDto(doc);
+        DocDTO first = docService.save(docDTO);
+        DocDTO second = docService.save(docDTO);
+
+        assertThat(second.getId()).isNotEqualTo(first.getId());
+        assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).hasBinaryContent(DEFAULT_CONTENT);
+        Path firstDir = Paths.get(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME, first.getId()));
+        Path secondDir = Paths.get(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME, second.getId()));
+        assertThat(Files.isSymbolicLink(firstDir)).isTrue();
+        assertThat(Files.readSymbolicLink(secondDir)).isEqualTo(Files.readSymbolicLink(firstDir));
+        assertThat(docRepository.findById(second.getId()).get().getContent()).isNull();
+    }
+
+    @Test
+    public void unlinkedContentIsReleasedOnStartup() throws Exception {
+        DocDTO docDTO = saveDocWithContent(DEFAULT_CONTENT);
+        // a content released before a restart, not deleted yet
+        String orphanSha1 = "00" + DEFAULT_CONTENT_SHA_1.substring(2);
+        Path orphan = Paths.get(contentStoreServiceImpl.getShaPath(orphanSha1));
+        Files.createDirectories(orphan);
+        Files.write(orphan.resolve(ContentStoreServiceImpl.CONTENT_FILE), UPDATED_CONTENT);
+        try {
+            contentStoreServiceImpl.releaseUnlinked();
+
+            long deadline = System.currentTimeMillis() + 30000;
+            while (Files.exists(orphan) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+                contentStoreServiceImpl.collectReleased();
+            }
+            assertThat(orphan).doesNotExist();
+            assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).hasBinaryContent(DEFAULT_CONTENT);
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    public void releasedContentIsKeptWhileLinkedByAPendingRendering() throws Exception {
+        DocDTO first = saveDocWithContent(DEFAULT_CONTENT);
+        DocDTO second = saveDocWithContent(DEFAULT_CONTENT);
+        try {
+            // the first doc has a new content being rendered, it is still linked to the shared content
+            Doc firstDoc = docRepository.findById(first.getId()).get();
+            firstDoc.setContentSha1(UPDATED_CONTENT_SHA_1);
+            docRepository.saveAndFlush(firstDoc);
+            RenderJob job = renderJobRepository.saveAndFlush(new RenderJob().docId(first.getId()).contentSha1(UPDATED_CONTENT_SHA_1)
+                .status(RenderJobStatus.RENDERING).attempts(1).createdAt(Instant.now()));
+            assertThat(contentStoreServiceImpl.getLinkedSha1(Doc.ENTITY_NAME, first.getId())).contains(DEFAULT_CONTENT_SHA_1);
+
+            // the other doc of the shared content is deleted
+            docService.delete(second.getId());
+            contentStoreServiceImpl.release(DEFAULT_CONTENT_SHA_1);
+            assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).exists();
+
+            // the content is deleted once the rendering is over
+            job.setStatus(RenderJobStatus.FAILED);
+            renderJobRepository.saveAndFlush(job);
+            contentStoreServiceImpl.release(DEFAULT_CONTENT_SHA_1);
+            assertThat(contentStoreServiceImpl.getContentFile(DEFAULT_CONTENT_SHA_1)).doesNotExist();
+        } finally {
+            docService.delete(first.getId());
+            if (docRepository.existsById(second.getId())) {
+                docService.delete(second.getId());
+            }
+        }
+    }
+
+    @Test
+    public void getDocImgNegotiatesTheAvailableFormats() throws Exception {
+        DocDTO docDTO = savePdf(readPdf());
+        try {
+            awaitRenderJob(docDTO.getId(), docDTO.getContentSha1());
+
+            restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), 1))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG_VALUE));
+            restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), 1)
+                .header(HttpHeaders.ACCEPT, "image/webp;q=0.9, image/png;q=0.8"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(ImageFormat.WEBP.isAvailable() ? "image/webp" : MediaType.IMAGE_PNG_VALUE));
+            if (!ImageFormat.WEBP.isAvailable()) {
+                // no WebP writer in the classpath
+                restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), 1)
+                    .header(HttpHeaders.ACCEPT, "image/webp"))
+                    .andExpect(status().isNotAcceptable());
+            }
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    @Test
+    public void updateDocContentReusesTheImagesOfTheUnchangedPages() throws Exception {
+        byte[] pdf = readPdf();
+        DocDTO docDTO = savePdf(pdf);
+        try {
+            awaitRenderJob(docDTO.getId(), docDTO.getContentSha1());
+            Path dir = Paths.get(contentStoreServiceImpl.getShaPath(docDTO.getContentSha1()));
+            assertThat(dir.resolve(PageFingerprint.getFileName("img.", 1))).exists();
+            Object firstPage = Files.readAttributes(dir.resolve("img.1.jpg"), BasicFileAttributes.class).fileKey();
+
+            // the new content is rendered by its job, its first page is unchanged
+            docDTO.setContent(editPage(pdf, 1));
+            DocDTO updated = docService.save(docDTO);
+            assertThat(updated.getContentSha1()).isNotEqualTo(docDTO.getContentSha1());
+            awaitRenderJob(updated.getId(), updated.getContentSha1());
+
+            Path next = Paths.get(contentStoreServiceImpl.getShaPath(updated.getContentSha1()));
+            assertThat(Files.readAttributes(next.resolve("img.1.jpg"), BasicFileAttributes.class).fileKey())
+                .isEqualTo(firstPage);
+            assertThat(next.resolve("img.2.jpg")).exists();
+            assertThat(listFileNames(next)).noneMatch(name -> name.contains("tmp-"));
+        } finally {
+            docService.delete(docDTO.getId());
+        }
+    }
+
+    private byte[] readPdf() throws Exception {
+        try (InputStream in = DocResourceIT.class.getResourceAsStream(PDF_RESOURCE)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    /**
+     * @return the PDF with a rectangle drawn on a page.
+     */
+    private byte[] editPage(byte[] pdf, int pageIndex) throws Exception {
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        try (PDDocument document = PDDocument.load(pdf)) {
+            try (PDPageContentStream content = new PDPageContentStream(document, document.getPage(pageIndex),
+                PDPageContentStream.AppendMode.APPEND, true, true)) {
+                content.addRect(10, 10, 50, 50);
+                content.fill();
+            }
+            document.save(edited);
+        }
+        return edited.toByteArray();
+    }
+
+    private DocDTO savePdf(byte[] pdf) {
+        DocDTO docDTO = docMapper.toDto(doc);
+        docDTO.setContent(pdf);
+        docDTO.setContentContentType("application/pdf");
+        return docService.save(docDTO);
+    }
+
+    /**
+     * Wait for the render job of a content of a doc, run by the workers once the doc is committed.
+     */
+    private void awaitRenderJob(Long docId, String contentSha1) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            Optional<RenderJobDTO> job = renderJobService.findLastByDocId(docId);
+            if (job.isPresent() && contentSha1.equals(job.get().getContentSha1())
+                && (job.get().getStatus() == RenderJobStatus.DONE || job.get().getStatus() == RenderJobStatus.FAILED)) {
+                assertThat(job.get().getStatus()).isEqualTo(RenderJobStatus.DONE);
+                return;
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("The render job of Doc " + docId + " is not done");
+    }
+
+    private static List<String> listFileNames(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
 }
@@ -0,0 +1,248 @@
+package docpreview.web.rest;
+
+import docpreview.DocpreviewApp;
+import docpreview.domain.Doc;
+import docpreview.domain.enumeration.RenderJobStatus;
+import docpreview.pdfbox.tools.ImageFormat;
+import docpreview.pdfbox.tools.ImageSize;
+import docpreview.pdfbox.tools.PageFingerprint;
+import docpreview.service.DocService;
+import docpreview.service.PageRenderService;
+import docpreview.service.RenderJobService;
+import docpreview.service.dto.DocDTO;
+import docpreview.service.dto.RenderJobDTO;
+import docpreview.service.impl.FilesystemServiceImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+/**
+ * Integration tests for the rendering of the page images on their first request
+ * by the {@link DocResource} REST controller, with {@code pdftoimage.render.lazy}.
+ */
+@SpringBootTest(classes = DocpreviewApp.class, properties = "pdftoimage.render.lazy=true")
+@AutoConfigureMockMvc
+@WithMockUser
+public class DocResourceLazyRenderingIT {
+
+    private static final String PDF_RESOURCE = "/config/liquibase/fake-data/blob/tutoriel.pdf";
+
+    @Autowired
+    private DocService docService;
+
+    @Autowired
+    private RenderJobService renderJobService;
+
+    @Autowired
+    private PageRenderService pageRenderService;
+
+    @Autowired
+    private FilesystemServiceImpl filesystemServiceImpl;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private MockMvc restDocMockMvc;
+
+    /**
+     * the docs saved by the test, committed for their render jobs
+     */
+    private final List<Long> docIds = new ArrayList<>();
+
+    /**
+     * the doc of a PDF of its own, whose render job has counted the pages
+     */
+    private DocDTO docDTO;
+
+    private int numberOfPages;
+
+    @BeforeEach
+    public void initTest() throws Exception {
+        docDTO = saveDoc(uniquePdf());
+        RenderJobDTO job = awaitRenderJob(docDTO.getId());
+        assertThat(job.getStatus()).isEqualTo(RenderJobStatus.DONE);
+        numberOfPages = job.getNumberOfPages();
+    }
+
+    @AfterEach
+    public void deleteDocs() {
+        for (Long docId : docIds) {
+            docService.delete(docId);
+        }
+        docIds.clear();
+    }
+
+    @Test
+    public void getDocImgRendersAllTheSizesOfThePageOnItsFirstRequest() throws Exception {
+        assertThat(numberOfPages).isGreaterThan(1);
+        Path dir = getDocDir(docDTO.getId());
+        assertThat(listFileNames(dir)).noneMatch(name -> name.startsWith("img."));
+
+        restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), 1))
+            .andExpect(status().isOk())
+            .andExpect(content().contentType(MediaType.IMAGE_JPEG_VALUE));
+
+        // all the sizes of the requested page only are rendered, without temporary files
+        for (ImageSize size : ImageSize.values()) {
+            assertThat(dir.resolve(size.getFileName("img.", 1, "jpg"))).exists();
+            assertThat(dir.resolve(size.getFileName("img.", 2, "jpg"))).doesNotExist();
+        }
+        // the fingerprint of the page is published with its images, for the next contents
+        assertThat(dir.resolve(PageFingerprint.getFileName("img.", 1))).exists();
+        assertThat(listFileNames(dir)).noneMatch(name -> name.contains("tmp-"));
+        Object rendered = Files.readAttributes(dir.resolve("img.1.jpg"), BasicFileAttributes.class).fileKey();
+
+        // the next requests are served by the published image
+        restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), 1)
+            .param("size", ImageSize.THUMB.getName()))
+            .andExpect(status().isOk());
+        assertThat(Files.readAttributes(dir.resolve("img.1.jpg"), BasicFileAttributes.class).fileKey())
+            .isEqualTo(rendered);
+    }
+
+    @Test
+    public void getDocImgOfAPagePastTheLastOneIsNotRendered() throws Exception {
+        restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", docDTO.getId(), numberOfPages + 1))
+            .andExpect(status().isNotFound());
+
+        assertThat(listFileNames(getDocDir(docDTO.getId())))
+            .noneMatch(name -> name.startsWith("img." + (numberOfPages + 1) + "."));
+    }
+
+    @Test
+    public void getDocImgOfAFailedRenderingLeavesNoPartialFiles() throws Exception {
+        // a content which is not a PDF, its pages can not be counted nor rendered
+        DocDTO failed = saveDoc(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8));
+        assertThat(awaitRenderJob(failed.getId()).getStatus()).isEqualTo(RenderJobStatus.FAILED);
+
+        restDocMockMvc.perform(get("/api/docs/{id}/img/{page}", failed.getId(), 1))
+            .andExpect(status().isNotFound());
+
+        assertThat(listFileNames(getDocDir(failed.getId()))).noneMatch(name -> name.startsWith("img."));
+    }
+
+    @Test
+    public void concurrentRequestsOfAPageRenderItOnce() throws Exception {
+        Long docId = docDTO.getId();
+        double renderings = countRenderings();
+        double coalesced = meterRegistry.get("docpreview.img.renderings.coalesced").functionCounter().count();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<File>>> images = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                images.add(executor.submit(() -> {
+                    start.await();
+                    return pageRenderService.getPageImage(docId, 1, ImageSize.FULL, ImageFormat.JPEG);
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<File>> image : images) {
+                assertThat(image.get(30, TimeUnit.SECONDS)).isPresent();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(countRenderings()).isEqualTo(renderings + 1);
+        assertThat(meterRegistry.get("docpreview.img.renderings.coalesced").functionCounter().count())
+            .isGreaterThan(coalesced);
+    }
+
+    /**
+     * @return the PDF with a title of its own, so that its content is not shared with another test.
+     */
+    private byte[] uniquePdf() throws Exception {
+        ByteArrayOutputStream unique = new ByteArrayOutputStream();
+        try (InputStream in = DocResourceLazyRenderingIT.class.getResourceAsStream(PDF_RESOURCE);
+            PDDocument document = PDDocument.load(IOUtils.toByteArray(in))) {
+            document.getDocumentInformation().setTitle(UUID.randomUUID().toString());
+            document.save(unique);
+        }
+        return unique.toByteArray();
+    }
+
+    private DocDTO saveDoc(byte[] content) {
+        DocDTO doc = new DocDTO();
+        doc.setTitle("lazy rendering");
+        doc.setContent(content);
+        doc.setContentContentType("application/pdf");
+        DocDTO saved = docService.save(doc);
+        docIds.add(saved.getId());
+        return saved;
+    }
+
+    /**
+     * Wait for the render job of a doc, run by the workers once the doc is committed.
+     */
+    private RenderJobDTO awaitRenderJob(Long docId) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            Optional<RenderJobDTO> job = renderJobService.findLastByDocId(docId);
+            if (job.isPresent()
+                && (job.get().getStatus() == RenderJobStatus.DONE || job.get().getStatus() == RenderJobStatus.FAILED)) {
+                return job.get();
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("The render job of Doc " + docId + " is not done");
+    }
+
+    /**
+     * @return the on demand renderings, each one renders from a PDF document cached or loaded.
+     */
+    private double countRenderings() {
+        return meterRegistry.get("docpreview.render.documents.hits").functionCounter().count()
+            + meterRegistry.get("docpreview.render.documents.misses").functionCounter().count();
+    }
+
+    private Path getDocDir(Long docId) {
+        return Paths.get(filesystemServiceImpl.getDocPathPrefix(Doc.ENTITY_NAME, docId));
+    }
+
+    private static List<String> listFileNames(Path dir) throws Exception {
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+}